@@ -0,0 +1,40 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+public class Appointment {
+    private final int id;
+    private final Date time;
+    private final String vaccineName;
+    private final String patientUsername;
+    private final String caregiverUsername;
+
+    public Appointment(int id, Date time, String vaccineName, String patientUsername, String caregiverUsername) {
+        this.id = id;
+        this.time = time;
+        this.vaccineName = vaccineName;
+        this.patientUsername = patientUsername;
+        this.caregiverUsername = caregiverUsername;
+    }
+
+    // Getters
+    public int getId() {
+        return id;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public String getPatientUsername() {
+        return patientUsername;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+}
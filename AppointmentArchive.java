@@ -0,0 +1,372 @@
+package scheduler.db;
+
+import scheduler.model.Appointment;
+import src.main.scheduler.util.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Past appointments moved out of the live table. Every month older than ArchiveAfterDays (default
+// 365) is written to ArchiveDir (default appointment-archive) as one segment file and then deleted
+// from storage in batches of ArchiveDeleteBatch rows, so the tables and indexes that reserve, cancel
+// and show_appointments use only hold recent appointments.
+// usage: java Scheduler --archive
+//
+// A segment is deflate-compressed and stored by column: the vaccine, patient and caregiver names
+// as dictionaries, then the IDs as deltas, the days of the month and the dictionary codes per row.
+// A query for one user reads the dictionaries first and skips the rest of the segment when the
+// user is not in it.
+public class AppointmentArchive {
+
+    private static final Pattern SEGMENT = Pattern.compile("appointments-(\\d{4}-\\d{2})\\.seg");
+    private static final int MAGIC = 0x41505347;
+    private static final int VERSION = 1;
+
+    private static final String DIRECTORY = System.getenv("ArchiveDir") != null ? System.getenv("ArchiveDir")
+            : "appointment-archive";
+    private static final int AFTER_DAYS = Util.getEnvInt("ArchiveAfterDays", 365);
+    private static final int DELETE_BATCH = Util.getEnvInt("ArchiveDeleteBatch", 1000);
+
+    private static AppointmentArchive instance = null;
+
+    private final Path directory;
+    // archived months as of the last listing. A separate --archive run adds segments behind our back,
+    // so the directory is listed again whenever its modification time moves, see segments().
+    private volatile ConcurrentSkipListMap<YearMonth, Path> segments = new ConcurrentSkipListMap<>();
+    private volatile long listedModified = Long.MIN_VALUE;
+    private volatile long listedAt = 0;
+
+    private AppointmentArchive(Path directory) {
+        this.directory = directory;
+    }
+
+    // the archived months, listing the directory again if it changed since the last listing. A change
+    // within the file system's timestamp resolution of a listing may not move the time, so a listing
+    // taken that close to the last change is not trusted either.
+    private ConcurrentSkipListMap<YearMonth, Path> segments() {
+        long modified;
+        try {
+            modified = Files.isDirectory(directory) ? Files.getLastModifiedTime(directory).toMillis() : 0;
+        } catch (IOException e) {
+            return segments;
+        }
+        if (modified == listedModified && listedAt - modified > 2000) {
+            return segments;
+        }
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            ConcurrentSkipListMap<YearMonth, Path> listed = new ConcurrentSkipListMap<>();
+            if (modified != 0) {
+                try (Stream<Path> files = Files.list(directory)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        Matcher matcher = SEGMENT.matcher(file.getFileName().toString());
+                        if (matcher.matches()) {
+                            listed.put(YearMonth.parse(matcher.group(1)), file);
+                        }
+                    }
+                } catch (IOException e) {
+                    System.out.println("Could not list the appointment archive: " + e.getMessage());
+                    return segments;
+                }
+            }
+            segments = listed;
+            listedModified = modified;
+            listedAt = now;
+            return listed;
+        }
+    }
+
+    public static synchronized AppointmentArchive getInstance() {
+        if (instance == null) {
+            instance = new AppointmentArchive(Paths.get(DIRECTORY));
+        }
+        return instance;
+    }
+
+    public static void main(String[] args) {
+        try {
+            getInstance().archive(LocalDate.now().minusDays(AFTER_DAYS));
+        } catch (IOException | SQLException e) {
+            System.out.println("Archiving failed: " + e.getMessage());
+        } finally {
+            StorageManager.shutdown();
+        }
+    }
+
+    // Archives every whole month before the horizon. A month is written and synced before any of its
+    // rows are deleted, and a segment left by an interrupted run is merged with what is still live.
+    public void archive(LocalDate horizon) throws IOException, SQLException {
+        Storage storage = StorageManager.getStorage();
+        Date first = storage.getFirstAppointmentDate();
+        if (first == null) {
+            System.out.println("No appointments to archive");
+            return;
+        }
+        Files.createDirectories(directory);
+        YearMonth end = YearMonth.from(horizon);
+        for (YearMonth month = YearMonth.from(first.toLocalDate()); month.isBefore(end);
+             month = month.plusMonths(1)) {
+            Date from = Date.valueOf(month.atDay(1));
+            Date to = Date.valueOf(month.plusMonths(1).atDay(1));
+            TreeMap<Integer, Appointment> rows = new TreeMap<>();
+            storage.forEachAppointmentBetween(from, to, a -> rows.put(a.getId(), a));
+            if (rows.isEmpty()) {
+                continue;
+            }
+            Path existing = segments().get(month);
+            if (existing != null) {
+                for (Appointment appointment : read(existing, null)) {
+                    rows.putIfAbsent(appointment.getId(), appointment);
+                }
+            }
+            Path file = directory.resolve("appointments-" + month + ".seg");
+            write(file, new ArrayList<>(rows.values()));
+            segments().put(month, file);
+
+            long deleted = 0;
+            int batch;
+            while ((batch = storage.deleteAppointments(from, to, DELETE_BATCH)) > 0) {
+                deleted += batch;
+            }
+            System.out.println("Archived " + month + ": " + rows.size() + " appointments in "
+                    + Files.size(file) + " bytes, " + deleted + " deleted from storage");
+        }
+    }
+
+    // Appointments for the query from storage and, when it asks for a date range that reaches archived
+    // months, from the archive too, merged in ID order. Archived matches are collected per query, so
+    // memory grows with one user's archived history rather than with the archive.
+    public void forEachAppointment(AppointmentQuery query, Consumer<Appointment> action) throws SQLException {
+        NavigableMap<YearMonth, Path> months = query.includesArchive() ? overlapping(query) : new TreeMap<>();
+        if (months.isEmpty()) {
+            StorageManager.getStorage().forEachAppointment(query, action);
+            return;
+        }
+        TreeMap<Integer, Appointment> archived = new TreeMap<>();
+        for (Path segment : months.values()) {
+            try {
+                for (Appointment appointment : read(segment, query)) {
+                    archived.put(appointment.getId(), appointment);
+                    if (query.getLimit() > 0 && archived.size() > query.getLimit()) {
+                        archived.pollLastEntry();
+                    }
+                }
+            } catch (IOException e) {
+                throw new SQLException("Could not read " + segment + ": " + e.getMessage());
+            }
+        }
+
+        int limit = query.getLimit() > 0 ? query.getLimit() : Integer.MAX_VALUE;
+        int[] emitted = {0};
+        StorageManager.getStorage().forEachAppointment(query, live -> {
+            while (!archived.isEmpty() && archived.firstKey() < live.getId() && emitted[0] < limit) {
+                action.accept(archived.pollFirstEntry().getValue());
+                emitted[0]++;
+            }
+            // a month that is archived but not yet deleted has its rows in both places
+            archived.remove(live.getId());
+            if (emitted[0] < limit) {
+                action.accept(live);
+                emitted[0]++;
+            }
+        });
+        while (!archived.isEmpty() && emitted[0] < limit) {
+            action.accept(archived.pollFirstEntry().getValue());
+            emitted[0]++;
+        }
+    }
+
+    private NavigableMap<YearMonth, Path> overlapping(AppointmentQuery query) {
+        NavigableMap<YearMonth, Path> segments = segments();
+        if (segments.isEmpty()) {
+            return segments;
+        }
+        YearMonth from = query.getFrom() != null ? YearMonth.from(query.getFrom().toLocalDate()) : segments.firstKey();
+        YearMonth to = query.getTo() != null ? YearMonth.from(query.getTo().toLocalDate()) : segments.lastKey();
+        if (to.isBefore(from)) {
+            return new TreeMap<>();
+        }
+        return segments.subMap(from, true, to, true);
+    }
+
+    private static void write(Path file, List<Appointment> rows) throws IOException {
+        Map<String, Integer> vaccines = new HashMap<>();
+        Map<String, Integer> patients = new HashMap<>();
+        Map<String, Integer> caregivers = new HashMap<>();
+        for (Appointment appointment : rows) {
+            vaccines.putIfAbsent(appointment.getVaccineName(), vaccines.size());
+            patients.putIfAbsent(appointment.getPatientUsername(), patients.size());
+            caregivers.putIfAbsent(appointment.getCaregiverUsername(), caregivers.size());
+        }
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temporary.toFile());
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(new BufferedOutputStream(stream),
+                new Deflater(Deflater.BEST_COMPRESSION), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rows.size());
+            writeDictionary(out, vaccines);
+            writeDictionary(out, patients);
+            writeDictionary(out, caregivers);
+            // IDs ascend, so the deltas are small; the month is in the file name, only the day is stored
+            int previous = 0;
+            for (Appointment appointment : rows) {
+                writeVarInt(out, appointment.getId() - previous);
+                previous = appointment.getId();
+            }
+            for (Appointment appointment : rows) {
+                out.writeByte(appointment.getTime().toLocalDate().getDayOfMonth());
+            }
+            for (Appointment appointment : rows) {
+                writeVarInt(out, vaccines.get(appointment.getVaccineName()));
+            }
+            for (Appointment appointment : rows) {
+                writeVarInt(out, patients.get(appointment.getPatientUsername()));
+            }
+            for (Appointment appointment : rows) {
+                writeVarInt(out, caregivers.get(appointment.getCaregiverUsername()));
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // the segment's appointments, only those matching the query unless query is null
+    private static List<Appointment> read(Path file, AppointmentQuery query) throws IOException {
+        Matcher matcher = SEGMENT.matcher(file.getFileName().toString());
+        if (!matcher.matches()) {
+            throw new IOException("Not a segment file");
+        }
+        YearMonth month = YearMonth.parse(matcher.group(1));
+        boolean filter = query != null;
+        List<Appointment> matches = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(
+                new BufferedInputStream(Files.newInputStream(file)), new Inflater(), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unknown segment format");
+            }
+            int count = in.readInt();
+            String[] vaccines = readDictionary(in);
+            String[] patients = readDictionary(in);
+            String[] caregivers = readDictionary(in);
+            int owner = -1;
+            if (filter) {
+                owner = indexOf(query.isCaregiver() ? caregivers : patients, query.getUsername());
+                if (owner < 0) {
+                    // nothing of this user's in the month, the columns are not even decompressed
+                    return matches;
+                }
+            }
+
+            int[] ids = new int[count];
+            int previous = 0;
+            for (int i = 0; i < count; i++) {
+                previous += readVarInt(in);
+                ids[i] = previous;
+            }
+            byte[] days = new byte[count];
+            in.readFully(days);
+            int[] vaccineCodes = readCodes(in, count);
+            int[] patientCodes = readCodes(in, count);
+            int[] caregiverCodes = readCodes(in, count);
+            int[] ownerCodes = filter && query.isCaregiver() ? caregiverCodes : patientCodes;
+
+            for (int i = 0; i < count; i++) {
+                if (filter && (ownerCodes[i] != owner || ids[i] <= query.getAfterId())) {
+                    continue;
+                }
+                Date time = Date.valueOf(month.atDay(days[i]));
+                if (filter && !query.includes(time)) {
+                    continue;
+                }
+                matches.add(new Appointment(ids[i], time, vaccines[vaccineCodes[i]], patients[patientCodes[i]],
+                        caregivers[caregiverCodes[i]]));
+            }
+        }
+        return matches;
+    }
+
+    private static int indexOf(String[] dictionary, String value) {
+        for (int i = 0; i < dictionary.length; i++) {
+            if (dictionary[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void writeDictionary(DataOutputStream out, Map<String, Integer> dictionary) throws IOException {
+        String[] values = new String[dictionary.size()];
+        for (Map.Entry<String, Integer> entry : dictionary.entrySet()) {
+            values[entry.getValue()] = entry.getKey();
+        }
+        writeVarInt(out, values.length);
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String[] readDictionary(DataInputStream in) throws IOException {
+        String[] values = new String[readVarInt(in)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readUTF();
+        }
+        return values;
+    }
+
+    private static int[] readCodes(DataInputStream in, int count) throws IOException {
+        int[] codes = new int[count];
+        for (int i = 0; i < count; i++) {
+            codes[i] = readVarInt(in);
+        }
+        return codes;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package scheduler.db;
+
+import java.sql.Date;
+
+// Which of a user's appointments to read: an optional date range, and a keyset page of appointments
+// with an ID greater than afterId, at most limit of them (0 for no limit), in ID order. Archived
+// appointments are only included when archive is set, see AppointmentArchive.
+public class AppointmentQuery {
+    private final String username;
+    private final boolean isCaregiver;
+    private final Date from;
+    private final Date to;
+    private final int afterId;
+    private final int limit;
+    private final boolean archive;
+
+    private AppointmentQuery(AppointmentQueryBuilder builder) {
+        this.username = builder.username;
+        this.isCaregiver = builder.isCaregiver;
+        this.from = builder.from;
+        this.to = builder.to;
+        this.afterId = builder.afterId;
+        this.limit = builder.limit;
+        this.archive = builder.archive;
+    }
+
+    // Getters
+    public String getUsername() {
+        return username;
+    }
+
+    public boolean isCaregiver() {
+        return isCaregiver;
+    }
+
+    public Date getFrom() {
+        return from;
+    }
+
+    public Date getTo() {
+        return to;
+    }
+
+    public int getAfterId() {
+        return afterId;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean includesArchive() {
+        return archive;
+    }
+
+    // true if the date lies inside the requested range
+    public boolean includes(Date date) {
+        return (from == null || !date.before(from)) && (to == null || !date.after(to));
+    }
+
+    public static class AppointmentQueryBuilder {
+        private final String username;
+        private final boolean isCaregiver;
+        private Date from = null;
+        private Date to = null;
+        private int afterId = 0;
+        private int limit = 0;
+        private boolean archive = false;
+
+        public AppointmentQueryBuilder(String username, boolean isCaregiver) {
+            this.username = username;
+            this.isCaregiver = isCaregiver;
+        }
+
+        public AppointmentQueryBuilder from(Date from) {
+            this.from = from;
+            return this;
+        }
+
+        public AppointmentQueryBuilder to(Date to) {
+            this.to = to;
+            return this;
+        }
+
+        public AppointmentQueryBuilder after(int afterId) {
+            this.afterId = afterId;
+            return this;
+        }
+
+        public AppointmentQueryBuilder limit(int limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        public AppointmentQueryBuilder archive(boolean archive) {
+            this.archive = archive;
+            return this;
+        }
+
+        public AppointmentQuery build() {
+            return new AppointmentQuery(this);
+        }
+    }
+}
@@ -0,0 +1,669 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Journal;
+import src.main.scheduler.util.Metrics;
+import src.main.scheduler.util.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Write-behind for reservations on the SQL database. With WriteBehind on, a reservation claims its
+// slot in the AvailabilityIndex and its dose in the DoseInventory, appends one record to a local
+// Journal (forced to disk, so the booking survives a crash) and returns; the appointment row, the
+// slot delete, the dose decrement and the daily counters are written later by a background thread,
+// up to WriteBehindBatch reservations per transaction every WriteBehindFlushMs. The log is compacted
+// down to the still unwritten records after every flush.
+//
+// The slots and doses are claimed in this process's memory, so only one process may book with
+// write-behind: start() takes an exclusive application lock on a connection it keeps open, and a
+// second process fails to start and reserves synchronously. If that connection drops, the lock is
+// gone and new reservations go to the database directly again.
+//
+// Other processes may keep booking synchronously. Their bookings are not in this process's index,
+// so a booking made here can find its slot, dose or waitlist entry gone when it is written: each row
+// is checked, and one that lost anything is taken out again, logged and counted as dropped.
+//
+// Appointment IDs are handed out here and inserted with IDENTITY_INSERT. They come from blocks of
+// WriteBehindIdBlock IDs reserved by moving the table's identity past them, so rows inserted through
+// IDENTITY elsewhere never take one. IDs therefore do not follow commit order: a row from this block
+// can commit after other processes' rows with higher IDs, and a reader in another process paging
+// appointments by ID (show_appointments after <id>) can step past it. Readers in this process wait
+// for the flush first. Every insert checks the row is not there yet, which makes replaying a log
+// whose flush committed just before a crash harmless. Anything that reads or changes appointments or
+// slots in the database calls awaitFlush() first.
+public class AppointmentWriteBehind {
+
+    private static final boolean ENABLED = Util.getEnvBoolean("WriteBehind", false);
+    private static final boolean SYNC = Util.getEnvBoolean("WriteBehindSync", true);
+    private static final long FLUSH_INTERVAL_MS = Util.getEnvInt("WriteBehindFlushMs", 200);
+    private static final int BATCH = Util.getEnvInt("WriteBehindBatch", 1000);
+    private static final int ID_BLOCK = Util.getEnvInt("WriteBehindIdBlock", 1000);
+    private static final String LOCK_NAME = "scheduler-write-behind";
+    private static final String DIRECTORY = System.getenv("WriteBehindDir") != null
+            ? System.getenv("WriteBehindDir") : "write-behind";
+
+    private static final AppointmentWriteBehind INSTANCE = new AppointmentWriteBehind();
+
+    // held by the one thread writing to the database, appends only need the monitor
+    private final Object flushLock = new Object();
+    // unwritten reservations by appointment ID, in the order they were made
+    private final LinkedHashMap<Integer, Pending> pending = new LinkedHashMap<>();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile Journal journal = null;
+    // holds the application lock for as long as it is open
+    private Connection lockConnection = null;
+    // IDs reserved for this process are nextId up to, not including, idLimit, and the spare block
+    // reserved ahead, if spareLimit > 0
+    private int nextId;
+    private int idLimit;
+    private int spareStart;
+    private int spareLimit = 0;
+    private boolean reserving = false;
+    private ScheduledExecutorService writer = null;
+    private volatile boolean active = false;
+
+    public static AppointmentWriteBehind getInstance() {
+        return INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    // true once start() has run, reservations go straight to the database otherwise
+    public boolean isActive() {
+        return active;
+    }
+
+    // Writes out what the log of an earlier run still holds. Call before loading the availability
+    // index and the dose inventory, so they start from a database that has every booking.
+    public void recover() throws IOException, SQLException {
+        synchronized (this) {
+            if (journal == null) {
+                journal = new Journal(Paths.get(DIRECTORY), SYNC, 1024 * 1024);
+                journal.open(body -> {
+                    Pending record = read(body);
+                    pending.put(record.appointment.getId(), record);
+                });
+            }
+        }
+        flush();
+    }
+
+    // Takes reservations from here on, the index and the inventory must be loaded by now. Fails if
+    // another process holds the write-behind lock.
+    public synchronized void start() throws SQLException {
+        if (journal == null) {
+            throw new IllegalStateException("recover() has to run first");
+        }
+        lock();
+        try {
+            int[] block = reserveIds();
+            nextId = block[0];
+            idLimit = block[1];
+        } catch (SQLException e) {
+            unlock();
+            throw e;
+        }
+
+        if (writer == null) {
+            writer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "appointment-writer");
+                t.setDaemon(true);
+                return t;
+            });
+            writer.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::flushQuietly));
+        }
+        active = true;
+    }
+
+    // Logs a reservation whose slot and dose the caller has already claimed and returns its
+    // appointment ID. The entry is deleted from the waitlist with the appointment if waitlistId > 0.
+    // The next ID block is reserved on the writer thread once half of the current one is used, so
+    // appends only wait for the database if a whole half block goes before that returns.
+    public int append(Date date, String vaccineName, String patientUsername, String caregiverUsername,
+                      int waitlistId) throws IOException, SQLException {
+        while (true) {
+            synchronized (this) {
+                if (!active) {
+                    throw new SQLException("Write-behind stopped, the lock was lost");
+                }
+                if (nextId >= idLimit && spareLimit > 0) {
+                    nextId = spareStart;
+                    idLimit = spareLimit;
+                    spareLimit = 0;
+                }
+                if (nextId < idLimit) {
+                    Pending record = new Pending(new Appointment(nextId, date, vaccineName, patientUsername,
+                            caregiverUsername), waitlistId, System.nanoTime());
+                    journal.append(write(record));
+                    pending.put(nextId, record);
+                    if (spareLimit == 0 && !reserving && idLimit - nextId <= ID_BLOCK / 2) {
+                        reserving = true;
+                        writer.execute(this::reserveAhead);
+                    }
+                    return nextId++;
+                }
+                if (reserving) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted waiting for appointment IDs", e);
+                    }
+                    continue;
+                }
+                reserving = true;
+            }
+            refill();
+        }
+    }
+
+    private void reserveAhead() {
+        try {
+            refill();
+        } catch (SQLException e) {
+            // the append that runs out reserves the block itself
+            System.out.println("Could not reserve appointment IDs ahead: " + e.getMessage());
+        }
+    }
+
+    // reserves the spare block outside the monitor, the caller has set reserving
+    private void refill() throws SQLException {
+        int[] block = null;
+        try {
+            block = reserveIds();
+        } finally {
+            synchronized (this) {
+                if (block != null) {
+                    spareStart = block[0];
+                    spareLimit = block[1];
+                }
+                reserving = false;
+                notifyAll();
+            }
+        }
+    }
+
+    // makes the database current, for callers about to read or change appointments or slots there
+    public void awaitFlush() throws SQLException {
+        if (journal == null) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            throw new SQLException("Write-behind log compaction failed: " + e.getMessage(), e);
+        }
+    }
+
+    // writes every record appended so far, a batch per transaction
+    public void flush() throws IOException, SQLException {
+        synchronized (flushLock) {
+            while (true) {
+                List<Pending> batch = new ArrayList<>();
+                synchronized (this) {
+                    Iterator<Pending> records = pending.values().iterator();
+                    while (records.hasNext() && batch.size() < BATCH) {
+                        batch.add(records.next());
+                    }
+                }
+                if (batch.isEmpty()) {
+                    return;
+                }
+                // the batch checks doses against the table, which has to have the inventory's changes
+                DoseInventory inventory = DoseInventory.getInstance();
+                if (inventory.isActive()) {
+                    inventory.flush();
+                }
+                List<Dropped> lost;
+                try {
+                    lost = writeBatch(batch);
+                } catch (SQLException e) {
+                    flushFailures.increment();
+                    throw e;
+                }
+                for (Dropped d : lost) {
+                    undo(d);
+                }
+                dropped.add(lost.size());
+                long now = System.nanoTime();
+                synchronized (this) {
+                    for (Pending record : batch) {
+                        pending.remove(record.appointment.getId());
+                    }
+                    // appends wait for this, so the snapshot holds exactly the unwritten records
+                    List<byte[]> live = new ArrayList<>();
+                    for (Pending record : pending.values()) {
+                        live.add(write(record));
+                    }
+                    journal.compact(live);
+                }
+                for (Pending record : batch) {
+                    Metrics.getInstance().recordWriteBehindLag(now - record.appendedAt);
+                }
+                written.add(batch.size());
+                flushes.increment();
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        checkLock();
+        try {
+            flush();
+        } catch (IOException | SQLException e) {
+            // retried on the next tick, the log still has every record
+            e.printStackTrace();
+        }
+    }
+
+    // Takes the exclusive write-behind lock for the life of a dedicated connection. The lock belongs
+    // to the session, so it goes away with the connection, also when this process dies.
+    private void lock() throws SQLException {
+        Connection con = ConnectionManager.openPhysicalConnection();
+        try {
+            CallableStatement getLock = con.prepareCall("{? = call sp_getapplock(?, ?, ?, ?)}");
+            getLock.registerOutParameter(1, Types.INTEGER);
+            getLock.setString(2, LOCK_NAME);
+            getLock.setString(3, "Exclusive");
+            getLock.setString(4, "Session");
+            getLock.setInt(5, 0);
+            getLock.execute();
+            // 0 or 1 when granted, negative when another session holds it
+            if (getLock.getInt(1) < 0) {
+                throw new SQLException("Another process is already booking with write-behind");
+            }
+        } catch (SQLException e) {
+            closeQuietly(con);
+            throw e;
+        }
+        lockConnection = con;
+    }
+
+    private void unlock() {
+        if (lockConnection != null) {
+            closeQuietly(lockConnection);
+            lockConnection = null;
+        }
+    }
+
+    // Stops taking reservations once the lock connection is gone, another process may hold the lock by
+    // now. What is already logged is still written out.
+    private void checkLock() {
+        Connection con;
+        synchronized (this) {
+            con = lockConnection;
+        }
+        if (!active || con == null) {
+            return;
+        }
+        boolean valid;
+        try {
+            valid = con.isValid(2);
+        } catch (SQLException e) {
+            valid = false;
+        }
+        if (!valid) {
+            synchronized (this) {
+                active = false;
+                unlock();
+            }
+            System.out.println("Lost the write-behind lock, reserving synchronously from now on");
+        }
+    }
+
+    // Reserves the next ID_BLOCK appointment IDs and returns the first and the limit. The table is
+    // locked while the identity is moved past the block, so no insert through IDENTITY can take an ID
+    // in between. The block ends one short of the new identity, which an empty table hands out as its
+    // first ID.
+    private static int[] reserveIds() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        String lockTable = "SELECT COUNT(*) FROM Appointments WITH (TABLOCKX, HOLDLOCK) WHERE 1 = 0";
+        String selectLast = "SELECT IDENT_CURRENT('Appointments'), (SELECT MAX(ID) FROM Appointments)";
+        try {
+            con.setAutoCommit(false);
+            cm.prepareStatement(lockTable).executeQuery();
+            ResultSet rs = cm.prepareStatement(selectLast).executeQuery();
+            long last = 0;
+            if (rs.next()) {
+                last = Math.max(rs.getLong(1), rs.getLong(2));
+            }
+            if (last + ID_BLOCK + 1 > Integer.MAX_VALUE) {
+                throw new SQLException("Appointment IDs exhausted");
+            }
+            int start = (int) last + 1;
+            int limit = start + ID_BLOCK;
+            try (Statement reseed = con.createStatement()) {
+                reseed.execute("DBCC CHECKIDENT ('Appointments', RESEED, " + limit + ") WITH NO_INFOMSGS");
+            }
+            con.commit();
+            return new int[] {start, limit};
+        } catch (SQLException e) {
+            rollbackQuietly(con);
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Writes a batch in one transaction and returns the bookings it had to drop. A booking made here
+    // from memory can lose its slot, its dose or its waitlist entry to a process booking synchronously
+    // in the meantime. Every row's counts are checked, and a booking that lost any of them is taken out
+    // again: its appointment row is deleted and a slot it did take is put back.
+    private static List<Dropped> writeBatch(List<Pending> batch) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        String insertAppointment = "INSERT INTO Appointments (ID, Time, Name, PatientUsername, CaregiverUsername) "
+                + "SELECT ?, ?, ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM Appointments WHERE Time = ? AND ID = ?)";
+        String deleteSlot = "DELETE FROM Availabilities WHERE Time = ? AND Username = ?";
+        String selectDoses = "SELECT Doses FROM Vaccines WITH (UPDLOCK) WHERE Name = ?";
+        String deleteEntry = "DELETE FROM Waitlist WHERE ID = ?";
+        String takeDoses = "UPDATE Vaccines SET Doses = Doses - ? WHERE Name = ? AND Doses >= ?";
+        String deleteAppointment = "DELETE FROM Appointments WHERE Time = ? AND ID = ?";
+        String restoreSlot = "INSERT INTO Availabilities (Time, Username) VALUES (?, ?)";
+        List<Dropped> dropped = new ArrayList<>();
+        try {
+            con.setAutoCommit(false);
+            cm.prepareStatement("SET IDENTITY_INSERT Appointments ON").execute();
+
+            PreparedStatement insert = cm.prepareStatement(insertAppointment);
+            for (Pending record : batch) {
+                Appointment a = record.appointment;
+                insert.setInt(1, a.getId());
+                insert.setDate(2, a.getTime());
+                insert.setString(3, a.getVaccineName());
+                insert.setString(4, a.getPatientUsername());
+                insert.setString(5, a.getCaregiverUsername());
+                insert.setDate(6, a.getTime());
+                insert.setInt(7, a.getId());
+                insert.addBatch();
+            }
+            int[] inserted = insert.executeBatch();
+
+            // the rest only for rows this batch inserted, the others were written before a crash
+            List<Pending> fresh = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                if (inserted[i] > 0) {
+                    fresh.add(batch.get(i));
+                }
+            }
+            if (fresh.isEmpty()) {
+                con.commit();
+                return dropped;
+            }
+
+            PreparedStatement slot = cm.prepareStatement(deleteSlot);
+            for (Pending record : fresh) {
+                slot.setDate(1, record.appointment.getTime());
+                slot.setString(2, record.appointment.getCaregiverUsername());
+                slot.addBatch();
+            }
+            int[] slots = slot.executeBatch();
+            List<Pending> kept = new ArrayList<>();
+            for (int i = 0; i < fresh.size(); i++) {
+                if (slots[i] > 0) {
+                    kept.add(fresh.get(i));
+                } else {
+                    dropped.add(new Dropped(fresh.get(i), Dropped.Reason.SLOT));
+                }
+            }
+
+            // doses in booking order, the rows past what the table still has are dropped
+            TreeMap<String, Integer> available = new TreeMap<>();
+            for (Pending record : kept) {
+                available.put(record.appointment.getVaccineName(), 0);
+            }
+            PreparedStatement doses = cm.prepareStatement(selectDoses);
+            for (Map.Entry<String, Integer> vaccine : available.entrySet()) {
+                doses.setString(1, vaccine.getKey());
+                ResultSet rs = doses.executeQuery();
+                vaccine.setValue(rs.next() ? rs.getInt(1) : 0);
+            }
+            List<Pending> dosed = new ArrayList<>();
+            for (Pending record : kept) {
+                String name = record.appointment.getVaccineName();
+                int left = available.get(name);
+                if (left > 0) {
+                    available.put(name, left - 1);
+                    dosed.add(record);
+                } else {
+                    dropped.add(new Dropped(record, Dropped.Reason.DOSE));
+                }
+            }
+
+            List<Pending> served = new ArrayList<>();
+            List<Pending> confirmed = new ArrayList<>();
+            for (Pending record : dosed) {
+                (record.waitlistId > 0 ? served : confirmed).add(record);
+            }
+            if (!served.isEmpty()) {
+                PreparedStatement entry = cm.prepareStatement(deleteEntry);
+                for (Pending record : served) {
+                    entry.setInt(1, record.waitlistId);
+                    entry.addBatch();
+                }
+                int[] entries = entry.executeBatch();
+                for (int i = 0; i < served.size(); i++) {
+                    if (entries[i] > 0) {
+                        confirmed.add(served.get(i));
+                    } else {
+                        dropped.add(new Dropped(served.get(i), Dropped.Reason.WAITLIST));
+                    }
+                }
+            }
+
+            if (!dropped.isEmpty()) {
+                PreparedStatement delete = cm.prepareStatement(deleteAppointment);
+                PreparedStatement restore = cm.prepareStatement(restoreSlot);
+                boolean restored = false;
+                for (Dropped d : dropped) {
+                    Appointment a = d.record.appointment;
+                    delete.setDate(1, a.getTime());
+                    delete.setInt(2, a.getId());
+                    delete.addBatch();
+                    if (d.reason != Dropped.Reason.SLOT) {
+                        restore.setDate(1, a.getTime());
+                        restore.setString(2, a.getCaregiverUsername());
+                        restore.addBatch();
+                        restored = true;
+                    }
+                }
+                delete.executeBatch();
+                if (restored) {
+                    restore.executeBatch();
+                }
+            }
+
+            TreeMap<String, Integer> taken = new TreeMap<>();
+            TreeMap<Date, Map<String, Integer>> bookings = new TreeMap<>();
+            for (Pending record : confirmed) {
+                Appointment a = record.appointment;
+                taken.merge(a.getVaccineName(), 1, Integer::sum);
+                bookings.computeIfAbsent(a.getTime(), d -> new TreeMap<>()).merge(a.getVaccineName(), 1,
+                        Integer::sum);
+            }
+            if (!taken.isEmpty()) {
+                PreparedStatement take = cm.prepareStatement(takeDoses);
+                for (Map.Entry<String, Integer> dose : taken.entrySet()) {
+                    take.setInt(1, dose.getValue());
+                    take.setString(2, dose.getKey());
+                    take.setInt(3, dose.getValue());
+                    take.addBatch();
+                }
+                for (int count : take.executeBatch()) {
+                    // the rows are locked since they were read, this only fails if that broke
+                    if (count == 0) {
+                        throw new SQLException("Vaccines changed while the batch held them");
+                    }
+                }
+                for (Map.Entry<Date, Map<String, Integer>> day : bookings.entrySet()) {
+                    int booked = 0;
+                    for (Map.Entry<String, Integer> vaccine : day.getValue().entrySet()) {
+                        DailyCounters.addBooking(cm, day.getKey(), vaccine.getKey(), vaccine.getValue());
+                        booked += vaccine.getValue();
+                    }
+                    DailyCounters.addCapacity(cm, day.getKey(), 0, -booked);
+                }
+            }
+
+            con.commit();
+            return dropped;
+        } catch (SQLException e) {
+            rollbackQuietly(con);
+            throw e;
+        } finally {
+            try {
+                cm.prepareStatement("SET IDENTITY_INSERT Appointments OFF").execute();
+            } catch (SQLException e) {
+                // the pool only rolls back on release, a connection left in IDENTITY_INSERT would break
+                // the next borrower's inserts, so it is closed and the pool discards it
+                closeQuietly(con);
+            }
+            cm.closeConnection();
+        }
+    }
+
+    // Puts the memory of a dropped booking back in line with the database: a slot the batch put back
+    // returns to the index, a dose the table never gave up returns to the inventory. A booking dropped
+    // for want of a dose means the table ran out under the inventory, so the inventory is emptied too
+    // and turns the next bookings for that vaccine away instead of dropping them later.
+    private void undo(Dropped d) {
+        Appointment a = d.record.appointment;
+        System.out.println("Dropped write-behind appointment " + a.getId() + " for " + a.getPatientUsername()
+                + " on " + a.getTime() + ": " + d.reason.message);
+        if (!active) {
+            // recovering, the caches are loaded from the database afterwards
+            return;
+        }
+        if (d.reason != Dropped.Reason.SLOT) {
+            AvailabilityIndex.getInstance().add(a.getTime(), a.getCaregiverUsername());
+            AvailabilityCalendar.getInstance().add(a.getTime(), a.getCaregiverUsername());
+        }
+        if (d.reason == Dropped.Reason.DOSE) {
+            DoseInventory.getInstance().drain(a.getVaccineName());
+        } else {
+            DoseInventory.getInstance().add(a.getVaccineName(), 1);
+        }
+        CaregiverSelector.getInstance().released(a.getCaregiverUsername());
+    }
+
+    private static byte[] write(Pending record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Appointment a = record.appointment;
+        out.writeInt(a.getId());
+        out.writeInt(AvailabilityIndex.toEpochDay(a.getTime()));
+        out.writeUTF(a.getVaccineName());
+        out.writeUTF(a.getPatientUsername());
+        out.writeUTF(a.getCaregiverUsername());
+        out.writeInt(record.waitlistId);
+        return bytes.toByteArray();
+    }
+
+    private static Pending read(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        int id = in.readInt();
+        Date time = Date.valueOf(LocalDate.ofEpochDay(in.readInt()));
+        Appointment appointment = new Appointment(id, time, in.readUTF(), in.readUTF(), in.readUTF());
+        // replayed records count their lag from the restart
+        return new Pending(appointment, in.readInt(), System.nanoTime());
+    }
+
+    private static void closeQuietly(Connection con) {
+        try {
+            con.close();
+        } catch (SQLException e) {
+            // the lock goes with the session either way
+        }
+    }
+
+    private static void rollbackQuietly(Connection con) {
+        try {
+            con.rollback();
+        } catch (SQLException e) {
+            // release rolls back again and discards the connection if that fails too
+        }
+    }
+
+    // how far the database is behind: unwritten reservations and the age of the oldest
+    @Override
+    public String toString() {
+        int count;
+        long oldest = 0;
+        synchronized (this) {
+            count = pending.size();
+            if (count > 0) {
+                oldest = System.nanoTime() - pending.values().iterator().next().appendedAt;
+            }
+        }
+        return String.format("Write-behind: active=%b pending=%d oldest=%.1fms written=%d dropped=%d flushes=%d "
+                + "failures=%d", active, count, oldest / 1e6, written.sum(), dropped.sum(), flushes.sum(),
+                flushFailures.sum());
+    }
+
+    // a booking writeBatch took out again, and what it lost
+    private static class Dropped {
+        private enum Reason {
+            SLOT("the caregiver's slot was booked by another process"),
+            DOSE("the vaccine ran out"),
+            WAITLIST("the waitlist entry was already served or withdrawn");
+
+            private final String message;
+
+            Reason(String message) {
+                this.message = message;
+            }
+        }
+
+        private final Pending record;
+        private final Reason reason;
+
+        private Dropped(Pending record, Reason reason) {
+            this.record = record;
+            this.reason = reason;
+        }
+    }
+
+    private static class Pending {
+        private final Appointment appointment;
+        private final int waitlistId;
+        private final long appendedAt;
+
+        private Pending(Appointment appointment, int waitlistId, long appendedAt) {
+            this.appointment = appointment;
+            this.waitlistId = waitlistId;
+            this.appendedAt = appendedAt;
+        }
+    }
+}
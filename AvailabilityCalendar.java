@@ -0,0 +1,307 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// The Availabilities table as bitsets, written through like AvailabilityIndex.
+// Every caregiver has a BitSet of days and every day a BitSet of caregiver ids, so "how many are
+// free" is a cardinality, "free on all of these dates" an AND and "free on any" an OR of a few words
+// instead of rows and Strings. Day bits count from base, an epoch day that is a multiple of 64 and
+// moves back a whole number of words if an earlier date shows up.
+public class AvailabilityCalendar {
+
+    private static final AvailabilityCalendar INSTANCE = new AvailabilityCalendar();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // caregiver dictionary: username <-> dense int id
+    private final Map<String, Integer> idsByName = new HashMap<>();
+    private String[] names = new String[16];
+
+    // caregiver id -> days free, bit (epoch day - base)
+    private BitSet[] daysByCaregiver = new BitSet[16];
+    // epoch day -> caregiver ids free, days without caregivers are removed
+    private final TreeMap<Integer, BitSet> caregiversByDay = new TreeMap<>();
+    private int base;
+    private int slots;
+    private volatile boolean loaded = false;
+
+    AvailabilityCalendar() {
+    }
+
+    public static AvailabilityCalendar getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    // (re)builds the calendar from the Availabilities table
+    public void load() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String selectAll = "SELECT Time, Username FROM Availabilities";
+        lock.writeLock().lock();
+        try {
+            clear();
+            PreparedStatement statement = cm.prepareStatement(selectAll);
+            statement.setFetchSize(1000);
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                insert(AvailabilityIndex.toEpochDay(rs.getDate(1)), rs.getString(2));
+            }
+            loaded = true;
+        } catch (SQLException e) {
+            clear();
+            throw new SQLException(e);
+        } finally {
+            lock.writeLock().unlock();
+            cm.closeConnection();
+        }
+    }
+
+    public void add(Date date, String username) {
+        if (loaded) {
+            put(date, username);
+        }
+    }
+
+    public void remove(Date date, String username) {
+        if (!loaded) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Integer id = idsByName.get(username);
+            int day = AvailabilityIndex.toEpochDay(date);
+            BitSet caregivers = caregiversByDay.get(day);
+            if (id == null || caregivers == null || !caregivers.get(id)) {
+                return;
+            }
+            caregivers.clear(id);
+            if (caregivers.isEmpty()) {
+                caregiversByDay.remove(day);
+            }
+            daysByCaregiver[id].clear(day - base);
+            slots--;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int countCaregivers(Date date) {
+        lock.readLock().lock();
+        try {
+            BitSet caregivers = caregiversByDay.get(AvailabilityIndex.toEpochDay(date));
+            return caregivers == null ? 0 : caregivers.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // the days from..to with at least min caregivers free, in date order
+    public List<Date> daysWithAtLeast(Date from, Date to, int min) {
+        List<Date> days = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, BitSet> day : caregiversByDay.subMap(AvailabilityIndex.toEpochDay(from), true,
+                    AvailabilityIndex.toEpochDay(to), true).entrySet()) {
+                if (day.getValue().cardinality() >= min) {
+                    days.add(toDate(day.getKey()));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return days;
+    }
+
+    // the caregivers free on every one of the dates, ordered by username
+    public List<String> caregiversOnAll(Collection<Date> dates) {
+        lock.readLock().lock();
+        try {
+            BitSet all = null;
+            for (Date date : dates) {
+                BitSet caregivers = caregiversByDay.get(AvailabilityIndex.toEpochDay(date));
+                if (caregivers == null) {
+                    return Collections.emptyList();
+                }
+                if (all == null) {
+                    all = (BitSet) caregivers.clone();
+                } else {
+                    all.and(caregivers);
+                }
+            }
+            return all == null ? Collections.emptyList() : usernames(all);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // the caregivers free on at least one of the dates, ordered by username
+    public List<String> caregiversOnAny(Collection<Date> dates) {
+        lock.readLock().lock();
+        try {
+            BitSet any = new BitSet();
+            for (Date date : dates) {
+                BitSet caregivers = caregiversByDay.get(AvailabilityIndex.toEpochDay(date));
+                if (caregivers != null) {
+                    any.or(caregivers);
+                }
+            }
+            return usernames(any);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // the days from..to on which at least one of the caregivers is free, in date order
+    public List<Date> daysOfAny(Collection<String> usernames, Date from, Date to) {
+        List<Date> days = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            BitSet any = new BitSet();
+            for (String username : usernames) {
+                Integer id = idsByName.get(username);
+                if (id != null) {
+                    any.or(daysByCaregiver[id]);
+                }
+            }
+            int last = AvailabilityIndex.toEpochDay(to) - base;
+            for (int bit = any.nextSetBit(Math.max(0, AvailabilityIndex.toEpochDay(from) - base));
+                 bit >= 0 && bit <= last; bit = any.nextSetBit(bit + 1)) {
+                days.add(toDate(base + bit));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return days;
+    }
+
+    public int getSlotCount() {
+        return slots;
+    }
+
+    public int getDayCount() {
+        return caregiversByDay.size();
+    }
+
+    // Approximate heap footprint: both sets of bitsets, the day map and the username dictionary.
+    // Assumes a 64-bit JVM with compressed oops; a BitSet is a 24 byte object plus its long[] words.
+    public long estimateMemoryBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 16 + 4L * daysByCaregiver.length;
+            for (int id = 0; id < idsByName.size(); id++) {
+                bytes += 24 + 16 + daysByCaregiver[id].size() / 8;
+            }
+            for (BitSet caregivers : caregiversByDay.values()) {
+                // a TreeMap entry and a boxed day, plus the bitset
+                bytes += 40 + 16 + 24 + 16 + caregivers.size() / 8;
+            }
+            bytes += 16 + 4L * names.length;
+            for (String name : idsByName.keySet()) {
+                // String object + backing array, plus a HashMap node and a boxed id
+                bytes += 24 + 16 + name.length() + 32 + 16;
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // adds the slot whether or not the calendar is loaded, false if it was there already
+    boolean put(Date date, String username) {
+        lock.writeLock().lock();
+        try {
+            return insert(AvailabilityIndex.toEpochDay(date), username);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean insert(int day, String username) {
+        int id = idFor(username);
+        BitSet caregivers = caregiversByDay.computeIfAbsent(day, d -> new BitSet());
+        if (caregivers.get(id)) {
+            return false;
+        }
+        caregivers.set(id);
+        if (slots == 0) {
+            // every caregiver's bitset is empty, nothing to shift
+            base = Math.floorDiv(day, 64) * 64;
+        } else if (day < base) {
+            rebase(Math.floorDiv(day, 64) * 64);
+        }
+        daysByCaregiver[id].set(day - base);
+        slots++;
+        return true;
+    }
+
+    // moves base back to an earlier multiple of 64 by prepending zero words to every caregiver's days
+    private void rebase(int newBase) {
+        int words = (base - newBase) / 64;
+        for (int id = 0; id < idsByName.size(); id++) {
+            long[] old = daysByCaregiver[id].toLongArray();
+            long[] shifted = new long[old.length + words];
+            System.arraycopy(old, 0, shifted, words, old.length);
+            daysByCaregiver[id] = BitSet.valueOf(shifted);
+        }
+        base = newBase;
+    }
+
+    private int idFor(String username) {
+        Integer id = idsByName.get(username);
+        if (id == null) {
+            id = idsByName.size();
+            if (id == names.length) {
+                names = Arrays.copyOf(names, names.length * 2);
+                daysByCaregiver = Arrays.copyOf(daysByCaregiver, daysByCaregiver.length * 2);
+            }
+            names[id] = username;
+            daysByCaregiver[id] = new BitSet();
+            idsByName.put(username, id);
+        }
+        return id;
+    }
+
+    private List<String> usernames(BitSet ids) {
+        TreeSet<String> sorted = new TreeSet<>();
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            sorted.add(names[id]);
+        }
+        return new ArrayList<>(sorted);
+    }
+
+    private void clear() {
+        idsByName.clear();
+        names = new String[16];
+        daysByCaregiver = new BitSet[16];
+        caregiversByDay.clear();
+        base = 0;
+        slots = 0;
+        loaded = false;
+    }
+
+    private static Date toDate(int epochDay) {
+        return Date.valueOf(LocalDate.ofEpochDay(epochDay));
+    }
+}
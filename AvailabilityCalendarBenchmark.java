@@ -0,0 +1,167 @@
+package scheduler.model;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Compares the row form of Availabilities, one (username, date) object per slot like a ResultSet
+// hands them out, against AvailabilityCalendar's bitsets: heap per million slots, and the latency of
+// "days with at least K caregivers" and "caregivers free on all of these dates" over each. Runs on
+// generated slots, no database needed.
+// usage: java scheduler.model.AvailabilityCalendarBenchmark [slots] [caregivers] [days] [queries]
+public class AvailabilityCalendarBenchmark {
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2026, 1, 1);
+
+    public static void main(String[] args) {
+        int slots = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int caregivers = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int days = args.length > 2 ? Integer.parseInt(args[2]) : 730;
+        int queries = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        if (slots > (long) caregivers * days) {
+            System.out.println("at most caregivers * days slots fit");
+            return;
+        }
+
+        // the same distinct slots for both forms
+        Random random = new Random(42);
+        Set<Long> seen = new HashSet<>();
+        int[] slotCaregivers = new int[slots];
+        int[] slotDays = new int[slots];
+        for (int i = 0; i < slots; ) {
+            int caregiver = random.nextInt(caregivers);
+            int day = random.nextInt(days);
+            if (seen.add((long) caregiver * days + day)) {
+                slotCaregivers[i] = caregiver;
+                slotDays[i] = day;
+                i++;
+            }
+        }
+        seen = null;
+
+        long before = usedHeap();
+        List<AvailabilityImporter.Slot> rows = new ArrayList<>(slots);
+        for (int i = 0; i < slots; i++) {
+            // a fresh String and Date per row, as every ResultSet row materialises them
+            rows.add(new AvailabilityImporter.Slot("caregiver" + slotCaregivers[i],
+                    Date.valueOf(FIRST_DAY.plusDays(slotDays[i]))));
+        }
+        long rowBytes = usedHeap() - before;
+
+        before = usedHeap();
+        AvailabilityCalendar calendar = new AvailabilityCalendar();
+        for (int i = 0; i < slots; i++) {
+            calendar.put(Date.valueOf(FIRST_DAY.plusDays(slotDays[i])), "caregiver" + slotCaregivers[i]);
+        }
+        long calendarBytes = usedHeap() - before;
+
+        double millions = slots / 1e6;
+        System.out.printf("%d slots, %d caregivers, %d days%n", slots, caregivers, days);
+        System.out.printf("rows     measured %.1f MB (%.1f MB per million slots)%n",
+                rowBytes / 1e6, rowBytes / 1e6 / millions);
+        System.out.printf("calendar measured %.1f MB (%.1f MB per million slots), estimated %.1f MB%n",
+                calendarBytes / 1e6, calendarBytes / 1e6 / millions, calendar.estimateMemoryBytes() / 1e6);
+
+        int minCaregivers = Math.max(1, slots / days);
+        long[] rowNanos = new long[queries];
+        long[] calendarNanos = new long[queries];
+        for (int i = 0; i < queries; i++) {
+            LocalDate from = FIRST_DAY.plusDays(random.nextInt(days));
+            Date fromDate = Date.valueOf(from);
+            Date toDate = Date.valueOf(from.plusDays(30));
+
+            long start = System.nanoTime();
+            int fromRows = daysWithAtLeast(rows, fromDate, toDate, minCaregivers);
+            rowNanos[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int fromCalendar = calendar.daysWithAtLeast(fromDate, toDate, minCaregivers).size();
+            calendarNanos[i] = System.nanoTime() - start;
+
+            if (fromRows != fromCalendar) {
+                System.out.println("mismatch from " + fromDate + ": rows " + fromRows + ", calendar " + fromCalendar);
+            }
+        }
+        print("days with >= " + minCaregivers + " in 31 days, rows    ", rowNanos);
+        print("days with >= " + minCaregivers + " in 31 days, calendar", calendarNanos);
+
+        for (int i = 0; i < queries; i++) {
+            List<Date> dates = new ArrayList<>();
+            for (int d = 0; d < 3; d++) {
+                dates.add(Date.valueOf(FIRST_DAY.plusDays(random.nextInt(days))));
+            }
+
+            long start = System.nanoTime();
+            int fromRows = caregiversOnAll(rows, dates);
+            rowNanos[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int fromCalendar = calendar.caregiversOnAll(dates).size();
+            calendarNanos[i] = System.nanoTime() - start;
+
+            if (fromRows != fromCalendar) {
+                System.out.println("mismatch on " + dates + ": rows " + fromRows + ", calendar " + fromCalendar);
+            }
+        }
+        print("caregivers free on 3 dates, rows    ", rowNanos);
+        print("caregivers free on 3 dates, calendar", calendarNanos);
+    }
+
+    private static int daysWithAtLeast(List<AvailabilityImporter.Slot> rows, Date from, Date to, int min) {
+        Map<Date, Integer> counts = new HashMap<>();
+        for (AvailabilityImporter.Slot row : rows) {
+            if (!row.getDate().before(from) && !row.getDate().after(to)) {
+                counts.merge(row.getDate(), 1, Integer::sum);
+            }
+        }
+        int days = 0;
+        for (int count : counts.values()) {
+            if (count >= min) {
+                days++;
+            }
+        }
+        return days;
+    }
+
+    private static int caregiversOnAll(List<AvailabilityImporter.Slot> rows, List<Date> dates) {
+        Set<Date> wanted = new TreeSet<>(dates);
+        Map<String, Integer> counts = new HashMap<>();
+        for (AvailabilityImporter.Slot row : rows) {
+            if (wanted.contains(row.getDate())) {
+                counts.merge(row.getUsername(), 1, Integer::sum);
+            }
+        }
+        int caregivers = 0;
+        for (int count : counts.values()) {
+            if (count == wanted.size()) {
+                caregivers++;
+            }
+        }
+        return caregivers;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void print(String label, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%s p50=%.1fus p99=%.1fus max=%.1fus%n", label,
+                sorted[sorted.length / 2] / 1e3,
+                sorted[Math.min(sorted.length - 1, (int) (sorted.length * 0.99))] / 1e3,
+                sorted[sorted.length - 1] / 1e3);
+    }
+}
@@ -0,0 +1,162 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+import src.main.scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Loads many availability slots at once as JDBC batches inside a single transaction.
+// Slots that are already in the table are skipped rather than failing the whole import.
+public class AvailabilityImporter {
+
+    private static final int BATCH_SIZE = Util.getEnvInt("AvailabilityBatchSize", 1000);
+
+    public static ImportResult importSlots(List<Slot> slots) throws SQLException {
+        // the same slot twice in the input would otherwise race itself inside one batch
+        Set<Slot> unique = new LinkedHashSet<>(slots);
+        List<Slot> pending = new ArrayList<>(unique);
+        List<Long> batchMillis = new ArrayList<>();
+        int inserted = 0;
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addAvailability = "INSERT INTO Availabilities (Time, Username) SELECT ?, ? WHERE NOT EXISTS " +
+                "(SELECT 1 FROM Availabilities WHERE Time = ? AND Username = ?)";
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = cm.prepareStatement(addAvailability);
+            for (int from = 0; from < pending.size(); from += BATCH_SIZE) {
+                long start = System.nanoTime();
+                int to = Math.min(from + BATCH_SIZE, pending.size());
+                for (Slot slot : pending.subList(from, to)) {
+                    statement.setDate(1, slot.getDate());
+                    statement.setString(2, slot.getUsername());
+                    statement.setDate(3, slot.getDate());
+                    statement.setString(4, slot.getUsername());
+                    statement.addBatch();
+                }
+                int[] counts = statement.executeBatch();
+                Map<Date, Integer> added = new TreeMap<>();
+                for (int i = 0; i < counts.length; i++) {
+                    // drivers that can't report per-row counts return SUCCESS_NO_INFO (-2)
+                    int count = counts[i] == PreparedStatement.SUCCESS_NO_INFO ? 1 : counts[i];
+                    inserted += count;
+                    added.merge(pending.get(from + i).getDate(), count, Integer::sum);
+                }
+                for (Map.Entry<Date, Integer> day : added.entrySet()) {
+                    if (day.getValue() > 0) {
+                        DailyCounters.addCapacity(cm, day.getKey(), day.getValue(), day.getValue());
+                    }
+                }
+                batchMillis.add((System.nanoTime() - start) / 1_000_000);
+            }
+            con.commit();
+        } catch (SQLException e) {
+            try {
+                con.rollback();
+            } catch (SQLException ignored) {
+                // the pool discards connections it cannot reset
+            }
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        AvailabilityCalendar calendar = AvailabilityCalendar.getInstance();
+        for (Slot slot : pending) {
+            index.add(slot.getDate(), slot.getUsername());
+            calendar.add(slot.getDate(), slot.getUsername());
+        }
+        return new ImportResult(slots.size(), inserted, batchMillis);
+    }
+
+    public static class Slot {
+        private final String username;
+        private final Date date;
+
+        public Slot(String username, Date date) {
+            this.username = username;
+            this.date = date;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Slot)) {
+                return false;
+            }
+            Slot other = (Slot) o;
+            return username.equals(other.username) && date.equals(other.date);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(username, date);
+        }
+    }
+
+    public static class ImportResult {
+        private final int requested;
+        private final int inserted;
+        private final List<Long> batchMillis;
+
+        public ImportResult(int requested, int inserted, List<Long> batchMillis) {
+            this.requested = requested;
+            this.inserted = inserted;
+            this.batchMillis = batchMillis;
+        }
+
+        public int getRequested() {
+            return requested;
+        }
+
+        public int getInserted() {
+            return inserted;
+        }
+
+        // slots that were already in the table or repeated in the input
+        public int getSkipped() {
+            return requested - inserted;
+        }
+
+        public List<Long> getBatchMillis() {
+            return batchMillis;
+        }
+
+        public long getTotalMillis() {
+            long total = 0;
+            for (long millis : batchMillis) {
+                total += millis;
+            }
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            return inserted + " new, " + getSkipped() + " already present, " + batchMillis.size() +
+                    " batches in " + getTotalMillis() + " ms";
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+// Write-through, in-process copy of the Availabilities table.
+// Each date is keyed by its epoch day in a primitive open-addressing table, and maps to a compact
+// int[] of caregiver ids kept sorted by username, so lookups come back in the same order as
+// "ORDER BY Username" without a round trip. Writers update the table first and the index after.
+// The days that still have a free caregiver are also kept in date order, so the earliest one on or
+// after a date is a single tree lookup.
+public class AvailabilityIndex {
+
+    private static final AvailabilityIndex INSTANCE = new AvailabilityIndex();
+
+    private static final int EMPTY = Integer.MIN_VALUE;
+    private static final int[] NO_IDS = new int[0];
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // caregiver dictionary: username <-> dense int id
+    private final Map<String, Integer> idsByName = new HashMap<>();
+    private String[] names = new String[16];
+
+    // epoch day -> sorted caregiver ids, linear probing
+    private int[] keys;
+    private int[][] values;
+    private int days;
+    private int slots;
+    // epoch days with at least one caregiver
+    private final TreeSet<Integer> openDays = new TreeSet<>();
+    private volatile boolean loaded = false;
+
+    private AvailabilityIndex() {
+        clear();
+    }
+
+    public static AvailabilityIndex getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    // (re)builds the index from the Availabilities table
+    public void load() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String selectAll = "SELECT Time, Username FROM Availabilities";
+        lock.writeLock().lock();
+        try {
+            clear();
+            PreparedStatement statement = cm.prepareStatement(selectAll);
+            statement.setFetchSize(1000);
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                insert(toEpochDay(rs.getDate(1)), idFor(rs.getString(2)));
+            }
+            loaded = true;
+        } catch (SQLException e) {
+            clear();
+            throw new SQLException(e);
+        } finally {
+            lock.writeLock().unlock();
+            cm.closeConnection();
+        }
+    }
+
+    public void add(Date date, String username) {
+        if (!loaded) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            insert(toEpochDay(date), idFor(username));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // false if the caregiver was not free on the date, so of two concurrent removes only one succeeds
+    public boolean remove(Date date, String username) {
+        if (!loaded) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            Integer id = idsByName.get(username);
+            if (id == null) {
+                return false;
+            }
+            int day = toEpochDay(date);
+            int slot = find(day);
+            if (slot < 0) {
+                return false;
+            }
+            int[] ids = values[slot];
+            int pos = search(ids, id);
+            if (pos < 0) {
+                return false;
+            }
+            int[] updated = new int[ids.length - 1];
+            System.arraycopy(ids, 0, updated, 0, pos);
+            System.arraycopy(ids, pos + 1, updated, pos, ids.length - pos - 1);
+            // days with no caregivers left keep an empty array rather than a tombstone
+            values[slot] = updated;
+            slots--;
+            if (updated.length == 0) {
+                openDays.remove(day);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // caregivers available on the date, ordered by username
+    public List<String> getCaregivers(Date date) {
+        lock.readLock().lock();
+        try {
+            int slot = find(toEpochDay(date));
+            if (slot < 0) {
+                return Collections.emptyList();
+            }
+            int[] ids = values[slot];
+            List<String> caregivers = new ArrayList<>(ids.length);
+            for (int id : ids) {
+                caregivers.add(names[id]);
+            }
+            return caregivers;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int countCaregivers(Date date) {
+        lock.readLock().lock();
+        try {
+            int slot = find(toEpochDay(date));
+            return slot < 0 ? 0 : values[slot].length;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // the first day on or after notBefore with a free caregiver, null if there is none
+    public Date earliestDay(Date notBefore) {
+        lock.readLock().lock();
+        try {
+            Integer day = openDays.ceiling(toEpochDay(notBefore));
+            return day == null ? null : Date.valueOf(LocalDate.ofEpochDay(day));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // caregiver counts of the days from..to that have any, in date order; one probe per day of the range
+    public void forEachCount(Date from, Date to, BiConsumer<Date, Integer> action) {
+        int first = toEpochDay(from);
+        int last = toEpochDay(to);
+        List<int[]> counts = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int day = first; day <= last; day++) {
+                int slot = find(day);
+                if (slot >= 0 && values[slot].length > 0) {
+                    counts.add(new int[]{day, values[slot].length});
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (int[] count : counts) {
+            action.accept(Date.valueOf(LocalDate.ofEpochDay(count[0])), count[1]);
+        }
+    }
+
+    public boolean contains(Date date, String username) {
+        lock.readLock().lock();
+        try {
+            Integer id = idsByName.get(username);
+            int slot = find(toEpochDay(date));
+            return id != null && slot >= 0 && search(values[slot], id) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getSlotCount() {
+        lock.readLock().lock();
+        try {
+            return slots;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getDayCount() {
+        lock.readLock().lock();
+        try {
+            return days;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Approximate heap footprint: the hash table, the per-day id arrays and the username dictionary.
+    // Assumes a 64-bit JVM with compressed oops (16 byte array headers, 4 byte references).
+    public long estimateMemoryBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 16 + 4L * keys.length + 16 + 4L * values.length;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    bytes += 16 + 4L * values[i].length;
+                }
+            }
+            // a TreeMap entry and a boxed day per open day
+            bytes += (40 + 16L) * openDays.size();
+            bytes += 16 + 4L * names.length;
+            for (String name : idsByName.keySet()) {
+                // String object + backing array, plus a HashMap node and a boxed id
+                bytes += 24 + 16 + name.length() + 32 + 16;
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    static int toEpochDay(Date date) {
+        return (int) date.toLocalDate().toEpochDay();
+    }
+
+    private void clear() {
+        keys = new int[64];
+        Arrays.fill(keys, EMPTY);
+        values = new int[64][];
+        days = 0;
+        slots = 0;
+        openDays.clear();
+        loaded = false;
+    }
+
+    private int idFor(String username) {
+        Integer id = idsByName.get(username);
+        if (id == null) {
+            id = idsByName.size();
+            if (id == names.length) {
+                names = Arrays.copyOf(names, names.length * 2);
+            }
+            names[id] = username;
+            idsByName.put(username, id);
+        }
+        return id;
+    }
+
+    private void insert(int day, int id) {
+        int slot = find(day);
+        if (slot < 0) {
+            if ((days + 1) * 4 > keys.length * 3) {
+                grow();
+            }
+            slot = probe(keys, day);
+            keys[slot] = day;
+            values[slot] = NO_IDS;
+            days++;
+        }
+        int[] ids = values[slot];
+        int pos = search(ids, id);
+        if (pos >= 0) {
+            return;
+        }
+        pos = -pos - 1;
+        int[] updated = new int[ids.length + 1];
+        System.arraycopy(ids, 0, updated, 0, pos);
+        updated[pos] = id;
+        System.arraycopy(ids, pos, updated, pos + 1, ids.length - pos);
+        values[slot] = updated;
+        slots++;
+        openDays.add(day);
+    }
+
+    private int find(int day) {
+        int slot = probe(keys, day);
+        return keys[slot] == day ? slot : -1;
+    }
+
+    // slot holding the day, or the empty slot where it would go
+    private static int probe(int[] table, int day) {
+        int mask = table.length - 1;
+        int slot = mix(day) & mask;
+        while (table[slot] != EMPTY && table[slot] != day) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[][] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        values = new int[keys.length][];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = probe(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int mix(int day) {
+        int h = day * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // binary search over ids ordered by username, same contract as Arrays.binarySearch
+    private int search(int[] ids, int id) {
+        String name = names[id];
+        int low = 0;
+        int high = ids.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = names[ids[mid]].compareTo(name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+}
@@ -0,0 +1,80 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Compares the latency of looking up a day's caregivers in the database (cold) against the
+// in-memory AvailabilityIndex (warm), and reports what the index costs in memory.
+// usage: java scheduler.model.AvailabilityIndexBenchmark <first-date> <days> [lookups]
+public class AvailabilityIndexBenchmark {
+
+    public static void main(String[] args) throws SQLException {
+        Date first = Date.valueOf(args.length > 0 ? args[0] : "2026-11-01");
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        long loadStart = System.nanoTime();
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        index.load();
+        System.out.printf("loaded %d slots over %d days in %.1f ms, ~%d bytes (%.1f bytes/slot)%n",
+                index.getSlotCount(), index.getDayCount(), (System.nanoTime() - loadStart) / 1e6,
+                index.estimateMemoryBytes(),
+                index.getSlotCount() == 0 ? 0.0 : (double) index.estimateMemoryBytes() / index.getSlotCount());
+
+        long[] cold = new long[lookups];
+        long[] warm = new long[lookups];
+        for (int i = 0; i < lookups; i++) {
+            Date date = Date.valueOf(first.toLocalDate().plusDays(ThreadLocalRandom.current().nextInt(days)));
+
+            long start = System.nanoTime();
+            int fromDb = queryDatabase(date);
+            cold[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int fromIndex = index.getCaregivers(date).size();
+            warm[i] = System.nanoTime() - start;
+
+            if (fromDb != fromIndex) {
+                System.out.println("mismatch on " + date + ": database " + fromDb + ", index " + fromIndex);
+            }
+        }
+        print("cold (database)", cold);
+        print("warm (index)   ", warm);
+        ConnectionManager.shutdown();
+    }
+
+    private static int queryDatabase(Date date) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement(
+                    "SELECT * FROM Availabilities WHERE Time = ? ORDER BY Username");
+            statement.setDate(1, date);
+            ResultSet rs = statement.executeQuery();
+            int count = 0;
+            while (rs.next()) {
+                count++;
+            }
+            statement.close();
+            return count;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static void print(String label, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%s p50=%.1fus p99=%.1fus max=%.1fus%n", label,
+                sorted[sorted.length / 2] / 1e3,
+                sorted[Math.min(sorted.length - 1, (int) (sorted.length * 0.99))] / 1e3,
+                sorted[sorted.length - 1] / 1e3);
+    }
+}
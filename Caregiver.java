@@ -1,10 +1,13 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
-import src.main.scheduler.util.Util;
+import scheduler.db.StorageManager;
+import src.main.scheduler.util.PasswordHasher;
 
-import java.sql.*;
-import java.util.Arrays;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class Caregiver {
     private final String username;
@@ -37,38 +40,20 @@ public class Caregiver {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        StorageManager.getStorage().saveCaregivers(Collections.singletonList(this));
     }
 
     public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, this.username);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        StorageManager.getStorage().addAvailability(d, this.username);
+    }
+
+    // uploads many dates at once, dates that are already uploaded are skipped
+    public AvailabilityImporter.ImportResult uploadAvailability(List<Date> dates) throws SQLException {
+        List<AvailabilityImporter.Slot> slots = new ArrayList<>();
+        for (Date d : dates) {
+            slots.add(new AvailabilityImporter.Slot(this.username, d));
         }
+        return StorageManager.getStorage().addAvailabilities(slots);
     }
 
     public static class CaregiverBuilder {
@@ -99,35 +84,17 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
-                    }
-                }
+            Caregiver stored = StorageManager.getStorage().getCaregiver(this.username);
+            if (stored == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            salt = stored.getSalt();
+            hash = stored.getHash();
+            // check if the password matches
+            if (!PasswordHasher.verifyBounded(password, salt, hash)) {
+                return null;
+            }
+            return new Caregiver(this);
         }
     }
 }
@@ -0,0 +1,125 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Storage;
+import scheduler.db.StorageManager;
+import src.main.scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Runs the same burst of concurrent reservations under every CaregiverSelector policy and reports
+// lost claims (conflicts), retries, throughput and how evenly the appointments ended up spread
+// over the caregivers. Every date has one slot per caregiver and patientsPerDate patients reserving
+// it at once, so with fewer patients than caregivers the policy decides who gets the work.
+// Needs a database with create.sql loaded; each run uses its own users, vaccine and dates.
+// usage: java scheduler.model.CaregiverSelectionBenchmark [caregivers] [patientsPerDate] [dates] [threads]
+public class CaregiverSelectionBenchmark {
+
+    private static final LocalDate FIRST_DATE = LocalDate.of(2031, 1, 1);
+
+    public static void main(String[] args) throws Exception {
+        int caregivers = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int patientsPerDate = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int dates = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        if (!StorageManager.isJdbc()) {
+            System.out.println("the contention benchmark needs Storage=jdbc");
+            return;
+        }
+
+        String run = Long.toString(System.currentTimeMillis(), 36);
+        String vaccine = "selvax_" + run;
+        Storage storage = StorageManager.getStorage();
+        CaregiverSelector.Policy[] policies = CaregiverSelector.Policy.values();
+        storage.addVaccine(vaccine, policies.length * dates * patientsPerDate);
+
+        System.out.printf("%d caregivers, %d patients per date, %d dates, %d threads%n",
+                caregivers, patientsPerDate, dates, threads);
+        System.out.printf("%-13s %7s %9s %8s %10s %8s %8s %8s%n",
+                "policy", "booked", "conflicts", "retries", "ops/s", "min/cg", "max/cg", "doubles");
+        for (int p = 0; p < policies.length; p++) {
+            CaregiverSelector.Policy policy = policies[p];
+            String prefix = "sel_" + run + "_" + policy.name().toLowerCase(Locale.ROOT) + "_";
+            List<String> patients = seed(storage, prefix, caregivers, patientsPerDate, dates, p * dates);
+
+            CaregiverSelector.getInstance().setPolicy(policy);
+            int booked = 0;
+            long conflicts = 0;
+            long retries = 0;
+            double seconds = 0;
+            int doubles = 0;
+            for (int d = 0; d < dates; d++) {
+                Date date = Date.valueOf(FIRST_DATE.plusDays(p * dates + d));
+                ReservationEngine.ContentionReport report = ReservationEngine.getInstance()
+                        .simulate(patients, date, vaccine, threads);
+                booked += report.getBooked();
+                conflicts += report.getConflicts();
+                retries += report.getRetries();
+                seconds += report.getElapsedSeconds();
+                doubles += report.getDoubleBookings();
+            }
+            int[] spread = spread(prefix, caregivers);
+            System.out.printf("%-13s %7d %9d %8d %10.1f %8d %8d %8d%n", policy.name().toLowerCase(Locale.ROOT),
+                    booked, conflicts, retries, dates * patientsPerDate / seconds, spread[0], spread[1], doubles);
+        }
+        ConnectionManager.shutdown();
+    }
+
+    // caregivers with a slot on each of the policy's dates and the patients who will reserve them
+    private static List<String> seed(Storage storage, String prefix, int caregivers, int patientsPerDate, int dates,
+                                     int firstDay) throws SQLException {
+        List<Caregiver> newCaregivers = new ArrayList<>();
+        for (int c = 0; c < caregivers; c++) {
+            newCaregivers.add(new Caregiver.CaregiverBuilder(prefix + "cg_" + c, Util.generateSalt(),
+                    new byte[16]).build());
+        }
+        storage.saveCaregivers(newCaregivers);
+        List<Patient> newPatients = new ArrayList<>();
+        List<String> usernames = new ArrayList<>();
+        for (int i = 0; i < patientsPerDate; i++) {
+            newPatients.add(new Patient.PatientBuilder(prefix + "pt_" + i, Util.generateSalt(), new byte[16]).build());
+            usernames.add(prefix + "pt_" + i);
+        }
+        storage.savePatients(newPatients);
+        List<AvailabilityImporter.Slot> slots = new ArrayList<>();
+        for (int d = 0; d < dates; d++) {
+            for (int c = 0; c < caregivers; c++) {
+                slots.add(new AvailabilityImporter.Slot(prefix + "cg_" + c,
+                        Date.valueOf(FIRST_DATE.plusDays(firstDay + d))));
+            }
+        }
+        storage.addAvailabilities(slots);
+        return usernames;
+    }
+
+    // fewest and most appointments of any of the policy's caregivers
+    private static int[] spread(String prefix, int caregivers) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            PreparedStatement statement = cm.prepareStatement("SELECT COUNT(*) FROM Appointments "
+                    + "WHERE CaregiverUsername LIKE ? GROUP BY CaregiverUsername");
+            statement.setString(1, prefix + "cg_%");
+            ResultSet rs = statement.executeQuery();
+            int rows = 0;
+            int min = Integer.MAX_VALUE;
+            int max = 0;
+            while (rs.next()) {
+                rows++;
+                min = Math.min(min, rs.getInt(1));
+                max = Math.max(max, rs.getInt(1));
+            }
+            // caregivers without any appointment have no group
+            return new int[]{rows < caregivers ? 0 : min, max};
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
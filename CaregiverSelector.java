@@ -0,0 +1,153 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+// Decides in which order a reservation tries to claim the free caregivers of a date. Trying them
+// alphabetically sends every concurrent reservation for the date to the same Availabilities row
+// first and gives the first caregivers most of the work. The policy comes from CaregiverSelection:
+//   first        alphabetical, the original behaviour
+//   least_loaded fewest booked appointments first
+//   round_robin  each reservation starts one caregiver further along
+//   two_choices  the less loaded of two random caregivers, then the rest from a random point (default)
+// Loads are in-memory per-caregiver counters, read from Appointments at startup and kept up to date
+// by ReservationEngine. They only steer the choice, so a count that drifted is harmless.
+public class CaregiverSelector {
+
+    public enum Policy {
+        FIRST,
+        LEAST_LOADED,
+        ROUND_ROBIN,
+        TWO_CHOICES
+    }
+
+    private static final CaregiverSelector INSTANCE = new CaregiverSelector(policyFromEnv());
+
+    private final ConcurrentHashMap<String, AtomicInteger> loads = new ConcurrentHashMap<>();
+    private final AtomicInteger turn = new AtomicInteger();
+    private volatile Policy policy;
+
+    private CaregiverSelector(Policy policy) {
+        this.policy = policy;
+    }
+
+    public static CaregiverSelector getInstance() {
+        return INSTANCE;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    // (re)reads every caregiver's number of appointments
+    public void load() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String countAppointments = "SELECT CaregiverUsername, COUNT(*) FROM Appointments GROUP BY CaregiverUsername";
+        try {
+            PreparedStatement statement = cm.prepareStatement(countAppointments);
+            ResultSet rs = statement.executeQuery();
+            loads.clear();
+            while (rs.next()) {
+                loads.put(rs.getString(1), new AtomicInteger(rs.getInt(2)));
+            }
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public void booked(String caregiver) {
+        loads.computeIfAbsent(caregiver, c -> new AtomicInteger()).incrementAndGet();
+    }
+
+    public void released(String caregiver) {
+        AtomicInteger load = loads.get(caregiver);
+        if (load != null) {
+            load.decrementAndGet();
+        }
+    }
+
+    public int getLoad(String caregiver) {
+        AtomicInteger load = loads.get(caregiver);
+        return load == null ? 0 : load.get();
+    }
+
+    // the candidates, ordered by username, in the order to try them, using the counters as loads
+    public List<String> order(List<String> candidates) {
+        return order(candidates, this::getLoad);
+    }
+
+    public List<String> order(List<String> candidates, ToIntFunction<String> load) {
+        int n = candidates.size();
+        if (n < 2) {
+            return candidates;
+        }
+        List<String> ordered = new ArrayList<>(n);
+        switch (policy) {
+            case LEAST_LOADED:
+                ordered.addAll(candidates);
+                // stable, so equal loads stay alphabetical
+                ordered.sort(Comparator.comparingInt(load));
+                return ordered;
+            case ROUND_ROBIN:
+                rotate(candidates, Math.floorMod(turn.getAndIncrement(), n), -1, ordered);
+                return ordered;
+            case TWO_CHOICES: {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int first = random.nextInt(n);
+                int second = (first + 1 + random.nextInt(n - 1)) % n;
+                if (load.applyAsInt(candidates.get(second)) < load.applyAsInt(candidates.get(first))) {
+                    int swap = first;
+                    first = second;
+                    second = swap;
+                }
+                // the rest carry on after the first pick, so losers of a race spread out too
+                rotate(candidates, first, second, ordered);
+                ordered.add(1, candidates.get(second));
+                return ordered;
+            }
+            default:
+                return candidates;
+        }
+    }
+
+    // the candidates starting at start and wrapping around, leaving out skip
+    private static void rotate(List<String> candidates, int start, int skip, List<String> ordered) {
+        for (int i = 0; i < candidates.size(); i++) {
+            int next = (start + i) % candidates.size();
+            if (next != skip) {
+                ordered.add(candidates.get(next));
+            }
+        }
+    }
+
+    private static Policy policyFromEnv() {
+        String value = System.getenv("CaregiverSelection");
+        if (value == null || value.isEmpty()) {
+            return Policy.TWO_CHOICES;
+        }
+        try {
+            return Policy.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Policy.TWO_CHOICES;
+        }
+    }
+}
@@ -1,20 +1,44 @@
 package scheduler.db;
 
+import src.main.scheduler.util.JfrEvents;
+import src.main.scheduler.util.Metrics;
+import src.main.scheduler.util.Util;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
 
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
+    // JdbcUrl/JdbcDriver point the application at any other database, e.g. a local embedded one
+    private static final String driverName = System.getenv("JdbcDriver") != null ? System.getenv("JdbcDriver")
+            : "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+    private static final String connectionUrl = System.getenv("JdbcUrl") != null ? System.getenv("JdbcUrl")
+            : "jdbc:sqlserver://" + System.getenv("Server") +
             ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    private static final String userName = System.getenv("UserID");
+    private static final String userPass = System.getenv("Password");
 
-    private Connection con = null;
+    // pool settings, all overridable through the environment like the connection settings above
+    private static final int POOL_MIN_SIZE = Util.getEnvInt("PoolMinSize", 2);
+    private static final int POOL_MAX_SIZE = Util.getEnvInt("PoolMaxSize", 10);
+    private static final long POOL_BORROW_TIMEOUT_MS = Util.getEnvInt("PoolBorrowTimeoutMs", 5000);
+    private static final long POOL_IDLE_TIMEOUT_MS = Util.getEnvInt("PoolIdleTimeoutMs", 5 * 60 * 1000);
+    private static final long POOL_MAX_LIFETIME_MS = Util.getEnvInt("PoolMaxLifetimeMs", 30 * 60 * 1000);
+    private static final int STATEMENT_CACHE_SIZE = Util.getEnvInt("StatementCacheSize", 64);
 
-    public ConnectionManager() {
+    private static volatile boolean poolingEnabled = Util.getEnvBoolean("PoolEnabled", true);
+    private static volatile ConnectionPool pool = null;
+    private static volatile ReplicaRouter router = null;
+    private static final List<String> replicaUrls = ReplicaRouter.urlsFromEnv(System.getenv("DBName"));
+    // set while the thread runs a read-only command: when the session last wrote, see beginReadOnly
+    private static final ThreadLocal<Long> READ_ONLY_SINCE = new ThreadLocal<>();
+
+    static {
+        // the driver only needs to be registered once per JVM
         try {
             Class.forName(driverName);
         } catch (ClassNotFoundException e) {
@@ -22,20 +46,181 @@ public class ConnectionManager {
         }
     }
 
+    private Connection con = null;
+    private ConnectionPool.PooledConnection pooled = null;
+    // the pool pooled came from, a replica's or null for the primary's
+    private ConnectionPool replica = null;
+    private ThreadTransaction pinned = null;
+
+    public ConnectionManager() {
+    }
+
     public Connection createConnection() {
+        // inside a grouped transaction every caller on the thread shares its connection
+        pinned = ThreadTransaction.current();
+        if (pinned != null) {
+            con = pinned.getConnection();
+            return con;
+        }
+        Metrics.getInstance().recordConnectionBorrowed();
+        JfrEvents.ConnectionEvent event = new JfrEvents.ConnectionEvent();
+        event.begin();
         try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
+            if (poolingEnabled) {
+                pooled = getPool().borrow();
+                con = pooled.getConnection();
+            } else {
+                con = openPhysicalConnection();
+            }
         } catch (SQLException e) {
             e.printStackTrace();
         }
+        event.end();
+        if (event.shouldCommit()) {
+            event.pooled = poolingEnabled;
+            event.succeeded = con != null;
+            event.commit();
+        }
         return con;
     }
 
+    // A connection for reads only. Inside beginReadOnly it goes to a read replica that has caught up
+    // with the session's writes, if one is configured and healthy, and to the primary otherwise.
+    public Connection createReadConnection() {
+        Long since = READ_ONLY_SINCE.get();
+        ReplicaRouter r = getRouter();
+        if (since == null || r == null || ThreadTransaction.current() != null) {
+            return createConnection();
+        }
+        ConnectionPool chosen = r.choose(since);
+        if (chosen != null) {
+            Metrics.getInstance().recordConnectionBorrowed();
+            try {
+                pooled = chosen.borrow();
+                replica = chosen;
+                con = pooled.getConnection();
+                return con;
+            } catch (SQLException e) {
+                r.markDown(chosen);
+            }
+        }
+        return createConnection();
+    }
+
+    // Marks the commands run on this thread until endReadOnly as read-only, so their read connections
+    // may use a replica. lastWriteMillis is when the session last changed anything, 0 for never.
+    public static void beginReadOnly(long lastWriteMillis) {
+        READ_ONLY_SINCE.set(lastWriteMillis);
+    }
+
+    public static void endReadOnly() {
+        READ_ONLY_SINCE.remove();
+    }
+
+    // Prepares the SQL on the current connection, reusing the statement prepared earlier on the same
+    // pooled connection. The statement must not be closed by the caller.
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return prepareStatement(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        if (pinned != null) {
+            return pinned.prepare(sql, autoGeneratedKeys);
+        }
+        if (pooled != null) {
+            return pooled.getStatementCache().prepare(sql, autoGeneratedKeys);
+        }
+        if (con == null) {
+            throw new SQLException("No connection");
+        }
+        // unpooled statements are closed along with the connection
+        return InstrumentedStatement.wrap(con.prepareStatement(sql, autoGeneratedKeys), sql);
+    }
+
     public void closeConnection() {
+        InstrumentedStatement.commitPendingEvents();
+        if (pinned != null) {
+            // released when the grouped transaction ends
+            pinned = null;
+            con = null;
+            return;
+        }
+        if (pooled != null) {
+            // hand the connection back instead of tearing it down
+            (replica != null ? replica : getPool()).release(pooled);
+            pooled = null;
+            replica = null;
+            con = null;
+            return;
+        }
+        if (this.con == null) {
+            return;
+        }
         try {
             this.con.close();
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
+
+    public static Connection openPhysicalConnection() throws SQLException {
+        Metrics.getInstance().recordConnectionOpened();
+        return DriverManager.getConnection(connectionUrl, userName, userPass);
+    }
+
+    public static ConnectionPool getPool() {
+        ConnectionPool p = pool;
+        if (p == null) {
+            synchronized (ConnectionManager.class) {
+                p = pool;
+                if (p == null) {
+                    p = new ConnectionPool(ConnectionManager::openPhysicalConnection, POOL_MIN_SIZE, POOL_MAX_SIZE,
+                            POOL_BORROW_TIMEOUT_MS, POOL_IDLE_TIMEOUT_MS, POOL_MAX_LIFETIME_MS, STATEMENT_CACHE_SIZE);
+                    pool = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    // null when ReadReplicas is not set
+    public static ReplicaRouter getRouter() {
+        if (replicaUrls.isEmpty()) {
+            return null;
+        }
+        ReplicaRouter r = router;
+        if (r == null) {
+            synchronized (ConnectionManager.class) {
+                r = router;
+                if (r == null) {
+                    r = new ReplicaRouter(replicaUrls, userName, userPass, STATEMENT_CACHE_SIZE);
+                    router = r;
+                }
+            }
+        }
+        return r;
+    }
+
+    public static boolean isPoolingEnabled() {
+        return poolingEnabled;
+    }
+
+    public static void setPoolingEnabled(boolean enabled) {
+        poolingEnabled = enabled;
+    }
+
+    // closes every pooled connection, called when the application quits
+    public static void shutdown() {
+        synchronized (ConnectionManager.class) {
+            // first, the router deletes its heartbeat row through the pool
+            if (router != null) {
+                router.close();
+                router = null;
+            }
+            if (pool != null) {
+                pool.close();
+                pool = null;
+            }
+        }
+    }
 }
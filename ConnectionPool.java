@@ -0,0 +1,302 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ConnectionPool {
+
+    // opens a new physical connection to the database
+    public interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    // connections used within this window are handed out without a validation round trip
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final ConnectionFactory factory;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final int statementCacheSize;
+
+    // idle connections, most recently returned first so that cold ones age out
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    // one permit per connection that may be checked out, bounds the pool at maxSize
+    private final Semaphore permits;
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed = false;
+
+    // metrics
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public ConnectionPool(ConnectionFactory factory, int minSize, int maxSize, long borrowTimeoutMillis,
+                          long idleTimeoutMillis, long maxLifetimeMillis, int statementCacheSize) {
+        if (maxSize <= 0 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size!");
+        }
+        this.factory = factory;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        // pre-warm so the first commands don't pay for the handshake and login
+        fillToMinimum();
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(idleTimeoutMillis, maxLifetimeMillis) / 4);
+        housekeeper.scheduleWithFixedDelay(this::houseKeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public PooledConnection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.increment();
+                throw new SQLException("Timed out after " + borrowTimeoutMillis + "ms waiting for a connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection");
+        }
+        recordWait(System.nanoTime() - start);
+        borrowCount.increment();
+
+        try {
+            PooledConnection pc;
+            while ((pc = idle.pollFirst()) != null) {
+                if (isExpired(pc) || !validate(pc)) {
+                    discard(pc);
+                    continue;
+                }
+                return pc;
+            }
+            return create();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public void release(PooledConnection pc) {
+        if (pc == null) {
+            return;
+        }
+        try {
+            Connection con = pc.getConnection();
+            if (closed || isExpired(pc) || con.isClosed()) {
+                discard(pc);
+                return;
+            }
+            // never hand a half-finished transaction to the next borrower
+            if (!con.getAutoCommit()) {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+            pc.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(pc);
+        } catch (SQLException e) {
+            discard(pc);
+        } finally {
+            permits.release();
+        }
+    }
+
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            discard(pc);
+        }
+    }
+
+    private PooledConnection create() throws SQLException {
+        Connection con = factory.open();
+        if (con == null) {
+            throw new SQLException("Could not open a connection");
+        }
+        totalConnections.incrementAndGet();
+        createdCount.increment();
+        return new PooledConnection(con, statementCacheSize);
+    }
+
+    private boolean validate(PooledConnection pc) {
+        if (System.currentTimeMillis() - pc.lastUsed < VALIDATION_BYPASS_MILLIS) {
+            return true;
+        }
+        try {
+            if (pc.getConnection().isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                return true;
+            }
+        } catch (SQLException e) {
+            // fall through and treat as broken
+        }
+        validationFailures.increment();
+        return false;
+    }
+
+    private boolean isExpired(PooledConnection pc) {
+        return System.currentTimeMillis() - pc.createdAt > maxLifetimeMillis;
+    }
+
+    private void discard(PooledConnection pc) {
+        totalConnections.decrementAndGet();
+        evictedCount.increment();
+        try {
+            pc.getConnection().close();
+        } catch (SQLException e) {
+            // the connection is being thrown away anyway
+        }
+    }
+
+    private void houseKeep() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        // walk from the coldest connection, keeping at least minSize around
+        while (it.hasNext()) {
+            PooledConnection pc = it.next();
+            boolean idleTooLong = now - pc.lastUsed > idleTimeoutMillis && totalConnections.get() > minSize;
+            if ((idleTooLong || isExpired(pc)) && idle.remove(pc)) {
+                discard(pc);
+            }
+        }
+        fillToMinimum();
+    }
+
+    private void fillToMinimum() {
+        while (!closed && totalConnections.get() < minSize && permits.tryAcquire()) {
+            try {
+                idle.offerLast(create());
+            } catch (SQLException e) {
+                System.out.println("Could not pre-warm connection pool: " + e.getMessage());
+                return;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    private void recordWait(long nanos) {
+        totalWaitNanos.add(nanos);
+        long max = maxWaitNanos.get();
+        while (nanos > max && !maxWaitNanos.compareAndSet(max, nanos)) {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    // Getters for metrics
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    public int getActiveConnections() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    public long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    public long getValidationFailures() {
+        return validationFailures.sum();
+    }
+
+    public double getAverageWaitMillis() {
+        long borrows = borrowCount.sum();
+        return borrows == 0 ? 0 : totalWaitNanos.sum() / 1_000_000.0 / borrows;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool{" +
+                "active=" + getActiveConnections() +
+                ", idle=" + getIdleConnections() +
+                ", total=" + getTotalConnections() +
+                ", max=" + maxSize +
+                ", borrows=" + getBorrowCount() +
+                ", timeouts=" + getTimeoutCount() +
+                ", created=" + getCreatedCount() +
+                ", evicted=" + getEvictedCount() +
+                ", validationFailures=" + getValidationFailures() +
+                ", avgWaitMs=" + String.format("%.3f", getAverageWaitMillis()) +
+                ", maxWaitMs=" + String.format("%.3f", getMaxWaitMillis()) +
+                '}';
+    }
+
+    public static class PooledConnection {
+        private final Connection connection;
+        private final StatementCache statementCache;
+        private final long createdAt;
+        private volatile long lastUsed;
+
+        private PooledConnection(Connection connection, int statementCacheSize) {
+            this.connection = connection;
+            this.statementCache = new StatementCache(connection, statementCacheSize);
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsed = this.createdAt;
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        // statements stay open across borrows, closing the connection closes them
+        public StatementCache getStatementCache() {
+            return statementCache;
+        }
+    }
+}
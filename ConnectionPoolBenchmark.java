@@ -0,0 +1,78 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Compares commands per second with and without the connection pool.
+// Each "command" is the same username lookup that create_patient/create_caregiver run first.
+// usage: java scheduler.db.ConnectionPoolBenchmark [threads] [commandsPerThread]
+public class ConnectionPoolBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int commandsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        // warm up both paths once so class loading and the first pre-warm are not measured
+        run(false, 1, 2);
+        run(true, 1, 2);
+
+        double unpooled = run(false, threads, commandsPerThread);
+        double pooled = run(true, threads, commandsPerThread);
+
+        System.out.printf("threads=%d commandsPerThread=%d%n", threads, commandsPerThread);
+        System.out.printf("without pool: %.1f commands/s%n", unpooled);
+        System.out.printf("with pool:    %.1f commands/s (%.1fx)%n", pooled, unpooled == 0 ? 0 : pooled / unpooled);
+        System.out.println(ConnectionManager.getPool());
+        System.out.println(StatementCache.summary());
+        ConnectionManager.shutdown();
+    }
+
+    private static double run(boolean pooling, int threads, int commandsPerThread) throws InterruptedException {
+        ConnectionManager.setPoolingEnabled(pooling);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicLong failures = new AtomicLong();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < commandsPerThread; i++) {
+                    if (!command("benchmark_user_" + i)) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (failures.get() > 0) {
+            System.out.println((pooling ? "pooled" : "unpooled") + " run had " + failures.get() + " failures");
+        }
+        return threads * (long) commandsPerThread / seconds;
+    }
+
+    private static boolean command(String username) {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        if (con == null) {
+            return false;
+        }
+        try {
+            // pooled runs also reuse the statement prepared on the connection
+            PreparedStatement statement = cm.prepareStatement("SELECT * FROM Caregivers WHERE Username = ?");
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.isBeforeFirst();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
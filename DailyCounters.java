@@ -0,0 +1,115 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Per-date counters in the DailyCapacity and DailyBookings tables, changed in the same transaction
+// as the rows they count: upload_availability adds offered and free slots, reserve takes a free
+// slot and books one for the vaccine, cancel does the reverse. The report command reads only these
+// tables, one row per date and vaccine, however many appointments there are. Archiving appointments
+// leaves the counts alone.
+public class DailyCounters {
+
+    public static void addCapacity(ConnectionManager cm, Date date, int offered, int free) throws SQLException {
+        PreparedStatement update = cm.prepareStatement(
+                "UPDATE DailyCapacity SET Offered = Offered + ?, Free = Free + ? WHERE Time = ?");
+        update.setInt(1, offered);
+        update.setInt(2, free);
+        update.setDate(3, date);
+        if (update.executeUpdate() > 0) {
+            return;
+        }
+        PreparedStatement insert = cm.prepareStatement(
+                "INSERT INTO DailyCapacity (Time, Offered, Free) VALUES (?, ?, ?)");
+        insert.setDate(1, date);
+        insert.setInt(2, offered);
+        insert.setInt(3, free);
+        try {
+            insert.executeUpdate();
+        } catch (SQLException e) {
+            // another transaction created the row first, it is there to update now
+            if (update.executeUpdate() == 0) {
+                throw e;
+            }
+        }
+    }
+
+    public static void addBooking(ConnectionManager cm, Date date, String vaccineName, int booked)
+            throws SQLException {
+        PreparedStatement update = cm.prepareStatement(
+                "UPDATE DailyBookings SET Booked = Booked + ? WHERE Time = ? AND Name = ?");
+        update.setInt(1, booked);
+        update.setDate(2, date);
+        update.setString(3, vaccineName);
+        if (update.executeUpdate() > 0) {
+            return;
+        }
+        PreparedStatement insert = cm.prepareStatement(
+                "INSERT INTO DailyBookings (Time, Name, Booked) VALUES (?, ?, ?)");
+        insert.setDate(1, date);
+        insert.setString(2, vaccineName);
+        insert.setInt(3, booked);
+        try {
+            insert.executeUpdate();
+        } catch (SQLException e) {
+            // another transaction created the row first, it is there to update now
+            if (update.executeUpdate() == 0) {
+                throw e;
+            }
+        }
+    }
+
+    // the counters of every date from..to that has any, in date order
+    public static List<DayCounts> read(Date from, Date to) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            TreeMap<Date, int[]> capacity = new TreeMap<>();
+            PreparedStatement getCapacity = cm.prepareStatement(
+                    "SELECT Time, Offered, Free FROM DailyCapacity WHERE Time >= ? AND Time <= ?");
+            getCapacity.setDate(1, from);
+            getCapacity.setDate(2, to);
+            ResultSet rs = getCapacity.executeQuery();
+            while (rs.next()) {
+                capacity.put(rs.getDate(1), new int[]{rs.getInt(2), rs.getInt(3)});
+            }
+
+            TreeMap<Date, Map<String, Integer>> bookings = new TreeMap<>();
+            PreparedStatement getBookings = cm.prepareStatement(
+                    "SELECT Time, Name, Booked FROM DailyBookings WHERE Time >= ? AND Time <= ?");
+            getBookings.setDate(1, from);
+            getBookings.setDate(2, to);
+            rs = getBookings.executeQuery();
+            while (rs.next()) {
+                if (rs.getInt(3) != 0) {
+                    bookings.computeIfAbsent(rs.getDate(1), d -> new TreeMap<>()).put(rs.getString(2), rs.getInt(3));
+                }
+            }
+            return combine(capacity, bookings);
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public static List<DayCounts> combine(TreeMap<Date, int[]> capacity, TreeMap<Date, Map<String, Integer>> bookings) {
+        TreeMap<Date, DayCounts> days = new TreeMap<>();
+        for (Map.Entry<Date, int[]> day : capacity.entrySet()) {
+            days.put(day.getKey(), new DayCounts(day.getKey(), day.getValue()[0], day.getValue()[1],
+                    bookings.getOrDefault(day.getKey(), new TreeMap<>())));
+        }
+        for (Map.Entry<Date, Map<String, Integer>> day : bookings.entrySet()) {
+            days.putIfAbsent(day.getKey(), new DayCounts(day.getKey(), 0, 0, day.getValue()));
+        }
+        return new ArrayList<>(days.values());
+    }
+}
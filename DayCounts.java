@@ -0,0 +1,39 @@
+package scheduler.model;
+
+import java.sql.Date;
+import java.util.Collections;
+import java.util.Map;
+
+// The materialised counters for one date: caregiver slots ever offered, slots still free and
+// appointments booked per vaccine, see DailyCounters.
+public class DayCounts {
+    private final Date date;
+    private final int offered;
+    private final int free;
+    private final Map<String, Integer> booked;
+
+    public DayCounts(Date date, int offered, int free, Map<String, Integer> booked) {
+        this.date = date;
+        this.offered = offered;
+        this.free = free;
+        this.booked = Collections.unmodifiableMap(booked);
+    }
+
+    // Getters
+    public Date getDate() {
+        return date;
+    }
+
+    public int getOffered() {
+        return offered;
+    }
+
+    public int getFree() {
+        return free;
+    }
+
+    // appointments per vaccine, ordered by vaccine name
+    public Map<String, Integer> getBooked() {
+        return booked;
+    }
+}
@@ -0,0 +1,417 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Journal;
+import src.main.scheduler.util.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// In-memory dose counters for every vaccine, flushed to the Vaccines table in batches.
+// Each vaccine's doses are spread over a few CAS-updated stripes so concurrent reservations
+// don't all spin on one counter; a take only succeeds on a stripe that still has a dose, so the
+// total can never go below zero. Reservations and cancels change doses with take and giveBack,
+// which only touch the counters and a local Journal under DoseJournalDir; every DoseFlushIntervalMs
+// the changes are coalesced per vaccine and written as "Doses = Doses + ?" in one transaction.
+//
+// Accounting: every delta is numbered and forced to the journal before the caller relies on it, a
+// take before the reservation commits, a give back after the cancel commits. A flush records the
+// last number it wrote in DoseFlush in the same transaction, so after a crash recover() applies
+// exactly the deltas the table does not have yet. A crash between a take and the rollback that
+// should hand it back, or between a cancel's commit and its give back, loses that dose; it can never
+// be sold twice. The inventory assumes no other process sells the same doses through the table.
+//
+// add_doses, and write-behind reservations, which write their decrement with the appointment, change
+// the table themselves and only move the counters with add and tryTake.
+public class DoseInventory {
+
+    private static final boolean ENABLED = Util.getEnvBoolean("DoseInventory", false);
+    private static final long FLUSH_INTERVAL_MS = Util.getEnvInt("DoseFlushIntervalMs", 1000);
+    private static final boolean SYNC = Util.getEnvBoolean("DoseJournalSync", true);
+    private static final String DIRECTORY = System.getenv("DoseJournalDir") != null
+            ? System.getenv("DoseJournalDir") : "dose-journal";
+
+    // ints between two stripes so they sit on different cache lines
+    private static final int PADDING = 16;
+    private static final int STRIPES = Math.min(16,
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1);
+
+    private static final DoseInventory INSTANCE = new DoseInventory();
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    // held by the one thread writing to the table, journal appends only need the monitor
+    private final Object flushLock = new Object();
+    // journaled deltas not in the table yet, by vaccine, and the number of the last journaled delta
+    private final TreeMap<String, Long> pending = new TreeMap<>();
+    private long lastSeq = 0;
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+    private Journal journal = null;
+    private ScheduledExecutorService flusher = null;
+    private volatile boolean loaded = false;
+
+    public static DoseInventory getInstance() {
+        return INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    // true once load() has run, callers go straight to the table otherwise
+    public boolean isActive() {
+        return loaded;
+    }
+
+    // Replays the journal of an earlier run and writes what the table does not have yet. Runs as
+    // part of the first load(), under the flush lock.
+    private void recover() throws IOException, SQLException {
+        synchronized (this) {
+            if (journal != null) {
+                return;
+            }
+        }
+        long flushed = readFlushedSeq();
+        Journal opened = new Journal(Paths.get(DIRECTORY), SYNC, 64 * 1024);
+        opened.open(body -> {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+            long seq = in.readLong();
+            String name = in.readUTF();
+            long delta = in.readLong();
+            if (seq > flushed) {
+                pending.merge(name, delta, Long::sum);
+            }
+            lastSeq = Math.max(lastSeq, seq);
+        });
+        synchronized (this) {
+            lastSeq = Math.max(lastSeq, flushed);
+            journal = opened;
+        }
+        flush();
+    }
+
+    // Reads the counts from the table, plus the journaled deltas it does not have yet. Recovers the
+    // journal and starts the flusher the first time. Holds the flush lock, so no flush moves deltas
+    // from the journal to the table while they are added up.
+    public void load() throws SQLException {
+        synchronized (flushLock) {
+            try {
+                recover();
+            } catch (IOException e) {
+                throw new SQLException("Could not read the dose journal: " + e.getMessage(), e);
+            }
+            ConnectionManager cm = new ConnectionManager();
+            cm.createConnection();
+
+            String selectVaccines = "SELECT Name, Doses FROM Vaccines";
+            try {
+                PreparedStatement statement = cm.prepareStatement(selectVaccines);
+                ResultSet rs = statement.executeQuery();
+                counters.clear();
+                while (rs.next()) {
+                    String name = rs.getString(1);
+                    long doses = rs.getInt(2) + getPendingDelta(name);
+                    counters.put(name, new Counter((int) Math.max(0, doses)));
+                }
+            } catch (SQLException e) {
+                throw new SQLException(e.getMessage(), e);
+            } finally {
+                cm.closeConnection();
+            }
+            startFlusher();
+        }
+        loaded = true;
+    }
+
+    private synchronized void startFlusher() {
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "dose-inventory-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::flushQuietly));
+        }
+    }
+
+    // a vaccine that was just inserted into the table with the given doses
+    public void register(String vaccineName, int doses) {
+        counters.putIfAbsent(vaccineName, new Counter(doses));
+    }
+
+    public boolean contains(String vaccineName) {
+        return counters.containsKey(vaccineName);
+    }
+
+    public int getAvailableDoses(String vaccineName) {
+        Counter counter = counters.get(vaccineName);
+        return counter == null ? 0 : counter.available();
+    }
+
+    // doses per vaccine ordered by name, like "SELECT * FROM Vaccines" on the clustered key
+    public Map<String, Integer> snapshot() {
+        Map<String, Integer> doses = new TreeMap<>();
+        counters.forEach((name, counter) -> doses.put(name, counter.available()));
+        return doses;
+    }
+
+    // doses the caller has added to the table itself, or taken with tryTake and is handing back
+    public void add(String vaccineName, int num) {
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        Counter counter = counters.get(vaccineName);
+        if (counter == null) {
+            throw new IllegalArgumentException("Unknown vaccine " + vaccineName);
+        }
+        counter.add(num);
+    }
+
+    // takes num doses if that many are available, never leaving the count below zero; the caller
+    // writes the decrement to the table itself, or hands the doses back with add if that fails
+    public boolean tryTake(String vaccineName, int num) {
+        Counter counter = counters.get(vaccineName);
+        return counter != null && counter.tryTake(num);
+    }
+
+    // Takes one dose for a reservation and journals it, the flusher writes it to the table. Returns
+    // false if the vaccine has none left. The caller hands it back with giveBack if the reservation
+    // does not commit.
+    public boolean take(String vaccineName) throws SQLException {
+        Counter counter = counters.get(vaccineName);
+        if (counter == null || !counter.tryTake(1)) {
+            return false;
+        }
+        try {
+            record(vaccineName, -1);
+        } catch (IOException e) {
+            counter.add(1);
+            throw new SQLException("Dose journal append failed: " + e.getMessage(), e);
+        }
+        return true;
+    }
+
+    // returns doses to the count and journals them, for a cancel that committed or a take whose
+    // reservation did not
+    public void giveBack(String vaccineName, int num) throws SQLException {
+        add(vaccineName, num);
+        try {
+            record(vaccineName, num);
+        } catch (IOException e) {
+            // the dose stays in memory but not in the table, the next load() drops it again
+            throw new SQLException("Dose journal append failed: " + e.getMessage(), e);
+        }
+    }
+
+    private synchronized void record(String vaccineName, long delta) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(lastSeq + 1);
+        out.writeUTF(vaccineName);
+        out.writeLong(delta);
+        journal.append(bytes.toByteArray());
+        lastSeq++;
+        pending.merge(vaccineName, delta, Long::sum);
+    }
+
+    // Writes the journaled deltas to the table in one transaction, one statement per vaccine, and
+    // compacts the journal down to what was journaled meanwhile.
+    public void flush() throws IOException, SQLException {
+        synchronized (flushLock) {
+            Map<String, Long> deltas;
+            long through;
+            synchronized (this) {
+                if (journal == null) {
+                    return;
+                }
+                deltas = new TreeMap<>(pending);
+                deltas.values().removeIf(delta -> delta == 0);
+                through = lastSeq;
+            }
+            if (deltas.isEmpty()) {
+                return;
+            }
+
+            ConnectionManager cm = new ConnectionManager();
+            Connection con = cm.createConnection();
+            String applyDelta = "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?";
+            String updateFlushed = "UPDATE DoseFlush SET Seq = ? WHERE ID = 1";
+            try {
+                con.setAutoCommit(false);
+                PreparedStatement statement = cm.prepareStatement(applyDelta);
+                for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+                    statement.setLong(1, delta.getValue());
+                    statement.setString(2, delta.getKey());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                PreparedStatement update = cm.prepareStatement(updateFlushed);
+                update.setLong(1, through);
+                if (update.executeUpdate() == 0) {
+                    PreparedStatement insert = cm.prepareStatement("INSERT INTO DoseFlush (ID, Seq) VALUES (1, ?)");
+                    insert.setLong(1, through);
+                    insert.executeUpdate();
+                }
+                con.commit();
+            } catch (SQLException e) {
+                flushFailures.increment();
+                try {
+                    con.rollback();
+                } catch (SQLException ignored) {
+                    // release rolls back again and discards the connection if that fails too
+                }
+                throw new SQLException(e.getMessage(), e);
+            } finally {
+                cm.closeConnection();
+            }
+
+            synchronized (this) {
+                for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+                    pending.merge(delta.getKey(), -delta.getValue(), Long::sum);
+                }
+                pending.values().removeIf(delta -> delta == 0);
+                // what was journaled since the snapshot, numbered after everything the table has
+                List<byte[]> live = new ArrayList<>();
+                for (Map.Entry<String, Long> delta : pending.entrySet()) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream out = new DataOutputStream(bytes);
+                    out.writeLong(lastSeq);
+                    out.writeUTF(delta.getKey());
+                    out.writeLong(delta.getValue());
+                    live.add(bytes.toByteArray());
+                }
+                journal.compact(live);
+            }
+            flushes.increment();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException | SQLException e) {
+            System.out.println("Dose flush failed, will retry: " + e.getMessage());
+        }
+    }
+
+    private static long readFlushedSeq() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            ResultSet rs = cm.prepareStatement("SELECT Seq FROM DoseFlush WHERE ID = 1").executeQuery();
+            return rs.next() ? rs.getLong(1) : 0;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // journaled changes to the vaccine not written to the table yet
+    public synchronized long getPendingDelta(String vaccineName) {
+        return pending.getOrDefault(vaccineName, 0L);
+    }
+
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    public long getFlushFailureCount() {
+        return flushFailures.sum();
+    }
+
+    // sets the vaccine's count to zero, for when the table turned out to have none left
+    public void drain(String vaccineName) {
+        Counter counter = counters.get(vaccineName);
+        if (counter != null) {
+            counter.drain();
+        }
+    }
+
+    private static class Counter {
+        private final AtomicIntegerArray stripes = new AtomicIntegerArray(STRIPES * PADDING);
+
+        private Counter(int doses) {
+            for (int i = 0; i < STRIPES; i++) {
+                stripes.set(i * PADDING, doses / STRIPES + (i < doses % STRIPES ? 1 : 0));
+            }
+        }
+
+        private int available() {
+            int total = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                total += stripes.get(i * PADDING);
+            }
+            return total;
+        }
+
+        private void drain() {
+            for (int i = 0; i < STRIPES; i++) {
+                stripes.set(i * PADDING, 0);
+            }
+        }
+
+        private void add(int num) {
+            stripes.getAndAdd(home() * PADDING, num);
+        }
+
+        private boolean tryTake(int num) {
+            int start = home();
+            // a single dose comes from the first stripe that has one
+            if (num == 1) {
+                for (int i = 0; i < STRIPES; i++) {
+                    int index = ((start + i) & (STRIPES - 1)) * PADDING;
+                    int current;
+                    while ((current = stripes.get(index)) > 0) {
+                        if (stripes.compareAndSet(index, current, current - 1)) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            }
+            // larger takes drain stripes one at a time and put back what they got on a shortfall
+            int taken = 0;
+            for (int i = 0; i < STRIPES && taken < num; i++) {
+                int index = ((start + i) & (STRIPES - 1)) * PADDING;
+                int current;
+                while ((current = stripes.get(index)) > 0 && taken < num) {
+                    int grab = Math.min(current, num - taken);
+                    if (stripes.compareAndSet(index, current, current - grab)) {
+                        taken += grab;
+                    }
+                }
+            }
+            if (taken < num) {
+                if (taken > 0) {
+                    stripes.getAndAdd(start * PADDING, taken);
+                }
+                return false;
+            }
+            return true;
+        }
+
+        private static int home() {
+            return ThreadLocalRandom.current().nextInt(STRIPES);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package scheduler.db;
+
+import src.main.scheduler.util.JfrEvents;
+import src.main.scheduler.util.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+// Wraps a prepared statement so every execution is timed and every row read is counted in Metrics,
+// and emits a Flight Recorder event per execution when that event is enabled. Only the execute
+// methods and ResultSet.next()/close() are intercepted, everything else passes straight through
+// to the driver.
+public class InstrumentedStatement implements InvocationHandler {
+
+    // query events of this thread still counting rows, committed when the connection is returned
+    private static final ThreadLocal<List<PendingQuery>> PENDING = new ThreadLocal<>();
+
+    private final PreparedStatement statement;
+    private final String sql;
+
+    private InstrumentedStatement(PreparedStatement statement, String sql) {
+        this.statement = statement;
+        this.sql = sql;
+    }
+
+    public static PreparedStatement wrap(PreparedStatement statement, String sql) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new InstrumentedStatement(statement, sql));
+    }
+
+    // commits the events of queries whose results were not read to the end, called by closeConnection
+    static void commitPendingEvents() {
+        List<PendingQuery> pending = PENDING.get();
+        if (pending == null || pending.isEmpty()) {
+            return;
+        }
+        for (PendingQuery query : pending) {
+            query.commit();
+        }
+        pending.clear();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (!method.getName().startsWith("execute")) {
+            return forward(statement, method, args);
+        }
+        JfrEvents.StatementEvent event = new JfrEvents.StatementEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = forward(statement, method, args);
+        } catch (Throwable e) {
+            ThreadTransaction.markFailed();
+            Metrics.getInstance().recordStatement(System.nanoTime() - start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.sql = sql;
+                event.failed = true;
+                event.commit();
+            }
+            throw e;
+        }
+        Metrics.getInstance().recordStatement(System.nanoTime() - start);
+        event.end();
+
+        if (result instanceof ResultSet) {
+            // rows are only known once the caller has read them
+            PendingQuery query = null;
+            if (event.isEnabled()) {
+                event.sql = sql;
+                query = new PendingQuery(event);
+                List<PendingQuery> pending = PENDING.get();
+                if (pending == null) {
+                    pending = new ArrayList<>();
+                    PENDING.set(pending);
+                }
+                pending.add(query);
+            }
+            return wrapResultSet((ResultSet) result, query);
+        }
+        if (event.shouldCommit()) {
+            event.sql = sql;
+            event.rows = updateCount(result);
+            event.commit();
+        }
+        return result;
+    }
+
+    private static long updateCount(Object result) {
+        if (result instanceof Number) {
+            return ((Number) result).longValue();
+        }
+        if (result instanceof int[]) {
+            long rows = 0;
+            for (int count : (int[]) result) {
+                rows += Math.max(count, 0);
+            }
+            return rows;
+        }
+        return 0;
+    }
+
+    private static ResultSet wrapResultSet(ResultSet resultSet, PendingQuery query) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    Object result = forward(resultSet, method, args);
+                    if (method.getName().equals("next")) {
+                        if (Boolean.TRUE.equals(result)) {
+                            Metrics.getInstance().recordRows(1);
+                            if (query != null) {
+                                query.rows++;
+                            }
+                        } else if (query != null) {
+                            query.commit();
+                        }
+                    } else if (method.getName().equals("close") && query != null) {
+                        query.commit();
+                    }
+                    return result;
+                });
+    }
+
+    private static Object forward(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            // rethrow the driver's SQLException rather than the reflection wrapper
+            throw e.getCause();
+        }
+    }
+
+    private static class PendingQuery {
+        private final JfrEvents.StatementEvent event;
+        private long rows;
+        private boolean committed;
+
+        private PendingQuery(JfrEvents.StatementEvent event) {
+            this.event = event;
+        }
+
+        private void commit() {
+            if (committed) {
+                return;
+            }
+            committed = true;
+            if (event.shouldCommit()) {
+                event.rows = rows;
+                event.commit();
+            }
+        }
+    }
+}
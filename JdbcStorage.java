@@ -0,0 +1,719 @@
+package scheduler.db;
+
+import scheduler.model.Appointment;
+import scheduler.model.AppointmentWriteBehind;
+import scheduler.model.AvailabilityCalendar;
+import scheduler.model.AvailabilityImporter;
+import scheduler.model.AvailabilityIndex;
+import scheduler.model.Caregiver;
+import scheduler.model.DailyCounters;
+import scheduler.model.DayCounts;
+import scheduler.model.DoseInventory;
+import scheduler.model.Patient;
+import scheduler.model.ReservationEngine;
+import scheduler.model.WaitlistEntry;
+import src.main.scheduler.util.Util;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// Storage backed by the SQL database through ConnectionManager, using the in-memory
+// availability index and dose inventory when they are loaded.
+public class JdbcStorage implements Storage {
+
+    // SQL Server allows at most 2100 parameters per statement
+    private static final int LOOKUP_CHUNK = 1000;
+    private static final int BATCH_SIZE = Util.getEnvInt("UserBatchSize", 1000);
+    private static final int FETCH_SIZE = Util.getEnvInt("AppointmentFetchSize", 500);
+    private static final Date MIN_DATE = Date.valueOf("0001-01-01");
+    private static final Date MAX_DATE = Date.valueOf("9999-12-31");
+
+    @Override
+    public Patient getPatient(String username) throws SQLException {
+        byte[][] credentials = getCredentials("SELECT Salt, Hash FROM Patients WHERE Username = ?", username);
+        return credentials == null ? null
+                : new Patient.PatientBuilder(username, credentials[0], credentials[1]).build();
+    }
+
+    @Override
+    public Caregiver getCaregiver(String username) throws SQLException {
+        byte[][] credentials = getCredentials("SELECT Salt, Hash FROM Caregivers WHERE Username = ?", username);
+        return credentials == null ? null
+                : new Caregiver.CaregiverBuilder(username, credentials[0], credentials[1]).build();
+    }
+
+    private byte[][] getCredentials(String sql, String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            PreparedStatement statement = cm.prepareStatement(sql);
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                return null;
+            }
+            byte[] salt = resultSet.getBytes("Salt");
+            // we need to call Util.trim() to get rid of the paddings,
+            // try to remove the use of Util.trim() and you'll see :)
+            byte[] hash = Util.trim(resultSet.getBytes("Hash"));
+            return new byte[][]{salt, hash};
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean patientExists(String username) throws SQLException {
+        return exists("SELECT * FROM Patients WHERE Username = ?", username);
+    }
+
+    @Override
+    public boolean caregiverExists(String username) throws SQLException {
+        return exists("SELECT * FROM Caregivers WHERE Username = ?", username);
+    }
+
+    private boolean exists(String sql, String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            PreparedStatement statement = cm.prepareStatement(sql);
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
+            return resultSet.isBeforeFirst();
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Set<String> findExistingPatients(Collection<String> usernames) throws SQLException {
+        return findExisting("Patients", usernames);
+    }
+
+    @Override
+    public Set<String> findExistingCaregivers(Collection<String> usernames) throws SQLException {
+        return findExisting("Caregivers", usernames);
+    }
+
+    // one IN query per chunk instead of one query per username
+    private Set<String> findExisting(String table, Collection<String> usernames) throws SQLException {
+        if (usernames.isEmpty()) {
+            return Collections.emptySet();
+        }
+        List<String> all = new ArrayList<>(usernames);
+        Set<String> existing = new HashSet<>();
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            for (int from = 0; from < all.size(); from += LOOKUP_CHUNK) {
+                List<String> chunk = all.subList(from, Math.min(from + LOOKUP_CHUNK, all.size()));
+                StringBuilder sql = new StringBuilder("SELECT Username FROM " + table + " WHERE Username IN (");
+                for (int i = 0; i < chunk.size(); i++) {
+                    sql.append(i == 0 ? "?" : ", ?");
+                }
+                sql.append(")");
+                PreparedStatement statement = cm.prepareStatement(sql.toString());
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setString(i + 1, chunk.get(i));
+                }
+                ResultSet rs = statement.executeQuery();
+                while (rs.next()) {
+                    existing.add(rs.getString(1));
+                }
+            }
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+        return existing;
+    }
+
+    @Override
+    public void savePatients(List<Patient> patients) throws SQLException {
+        List<Object[]> rows = new ArrayList<>();
+        for (Patient patient : patients) {
+            rows.add(new Object[]{patient.getUsername(), patient.getSalt(), patient.getHash()});
+        }
+        saveUsers("INSERT INTO Patients VALUES (? , ?, ?)", rows);
+    }
+
+    @Override
+    public void saveCaregivers(List<Caregiver> caregivers) throws SQLException {
+        List<Object[]> rows = new ArrayList<>();
+        for (Caregiver caregiver : caregivers) {
+            rows.add(new Object[]{caregiver.getUsername(), caregiver.getSalt(), caregiver.getHash()});
+        }
+        saveUsers("INSERT INTO Caregivers VALUES (? , ?, ?)", rows);
+    }
+
+    // JDBC batches inside one transaction
+    private void saveUsers(String sql, List<Object[]> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = cm.prepareStatement(sql);
+            for (int i = 0; i < rows.size(); i++) {
+                statement.setString(1, (String) rows.get(i)[0]);
+                statement.setBytes(2, (byte[]) rows.get(i)[1]);
+                statement.setBytes(3, (byte[]) rows.get(i)[2]);
+                statement.addBatch();
+                if ((i + 1) % BATCH_SIZE == 0 || i == rows.size() - 1) {
+                    statement.executeBatch();
+                }
+            }
+            con.commit();
+        } catch (SQLException e) {
+            rollbackQuietly(con);
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void addAvailability(Date date, String caregiverUsername) throws SQLException {
+        flushWriteBehind();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = cm.prepareStatement(addAvailability);
+            statement.setDate(1, date);
+            statement.setString(2, caregiverUsername);
+            statement.executeUpdate();
+            DailyCounters.addCapacity(cm, date, 1, 1);
+            con.commit();
+            AvailabilityIndex.getInstance().add(date, caregiverUsername);
+            AvailabilityCalendar.getInstance().add(date, caregiverUsername);
+        } catch (SQLException e) {
+            rollbackQuietly(con);
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public AvailabilityImporter.ImportResult addAvailabilities(List<AvailabilityImporter.Slot> slots)
+            throws SQLException {
+        flushWriteBehind();
+        return AvailabilityImporter.importSlots(slots);
+    }
+
+    @Override
+    public List<String> getAvailableCaregivers(Date date) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        if (index.isLoaded()) {
+            return index.getCaregivers(date);
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createReadConnection();
+
+        String selectCaregiver = "SELECT * FROM Availabilities WHERE Time = ? ORDER BY Username";
+        try {
+            PreparedStatement getCaregiver = cm.prepareStatement(selectCaregiver);
+            getCaregiver.setDate(1, date);
+            ResultSet resultSet = getCaregiver.executeQuery();
+            List<String> caregivers = new ArrayList<>();
+            while (resultSet.next()) {
+                caregivers.add(resultSet.getString(2));
+            }
+            return caregivers;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void forEachAvailableCount(Date from, Date to, BiConsumer<Date, Integer> action) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        if (index.isLoaded()) {
+            index.forEachCount(from, to, action);
+            return;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createReadConnection();
+
+        // one range seek on the clustered (Time, Username) key, counted as it streams
+        String countCaregivers = "SELECT Time, COUNT(*) FROM Availabilities WHERE Time >= ? AND Time <= ? "
+                + "GROUP BY Time ORDER BY Time";
+        try {
+            PreparedStatement statement = cm.prepareStatement(countCaregivers);
+            statement.setDate(1, from);
+            statement.setDate(2, to);
+            statement.setFetchSize(FETCH_SIZE);
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                action.accept(rs.getDate(1), rs.getInt(2));
+            }
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Date getEarliestAvailableDate(Date notBefore) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        if (index.isLoaded()) {
+            return index.earliestDay(notBefore);
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        // the first row of a range seek on the clustered (Time, Username) key
+        String firstDate = "SELECT TOP 1 Time FROM Availabilities WHERE Time >= ? ORDER BY Time";
+        try {
+            PreparedStatement statement = cm.prepareStatement(firstDate);
+            statement.setDate(1, notBefore);
+            ResultSet rs = statement.executeQuery();
+            return rs.next() ? rs.getDate(1) : null;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Date> getDaysWithCaregivers(Date from, Date to, int minCaregivers) throws SQLException {
+        AvailabilityCalendar calendar = AvailabilityCalendar.getInstance();
+        if (calendar.isLoaded()) {
+            return calendar.daysWithAtLeast(from, to, minCaregivers);
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String selectDays = "SELECT Time FROM Availabilities WHERE Time >= ? AND Time <= ? "
+                + "GROUP BY Time HAVING COUNT(*) >= ? ORDER BY Time";
+        try {
+            PreparedStatement statement = cm.prepareStatement(selectDays);
+            statement.setDate(1, from);
+            statement.setDate(2, to);
+            statement.setInt(3, minCaregivers);
+            ResultSet rs = statement.executeQuery();
+            List<Date> days = new ArrayList<>();
+            while (rs.next()) {
+                days.add(rs.getDate(1));
+            }
+            return days;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<String> getCaregiversFreeOnAll(Collection<Date> dates) throws SQLException {
+        AvailabilityCalendar calendar = AvailabilityCalendar.getInstance();
+        if (calendar.isLoaded()) {
+            return calendar.caregiversOnAll(dates);
+        }
+        Set<Date> distinct = new TreeSet<>(dates);
+        if (distinct.isEmpty()) {
+            return Collections.emptyList();
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        // one seek per date on the clustered key, a caregiver qualifies if it has a row on each of them
+        String selectCaregivers = "SELECT Username FROM Availabilities WHERE Time IN ("
+                + String.join(", ", Collections.nCopies(distinct.size(), "?"))
+                + ") GROUP BY Username HAVING COUNT(*) = ? ORDER BY Username";
+        try {
+            PreparedStatement statement = cm.prepareStatement(selectCaregivers);
+            int parameter = 1;
+            for (Date date : distinct) {
+                statement.setDate(parameter++, date);
+            }
+            statement.setInt(parameter, distinct.size());
+            ResultSet rs = statement.executeQuery();
+            List<String> caregivers = new ArrayList<>();
+            while (rs.next()) {
+                caregivers.add(rs.getString(1));
+            }
+            return caregivers;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Integer getDoses(String vaccineName) throws SQLException {
+        // the inventory's count, the table has its journaled changes only after the next flush
+        DoseInventory inventory = DoseInventory.getInstance();
+        if (inventory.isActive() && inventory.contains(vaccineName)) {
+            return inventory.getAvailableDoses(vaccineName);
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createReadConnection();
+
+        String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
+        try {
+            PreparedStatement statement = cm.prepareStatement(getVaccine);
+            statement.setString(1, vaccineName);
+            ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getInt("Doses") : null;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Map<String, Integer> getVaccines() throws SQLException {
+        DoseInventory inventory = DoseInventory.getInstance();
+        if (inventory.isActive()) {
+            return inventory.snapshot();
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createReadConnection();
+
+        String selectVaccine = "SELECT * FROM Vaccines";
+        try {
+            PreparedStatement getVaccine = cm.prepareStatement(selectVaccine);
+            ResultSet resultSet = getVaccine.executeQuery();
+            Map<String, Integer> vaccines = new TreeMap<>();
+            while (resultSet.next()) {
+                vaccines.put(resultSet.getString(1), resultSet.getInt(2));
+            }
+            return vaccines;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void addVaccine(String vaccineName, int doses) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
+        try {
+            PreparedStatement statement = cm.prepareStatement(addDoses);
+            statement.setString(1, vaccineName);
+            statement.setInt(2, doses);
+            statement.executeUpdate();
+            DoseInventory.getInstance().register(vaccineName, doses);
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void addDoses(String vaccineName, int doses) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        // relative update so concurrent changes are not overwritten by a stale count
+        String addAvailability = "UPDATE vaccines SET Doses = Doses + ? WHERE name = ?;";
+        try {
+            PreparedStatement statement = cm.prepareStatement(addAvailability);
+            statement.setInt(1, doses);
+            statement.setString(2, vaccineName);
+            statement.executeUpdate();
+            DoseInventory inventory = DoseInventory.getInstance();
+            if (inventory.isActive() && inventory.contains(vaccineName)) {
+                inventory.add(vaccineName, doses);
+            }
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean removeDoses(String vaccineName, int doses) throws SQLException {
+        // the counter first, like a reservation, so doses it already handed out are not removed twice
+        DoseInventory inventory = DoseInventory.getInstance();
+        boolean counted = inventory.isActive() && inventory.contains(vaccineName);
+        if (counted && !inventory.tryTake(vaccineName, doses)) {
+            return false;
+        }
+        if (counted) {
+            // the guard below checks the table, which has to have the returned doses by now
+            try {
+                inventory.flush();
+            } catch (IOException | SQLException e) {
+                inventory.add(vaccineName, doses);
+                throw new SQLException(e);
+            }
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String removeAvailability = "UPDATE vaccines SET Doses = Doses - ? WHERE name = ? AND Doses >= ?;";
+        boolean removed = false;
+        try {
+            PreparedStatement statement = cm.prepareStatement(removeAvailability);
+            statement.setInt(1, doses);
+            statement.setString(2, vaccineName);
+            statement.setInt(3, doses);
+            removed = statement.executeUpdate() > 0;
+            return removed;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            if (counted && !removed) {
+                inventory.add(vaccineName, doses);
+            }
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public ReservationEngine.Reservation reserve(String patientUsername, Date date, String vaccineName)
+            throws SQLException {
+        return ReservationEngine.getInstance().reserve(patientUsername, date, vaccineName);
+    }
+
+    @Override
+    public boolean cancel(int appointmentId, String username, boolean isCaregiver) throws SQLException {
+        return ReservationEngine.getInstance().cancel(appointmentId, username, isCaregiver);
+    }
+
+    @Override
+    public int addToWaitlist(String patientUsername, Date from, Date to, String vaccineName) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String addEntry = "INSERT INTO Waitlist (PatientUsername, FromDate, ToDate, Name) VALUES (?, ?, ?, ?)";
+        try {
+            PreparedStatement statement = cm.prepareStatement(addEntry, Statement.RETURN_GENERATED_KEYS);
+            statement.setString(1, patientUsername);
+            statement.setDate(2, from);
+            statement.setDate(3, to);
+            statement.setString(4, vaccineName);
+            statement.executeUpdate();
+            ResultSet generatedKeys = statement.getGeneratedKeys();
+            if (!generatedKeys.next()) {
+                throw new SQLException("Waitlist ID was not generated");
+            }
+            return generatedKeys.getInt(1);
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<WaitlistEntry> getWaitlist(int afterId, int limit) throws SQLException {
+        flushWriteBehind();
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        // a keyset page on the clustered ID key
+        String selectEntries = "SELECT TOP (?) ID, PatientUsername, FromDate, ToDate, Name FROM Waitlist "
+                + "WHERE ID > ? ORDER BY ID";
+        try {
+            PreparedStatement statement = cm.prepareStatement(selectEntries);
+            statement.setInt(1, limit);
+            statement.setInt(2, afterId);
+            ResultSet rs = statement.executeQuery();
+            List<WaitlistEntry> entries = new ArrayList<>();
+            while (rs.next()) {
+                entries.add(new WaitlistEntry(rs.getInt(1), rs.getString(2), rs.getDate(3), rs.getDate(4),
+                        rs.getString(5)));
+            }
+            return entries;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean removeFromWaitlist(int id) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String removeEntry = "DELETE FROM Waitlist WHERE ID = ?";
+        try {
+            PreparedStatement statement = cm.prepareStatement(removeEntry);
+            statement.setInt(1, id);
+            return statement.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public ReservationEngine.Reservation reserveWaitlisted(WaitlistEntry entry, Date date) throws SQLException {
+        return ReservationEngine.getInstance().reserve(entry, date);
+    }
+
+    @Override
+    public void forEachAppointment(AppointmentQuery query, Consumer<Appointment> action) throws SQLException {
+        flushWriteBehind();
+        ConnectionManager cm = new ConnectionManager();
+        // a replica cannot tell whether it has the rows the write-behind writer committed for this session
+        if (AppointmentWriteBehind.getInstance().isActive()) {
+            cm.createConnection();
+        } else {
+            cm.createReadConnection();
+        }
+
+        // one statement text per role so every page reuses the cached plan: absent bounds become
+        // the widest dates SQL Server accepts and no limit becomes TOP of the largest int
+        String owner = query.isCaregiver() ? "CaregiverUsername" : "PatientUsername";
+        String appointment = "SELECT TOP (?) ID, Time, Name, PatientUsername, CaregiverUsername FROM Appointments "
+                + "WHERE " + owner + " = ? AND ID > ? AND Time >= ? AND Time <= ? ORDER BY ID";
+        try {
+            PreparedStatement getAppointment = cm.prepareStatement(appointment);
+            getAppointment.setInt(1, query.getLimit() > 0 ? query.getLimit() : Integer.MAX_VALUE);
+            getAppointment.setString(2, query.getUsername());
+            getAppointment.setInt(3, query.getAfterId());
+            getAppointment.setDate(4, query.getFrom() != null ? query.getFrom() : MIN_DATE);
+            getAppointment.setDate(5, query.getTo() != null ? query.getTo() : MAX_DATE);
+            // rows are handed to the action as they arrive, so a whole history is never held at once
+            getAppointment.setFetchSize(query.getLimit() > 0 ? Math.min(query.getLimit(), FETCH_SIZE) : FETCH_SIZE);
+            ResultSet rs = getAppointment.executeQuery();
+            while (rs.next()) {
+                action.accept(new Appointment(rs.getInt(1), rs.getDate(2), rs.getString(3),
+                        rs.getString(4), rs.getString(5)));
+            }
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<DayCounts> getDayCounts(Date from, Date to) throws SQLException {
+        flushWriteBehind();
+        return DailyCounters.read(from, to);
+    }
+
+    @Override
+    public Date getFirstAppointmentDate() throws SQLException {
+        flushWriteBehind();
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            ResultSet rs = cm.prepareStatement("SELECT MIN(Time) FROM Appointments").executeQuery();
+            return rs.next() ? rs.getDate(1) : null;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void forEachAppointmentBetween(Date from, Date to, Consumer<Appointment> action) throws SQLException {
+        flushWriteBehind();
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        // a range of the clustered (Time, ID) key, within one partition for a month
+        String appointments = "SELECT ID, Time, Name, PatientUsername, CaregiverUsername FROM Appointments "
+                + "WHERE Time >= ? AND Time < ?";
+        try {
+            PreparedStatement statement = cm.prepareStatement(appointments);
+            statement.setDate(1, from);
+            statement.setDate(2, to);
+            statement.setFetchSize(FETCH_SIZE);
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                action.accept(new Appointment(rs.getInt(1), rs.getDate(2), rs.getString(3),
+                        rs.getString(4), rs.getString(5)));
+            }
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public int deleteAppointments(Date from, Date to, int limit) throws SQLException {
+        flushWriteBehind();
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        // each batch commits on its own so the delete never holds many locks or much log at once
+        String delete = "DELETE TOP (?) FROM Appointments WHERE Time >= ? AND Time < ?";
+        try {
+            PreparedStatement statement = cm.prepareStatement(delete);
+            statement.setInt(1, limit);
+            statement.setDate(2, from);
+            statement.setDate(3, to);
+            return statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            flushWriteBehind();
+        } catch (SQLException e) {
+            System.out.println("Could not write out buffered appointments, they stay in the write-behind log");
+        }
+        DoseInventory inventory = DoseInventory.getInstance();
+        if (inventory.isActive()) {
+            try {
+                inventory.flush();
+            } catch (IOException | SQLException e) {
+                System.out.println("Could not write out dose changes, they stay in the dose journal");
+            }
+        }
+        ConnectionManager.shutdown();
+    }
+
+    // appointments and slot deletes still in the write-behind log go to the database first
+    private static void flushWriteBehind() throws SQLException {
+        AppointmentWriteBehind.getInstance().awaitFlush();
+    }
+
+    private static void rollbackQuietly(Connection con) {
+        try {
+            con.rollback();
+        } catch (SQLException e) {
+            // the pool discards connections it cannot reset
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package src.main.scheduler.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Flight Recorder events, all disabled by default so they cost a few branches unless turned on, e.g.
+//   java -XX:StartFlightRecording:+scheduler.Command#enabled=true,+scheduler.Statement#enabled=true ...
+// They line up with GC, lock and I/O events in the same recording.
+public class JfrEvents {
+
+    @Name("scheduler.Command")
+    @Label("Command")
+    @Description("One command handled by Scheduler")
+    @Category({"Scheduler"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class CommandEvent extends Event {
+        @Label("Command")
+        public String command;
+
+        @Label("User")
+        public String username;
+    }
+
+    @Name("scheduler.Connection")
+    @Label("Get Connection")
+    @Description("ConnectionManager.createConnection, including any wait for the pool")
+    @Category({"Scheduler", "Database"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class ConnectionEvent extends Event {
+        @Label("Pooled")
+        public boolean pooled;
+
+        @Label("Succeeded")
+        public boolean succeeded;
+    }
+
+    @Name("scheduler.Statement")
+    @Label("SQL Statement")
+    @Description("One statement execution; for queries, rows counts the rows read before the result was "
+            + "exhausted, closed or the connection returned")
+    @Category({"Scheduler", "Database"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class StatementEvent extends Event {
+        @Label("SQL")
+        public String sql;
+
+        @Label("Rows")
+        public long rows;
+
+        @Label("Failed")
+        public boolean failed;
+    }
+
+    @Name("scheduler.PasswordHash")
+    @Label("Password Hash")
+    @Description("One PBKDF2 derivation")
+    @Category({"Scheduler"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class HashEvent extends Event {
+        @Label("Iterations")
+        public int iterations;
+
+        @Label("Key Size")
+        @DataAmount(DataAmount.BITS)
+        public int keyBits;
+    }
+}
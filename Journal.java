@@ -0,0 +1,208 @@
+package scheduler.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Append-only, memory-mapped record log with snapshots, used by MemoryStorage for durability.
+//
+// Records are framed as [int length][int crc32][body]; a zero length marks the end of the log and a
+// bad checksum marks a torn final write, which is dropped on recovery. The log lives in
+// journal-<generation>.dat. Compaction writes every live record to snapshot.tmp, renames it over
+// snapshot.dat (which names the next generation), and only then starts a new journal file, so a
+// crash at any point recovers either the old snapshot plus old journal or the new snapshot.
+public class Journal {
+
+    // handed each record body on recovery, in the order they were written
+    public interface RecordHandler {
+        void apply(byte[] body) throws IOException;
+    }
+
+    private static final int HEADER_BYTES = 8;
+
+    private final Path directory;
+    private final boolean sync;
+    private final int chunkBytes;
+
+    private long generation;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position;
+
+    public Journal(Path directory, boolean sync, int chunkBytes) {
+        this.directory = directory;
+        this.sync = sync;
+        this.chunkBytes = chunkBytes;
+    }
+
+    // replays the snapshot and then the current journal into the handler, and opens the journal for appends
+    public void open(RecordHandler handler) throws IOException {
+        Files.createDirectories(directory);
+        generation = 1;
+        Path snapshot = directory.resolve("snapshot.dat");
+        if (Files.exists(snapshot)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+                generation = in.readLong();
+                readRecords(in, handler);
+            }
+        }
+        deleteOlderJournals();
+
+        channel = FileChannel.open(journalPath(generation), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        map(Math.max(chunkBytes, roundUp(channel.size())));
+        position = 0;
+        while (position + HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_BYTES + length > buffer.capacity()) {
+                break;
+            }
+            int crc = buffer.getInt(position + 4);
+            byte[] body = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + HEADER_BYTES);
+            view.get(body);
+            if (crc != checksum(body)) {
+                // torn write from a crash, everything after it is garbage
+                break;
+            }
+            handler.apply(body);
+            position += HEADER_BYTES + length;
+        }
+        // clear whatever follows so a stale record can't reappear after the next write
+        if (position + HEADER_BYTES <= buffer.capacity()) {
+            buffer.putInt(position, 0);
+        }
+    }
+
+    public void append(byte[] body) throws IOException {
+        int needed = HEADER_BYTES + body.length + 4;
+        if (position + needed > buffer.capacity()) {
+            map(roundUp((long) buffer.capacity() * 2 + needed));
+        }
+        buffer.putInt(position + 4, checksum(body));
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + HEADER_BYTES);
+        view.put(body);
+        // terminator first, then the length that makes the record visible
+        buffer.putInt(position + HEADER_BYTES + body.length, 0);
+        buffer.putInt(position, body.length);
+        position += HEADER_BYTES + body.length;
+        if (sync) {
+            buffer.force();
+        }
+    }
+
+    public long size() {
+        return position;
+    }
+
+    // replaces the snapshot with the given records and starts an empty journal
+    public void compact(List<byte[]> records) throws IOException {
+        long next = generation + 1;
+        Path tmp = directory.resolve("snapshot.tmp");
+        try (OutputStream file = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeLong(next);
+            for (byte[] body : records) {
+                out.writeInt(body.length);
+                out.writeInt(checksum(body));
+                out.write(body);
+            }
+            out.writeInt(0);
+            out.flush();
+        }
+        try (FileChannel snapshotChannel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            snapshotChannel.force(true);
+        }
+        Files.move(tmp, directory.resolve("snapshot.dat"), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+
+        channel.close();
+        generation = next;
+        deleteOlderJournals();
+        channel = FileChannel.open(journalPath(generation), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        map(chunkBytes);
+        position = 0;
+        buffer.putInt(0, 0);
+    }
+
+    public void close() {
+        try {
+            if (buffer != null) {
+                buffer.force();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void readRecords(DataInputStream in, RecordHandler handler) throws IOException {
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            if (length <= 0) {
+                return;
+            }
+            int crc = in.readInt();
+            byte[] body = new byte[length];
+            in.readFully(body);
+            if (crc != checksum(body)) {
+                throw new IOException("Corrupt snapshot record");
+            }
+            handler.apply(body);
+        }
+    }
+
+    private void map(long bytes) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+    }
+
+    private long roundUp(long bytes) {
+        return (bytes + chunkBytes - 1) / chunkBytes * chunkBytes;
+    }
+
+    private Path journalPath(long gen) {
+        return directory.resolve("journal-" + gen + ".dat");
+    }
+
+    private void deleteOlderJournals() throws IOException {
+        try (DirectoryStream<Path> journals = Files.newDirectoryStream(directory, "journal-*.dat")) {
+            for (Path journal : journals) {
+                String name = journal.getFileName().toString();
+                long gen = Long.parseLong(name.substring("journal-".length(), name.length() - ".dat".length()));
+                if (gen < generation) {
+                    Files.delete(journal);
+                }
+            }
+        }
+    }
+
+    private static int checksum(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+}
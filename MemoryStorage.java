@@ -0,0 +1,903 @@
+package scheduler.db;
+
+import scheduler.model.Appointment;
+import scheduler.model.AvailabilityImporter;
+import scheduler.model.Caregiver;
+import scheduler.model.CaregiverSelector;
+import scheduler.model.DailyCounters;
+import scheduler.model.DayCounts;
+import scheduler.model.Patient;
+import scheduler.model.ReservationEngine;
+import scheduler.model.WaitlistEntry;
+import src.main.scheduler.util.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// In-process engine holding the five tables from create.sql, for single-node deployments and as a
+// fast local stand-in for the SQL database. Every change is written to the Journal as one record
+// before it is applied, and the same apply code rebuilds the tables on startup, so a reservation
+// or cancellation is all-or-nothing across the tables it touches.
+public class MemoryStorage implements Storage {
+
+    private static final int PAGE_SIZE = 1000;
+    private static final long COMPACT_BYTES = Util.getEnvInt("JournalCompactBytes", 64 * 1024 * 1024);
+
+    // journal record types
+    private static final byte PATIENT = 1;
+    private static final byte CAREGIVER = 2;
+    private static final byte AVAILABILITY = 3;
+    private static final byte VACCINE = 4;
+    private static final byte DOSES = 5;
+    private static final byte RESERVE = 6;
+    private static final byte CANCEL = 7;
+    // snapshot only: an appointment and the identity counter, without side effects
+    private static final byte APPOINTMENT = 8;
+    private static final byte NEXT_ID = 9;
+    private static final byte ARCHIVE = 10;
+    // snapshot only: the counters of one date, replacing whatever the records before it added up
+    private static final byte COUNTERS = 11;
+    private static final byte WAITLIST = 12;
+    private static final byte WAITLIST_REMOVE = 13;
+    // a RESERVE that also takes a waitlist entry off
+    private static final byte WAITLIST_RESERVE = 14;
+    // snapshot only: the waitlist's identity counter, which removed entries may have left above the rest
+    private static final byte NEXT_WAITLIST_ID = 15;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Journal journal;
+
+    // the tables
+    private final Map<String, Patient> patients = new HashMap<>();
+    private final Map<String, Caregiver> caregivers = new HashMap<>();
+    private final TreeMap<Integer, TreeSet<String>> availabilities = new TreeMap<>();
+    private final TreeMap<String, Integer> vaccines = new TreeMap<>();
+    private final TreeMap<Integer, Appointment> appointments = new TreeMap<>();
+    private final Map<String, TreeSet<Integer>> appointmentsByPatient = new HashMap<>();
+    private final Map<String, TreeSet<Integer>> appointmentsByCaregiver = new HashMap<>();
+    private int nextId = 1;
+    // per date: {offered, free} slots and appointments per vaccine, see DailyCounters
+    private final TreeMap<Integer, int[]> capacity = new TreeMap<>();
+    private final TreeMap<Integer, TreeMap<String, Integer>> bookings = new TreeMap<>();
+    // waiting patients by entry ID, see WaitlistMatcher
+    private final TreeMap<Integer, WaitlistEntry> waitlist = new TreeMap<>();
+    private int nextWaitlistId = 1;
+
+    public MemoryStorage(Path directory, boolean sync) throws IOException {
+        this.journal = new Journal(directory, sync, 16 * 1024 * 1024);
+        journal.open(this::apply);
+    }
+
+    @Override
+    public Patient getPatient(String username) {
+        lock.readLock().lock();
+        try {
+            return patients.get(username);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Caregiver getCaregiver(String username) {
+        lock.readLock().lock();
+        try {
+            return caregivers.get(username);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean patientExists(String username) {
+        return getPatient(username) != null;
+    }
+
+    @Override
+    public boolean caregiverExists(String username) {
+        return getCaregiver(username) != null;
+    }
+
+    @Override
+    public Set<String> findExistingPatients(Collection<String> usernames) {
+        return findExisting(patients, usernames);
+    }
+
+    @Override
+    public Set<String> findExistingCaregivers(Collection<String> usernames) {
+        return findExisting(caregivers, usernames);
+    }
+
+    private Set<String> findExisting(Map<String, ?> table, Collection<String> usernames) {
+        lock.readLock().lock();
+        try {
+            Set<String> existing = new HashSet<>();
+            for (String username : usernames) {
+                if (table.containsKey(username)) {
+                    existing.add(username);
+                }
+            }
+            return existing;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void savePatients(List<Patient> newPatients) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            for (Patient patient : newPatients) {
+                if (patients.containsKey(patient.getUsername())) {
+                    throw new SQLException("Duplicate patient " + patient.getUsername());
+                }
+            }
+            for (Patient patient : newPatients) {
+                write(PATIENT, out -> writeUser(out, patient.getUsername(), patient.getSalt(), patient.getHash()));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveCaregivers(List<Caregiver> newCaregivers) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            for (Caregiver caregiver : newCaregivers) {
+                if (caregivers.containsKey(caregiver.getUsername())) {
+                    throw new SQLException("Duplicate caregiver " + caregiver.getUsername());
+                }
+            }
+            for (Caregiver caregiver : newCaregivers) {
+                write(CAREGIVER, out ->
+                        writeUser(out, caregiver.getUsername(), caregiver.getSalt(), caregiver.getHash()));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void addAvailability(Date date, String caregiverUsername) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            if (!caregivers.containsKey(caregiverUsername)) {
+                throw new SQLException("Unknown caregiver " + caregiverUsername);
+            }
+            int day = toEpochDay(date);
+            if (isAvailable(day, caregiverUsername)) {
+                throw new SQLException("Availability already uploaded");
+            }
+            write(AVAILABILITY, out -> {
+                out.writeInt(day);
+                out.writeUTF(caregiverUsername);
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public AvailabilityImporter.ImportResult addAvailabilities(List<AvailabilityImporter.Slot> slots)
+            throws SQLException {
+        long start = System.nanoTime();
+        int inserted = 0;
+        lock.writeLock().lock();
+        try {
+            for (AvailabilityImporter.Slot slot : slots) {
+                if (!caregivers.containsKey(slot.getUsername())) {
+                    throw new SQLException("Unknown caregiver " + slot.getUsername());
+                }
+            }
+            for (AvailabilityImporter.Slot slot : slots) {
+                int day = toEpochDay(slot.getDate());
+                if (isAvailable(day, slot.getUsername())) {
+                    continue;
+                }
+                write(AVAILABILITY, out -> {
+                    out.writeInt(day);
+                    out.writeUTF(slot.getUsername());
+                });
+                inserted++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        return new AvailabilityImporter.ImportResult(slots.size(), inserted, Collections.singletonList(millis));
+    }
+
+    @Override
+    public List<String> getAvailableCaregivers(Date date) {
+        lock.readLock().lock();
+        try {
+            TreeSet<String> free = availabilities.get(toEpochDay(date));
+            return free == null ? Collections.emptyList() : new ArrayList<>(free);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEachAvailableCount(Date from, Date to, BiConsumer<Date, Integer> action) {
+        TreeMap<Integer, Integer> counts = new TreeMap<>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, TreeSet<String>> day : availabilities
+                    .subMap(toEpochDay(from), true, toEpochDay(to), true).entrySet()) {
+                counts.put(day.getKey(), day.getValue().size());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        counts.forEach((day, count) -> action.accept(toDate(day), count));
+    }
+
+    @Override
+    public Date getEarliestAvailableDate(Date notBefore) {
+        lock.readLock().lock();
+        try {
+            // days without caregivers are removed, so any key has a free caregiver
+            Integer day = availabilities.ceilingKey(toEpochDay(notBefore));
+            return day == null ? null : toDate(day);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Date> getDaysWithCaregivers(Date from, Date to, int minCaregivers) {
+        List<Date> days = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, TreeSet<String>> day : availabilities
+                    .subMap(toEpochDay(from), true, toEpochDay(to), true).entrySet()) {
+                if (day.getValue().size() >= minCaregivers) {
+                    days.add(toDate(day.getKey()));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return days;
+    }
+
+    @Override
+    public List<String> getCaregiversFreeOnAll(Collection<Date> dates) {
+        lock.readLock().lock();
+        try {
+            TreeSet<String> all = null;
+            for (Date date : dates) {
+                TreeSet<String> free = availabilities.get(toEpochDay(date));
+                if (free == null) {
+                    return Collections.emptyList();
+                }
+                if (all == null) {
+                    all = new TreeSet<>(free);
+                } else {
+                    all.retainAll(free);
+                }
+            }
+            return all == null ? Collections.emptyList() : new ArrayList<>(all);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Integer getDoses(String vaccineName) {
+        lock.readLock().lock();
+        try {
+            return vaccines.get(vaccineName);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Integer> getVaccines() {
+        lock.readLock().lock();
+        try {
+            return new TreeMap<>(vaccines);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void addVaccine(String vaccineName, int doses) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            if (vaccines.containsKey(vaccineName)) {
+                throw new SQLException("Duplicate vaccine " + vaccineName);
+            }
+            write(VACCINE, out -> {
+                out.writeUTF(vaccineName);
+                out.writeInt(doses);
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void addDoses(String vaccineName, int doses) throws SQLException {
+        changeDoses(vaccineName, doses);
+    }
+
+    @Override
+    public boolean removeDoses(String vaccineName, int doses) throws SQLException {
+        return changeDoses(vaccineName, -doses);
+    }
+
+    private boolean changeDoses(String vaccineName, int delta) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            Integer current = vaccines.get(vaccineName);
+            if (current == null || current + delta < 0) {
+                return false;
+            }
+            write(DOSES, out -> {
+                out.writeUTF(vaccineName);
+                out.writeInt(delta);
+            });
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public ReservationEngine.Reservation reserve(String patientUsername, Date date, String vaccineName)
+            throws SQLException {
+        return reserve(patientUsername, date, vaccineName, 0);
+    }
+
+    // waitlistId 0 for a reservation that is not from the waitlist
+    private ReservationEngine.Reservation reserve(String patientUsername, Date date, String vaccineName,
+                                                  int waitlistId) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            if (waitlistId > 0 && !waitlist.containsKey(waitlistId)) {
+                return new ReservationEngine.Reservation(ReservationEngine.Status.NOT_WAITING, -1, null);
+            }
+            int day = toEpochDay(date);
+            TreeSet<String> free = availabilities.get(day);
+            if (free == null || free.isEmpty()) {
+                return new ReservationEngine.Reservation(ReservationEngine.Status.NO_CAREGIVER, -1, null);
+            }
+            Integer doses = vaccines.get(vaccineName);
+            if (doses == null || doses <= 0) {
+                return new ReservationEngine.Reservation(ReservationEngine.Status.NO_DOSES, -1, null);
+            }
+            if (!patients.containsKey(patientUsername)) {
+                throw new SQLException("Unknown patient " + patientUsername);
+            }
+            // the appointment count is exact here, no need for the selector's counters
+            String caregiver = CaregiverSelector.getInstance().order(new ArrayList<>(free),
+                    this::countAppointments).get(0);
+            int id = nextId;
+            if (waitlistId > 0) {
+                write(WAITLIST_RESERVE, out -> {
+                    out.writeInt(waitlistId);
+                    writeAppointment(out, id, day, vaccineName, patientUsername, caregiver);
+                });
+            } else {
+                write(RESERVE, out -> writeAppointment(out, id, day, vaccineName, patientUsername, caregiver));
+            }
+            return new ReservationEngine.Reservation(ReservationEngine.Status.RESERVED, id, caregiver);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean cancel(int appointmentId, String username, boolean isCaregiver) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            Appointment appointment = appointments.get(appointmentId);
+            if (appointment == null) {
+                return false;
+            }
+            String owner = isCaregiver ? appointment.getCaregiverUsername() : appointment.getPatientUsername();
+            if (!owner.equals(username)) {
+                return false;
+            }
+            write(CANCEL, out -> out.writeInt(appointmentId));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int addToWaitlist(String patientUsername, Date from, Date to, String vaccineName) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            if (!patients.containsKey(patientUsername)) {
+                throw new SQLException("Unknown patient " + patientUsername);
+            }
+            int id = nextWaitlistId;
+            write(WAITLIST, out -> writeWaitlistEntry(out, id, patientUsername, toEpochDay(from), toEpochDay(to),
+                    vaccineName));
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<WaitlistEntry> getWaitlist(int afterId, int limit) {
+        List<WaitlistEntry> entries = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (WaitlistEntry entry : waitlist.tailMap(afterId, false).values()) {
+                if (entries.size() == limit) {
+                    break;
+                }
+                entries.add(entry);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return entries;
+    }
+
+    @Override
+    public boolean removeFromWaitlist(int id) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            if (!waitlist.containsKey(id)) {
+                return false;
+            }
+            write(WAITLIST_REMOVE, out -> out.writeInt(id));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public ReservationEngine.Reservation reserveWaitlisted(WaitlistEntry entry, Date date) throws SQLException {
+        return reserve(entry.getPatientUsername(), date, entry.getVaccineName(), entry.getId());
+    }
+
+    @Override
+    public void forEachAppointment(AppointmentQuery query, Consumer<Appointment> action) {
+        int remaining = query.getLimit() > 0 ? query.getLimit() : Integer.MAX_VALUE;
+        int after = query.getAfterId();
+        // read in pages so neither a long history nor slow output holds the lock or the whole list
+        while (remaining > 0) {
+            List<Appointment> page = new ArrayList<>();
+            int pageSize = Math.min(remaining, PAGE_SIZE);
+            boolean more = false;
+            lock.readLock().lock();
+            try {
+                TreeSet<Integer> ids = (query.isCaregiver() ? appointmentsByCaregiver : appointmentsByPatient)
+                        .get(query.getUsername());
+                if (ids != null) {
+                    for (int id : ids.tailSet(after, false)) {
+                        if (page.size() == pageSize) {
+                            more = true;
+                            break;
+                        }
+                        Appointment appointment = appointments.get(id);
+                        if (query.includes(appointment.getTime())) {
+                            page.add(appointment);
+                        }
+                        after = id;
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            page.forEach(action);
+            remaining -= page.size();
+            if (!more) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public List<DayCounts> getDayCounts(Date from, Date to) {
+        TreeMap<Date, int[]> slots = new TreeMap<>();
+        TreeMap<Date, Map<String, Integer>> booked = new TreeMap<>();
+        lock.readLock().lock();
+        try {
+            int first = toEpochDay(from);
+            int last = toEpochDay(to);
+            for (Map.Entry<Integer, int[]> day : capacity.subMap(first, true, last, true).entrySet()) {
+                slots.put(toDate(day.getKey()), day.getValue().clone());
+            }
+            for (Map.Entry<Integer, TreeMap<String, Integer>> day : bookings.subMap(first, true, last, true)
+                    .entrySet()) {
+                Map<String, Integer> counts = new TreeMap<>(day.getValue());
+                counts.values().removeIf(count -> count == 0);
+                if (!counts.isEmpty()) {
+                    booked.put(toDate(day.getKey()), counts);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return DailyCounters.combine(slots, booked);
+    }
+
+    @Override
+    public Date getFirstAppointmentDate() {
+        lock.readLock().lock();
+        try {
+            Date first = null;
+            for (Appointment appointment : appointments.values()) {
+                if (first == null || appointment.getTime().before(first)) {
+                    first = appointment.getTime();
+                }
+            }
+            return first;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEachAppointmentBetween(Date from, Date to, Consumer<Appointment> action) {
+        List<Appointment> between = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Appointment appointment : appointments.values()) {
+                if (!appointment.getTime().before(from) && appointment.getTime().before(to)) {
+                    between.add(appointment);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        between.forEach(action);
+    }
+
+    @Override
+    public int deleteAppointments(Date from, Date to, int limit) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            List<Integer> ids = new ArrayList<>();
+            for (Appointment appointment : appointments.values()) {
+                if (ids.size() == limit) {
+                    break;
+                }
+                if (!appointment.getTime().before(from) && appointment.getTime().before(to)) {
+                    ids.add(appointment.getId());
+                }
+            }
+            if (ids.isEmpty()) {
+                return 0;
+            }
+            write(ARCHIVE, out -> {
+                out.writeInt(ids.size());
+                for (int id : ids) {
+                    out.writeInt(id);
+                }
+            });
+            return ids.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            journal.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // journals one record and applies it, must be called with the write lock held
+    private void write(byte type, RecordWriter writer) throws SQLException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            writer.write(out);
+            byte[] body = bytes.toByteArray();
+            journal.append(body);
+            apply(body);
+            if (journal.size() > COMPACT_BYTES) {
+                journal.compact(snapshot());
+            }
+        } catch (IOException e) {
+            throw new SQLException("Journal write failed: " + e.getMessage());
+        }
+    }
+
+    private void apply(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        byte type = in.readByte();
+        switch (type) {
+            case PATIENT: {
+                String username = in.readUTF();
+                patients.put(username, new Patient.PatientBuilder(username, readBytes(in), readBytes(in)).build());
+                break;
+            }
+            case CAREGIVER: {
+                String username = in.readUTF();
+                caregivers.put(username,
+                        new Caregiver.CaregiverBuilder(username, readBytes(in), readBytes(in)).build());
+                break;
+            }
+            case AVAILABILITY: {
+                int day = in.readInt();
+                availabilities.computeIfAbsent(day, d -> new TreeSet<>()).add(in.readUTF());
+                addCapacity(day, 1, 1);
+                break;
+            }
+            case VACCINE:
+                vaccines.put(in.readUTF(), in.readInt());
+                break;
+            case DOSES:
+                vaccines.merge(in.readUTF(), in.readInt(), Integer::sum);
+                break;
+            case RESERVE:
+                book(readAppointment(in));
+                break;
+            case WAITLIST_RESERVE:
+                waitlist.remove(in.readInt());
+                book(readAppointment(in));
+                break;
+            case CANCEL: {
+                Appointment appointment = removeAppointment(in.readInt());
+                if (appointment != null) {
+                    vaccines.merge(appointment.getVaccineName(), 1, Integer::sum);
+                    int day = toEpochDay(appointment.getTime());
+                    if (availabilities.computeIfAbsent(day, d -> new TreeSet<>())
+                            .add(appointment.getCaregiverUsername())) {
+                        addCapacity(day, 0, 1);
+                    }
+                    addBooking(day, appointment.getVaccineName(), -1);
+                }
+                break;
+            }
+            case APPOINTMENT:
+                addAppointment(readAppointment(in));
+                break;
+            case ARCHIVE: {
+                // moved to AppointmentArchive, the slot and dose stay used
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    removeAppointment(in.readInt());
+                }
+                break;
+            }
+            case NEXT_ID:
+                nextId = in.readInt();
+                break;
+            case COUNTERS: {
+                int day = in.readInt();
+                capacity.put(day, new int[]{in.readInt(), in.readInt()});
+                TreeMap<String, Integer> booked = new TreeMap<>();
+                int vaccineCount = in.readInt();
+                for (int i = 0; i < vaccineCount; i++) {
+                    booked.put(in.readUTF(), in.readInt());
+                }
+                bookings.put(day, booked);
+                break;
+            }
+            case WAITLIST: {
+                WaitlistEntry entry = readWaitlistEntry(in);
+                waitlist.put(entry.getId(), entry);
+                nextWaitlistId = Math.max(nextWaitlistId, entry.getId() + 1);
+                break;
+            }
+            case WAITLIST_REMOVE:
+                waitlist.remove(in.readInt());
+                break;
+            case NEXT_WAITLIST_ID:
+                nextWaitlistId = Math.max(nextWaitlistId, in.readInt());
+                break;
+            default:
+                throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    // every live row as records, written as the snapshot when the journal is compacted
+    private List<byte[]> snapshot() throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        for (Patient patient : patients.values()) {
+            records.add(record(PATIENT, out -> writeUser(out, patient.getUsername(), patient.getSalt(),
+                    patient.getHash())));
+        }
+        for (Caregiver caregiver : caregivers.values()) {
+            records.add(record(CAREGIVER, out -> writeUser(out, caregiver.getUsername(), caregiver.getSalt(),
+                    caregiver.getHash())));
+        }
+        for (Map.Entry<String, Integer> vaccine : vaccines.entrySet()) {
+            records.add(record(VACCINE, out -> {
+                out.writeUTF(vaccine.getKey());
+                out.writeInt(vaccine.getValue());
+            }));
+        }
+        for (Map.Entry<Integer, TreeSet<String>> day : availabilities.entrySet()) {
+            for (String caregiver : day.getValue()) {
+                records.add(record(AVAILABILITY, out -> {
+                    out.writeInt(day.getKey());
+                    out.writeUTF(caregiver);
+                }));
+            }
+        }
+        for (Appointment a : appointments.values()) {
+            records.add(record(APPOINTMENT, out -> writeAppointment(out, a.getId(), toEpochDay(a.getTime()),
+                    a.getVaccineName(), a.getPatientUsername(), a.getCaregiverUsername())));
+        }
+        records.add(record(NEXT_ID, out -> out.writeInt(nextId)));
+        for (WaitlistEntry entry : waitlist.values()) {
+            records.add(record(WAITLIST, out -> writeWaitlistEntry(out, entry.getId(), entry.getPatientUsername(),
+                    toEpochDay(entry.getFrom()), toEpochDay(entry.getTo()), entry.getVaccineName())));
+        }
+        records.add(record(NEXT_WAITLIST_ID, out -> out.writeInt(nextWaitlistId)));
+        // last, so they replace the counts the availability records above add up on replay
+        Set<Integer> days = new TreeSet<>(capacity.keySet());
+        days.addAll(bookings.keySet());
+        for (int day : days) {
+            int[] slots = capacity.getOrDefault(day, new int[2]);
+            Map<String, Integer> booked = bookings.getOrDefault(day, new TreeMap<>());
+            records.add(record(COUNTERS, out -> {
+                out.writeInt(day);
+                out.writeInt(slots[0]);
+                out.writeInt(slots[1]);
+                out.writeInt(booked.size());
+                for (Map.Entry<String, Integer> vaccine : booked.entrySet()) {
+                    out.writeUTF(vaccine.getKey());
+                    out.writeInt(vaccine.getValue());
+                }
+            }));
+        }
+        return records;
+    }
+
+    private static byte[] record(byte type, RecordWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        writer.write(out);
+        return bytes.toByteArray();
+    }
+
+    // a reservation: the slot and a dose are used up by the new appointment
+    private void book(Appointment appointment) {
+        int day = toEpochDay(appointment.getTime());
+        removeAvailability(day, appointment.getCaregiverUsername());
+        vaccines.merge(appointment.getVaccineName(), -1, Integer::sum);
+        addAppointment(appointment);
+        addCapacity(day, 0, -1);
+        addBooking(day, appointment.getVaccineName(), 1);
+    }
+
+    private void addAppointment(Appointment appointment) {
+        appointments.put(appointment.getId(), appointment);
+        appointmentsByPatient.computeIfAbsent(appointment.getPatientUsername(), u -> new TreeSet<>())
+                .add(appointment.getId());
+        appointmentsByCaregiver.computeIfAbsent(appointment.getCaregiverUsername(), u -> new TreeSet<>())
+                .add(appointment.getId());
+        nextId = Math.max(nextId, appointment.getId() + 1);
+    }
+
+    private void addCapacity(int day, int offered, int free) {
+        int[] slots = capacity.computeIfAbsent(day, d -> new int[2]);
+        slots[0] += offered;
+        slots[1] += free;
+    }
+
+    private void addBooking(int day, String vaccineName, int booked) {
+        bookings.computeIfAbsent(day, d -> new TreeMap<>()).merge(vaccineName, booked, Integer::sum);
+    }
+
+    private Appointment removeAppointment(int id) {
+        Appointment appointment = appointments.remove(id);
+        if (appointment != null) {
+            appointmentsByPatient.get(appointment.getPatientUsername()).remove(id);
+            appointmentsByCaregiver.get(appointment.getCaregiverUsername()).remove(id);
+        }
+        return appointment;
+    }
+
+    private void removeAvailability(int day, String caregiver) {
+        TreeSet<String> free = availabilities.get(day);
+        if (free != null) {
+            free.remove(caregiver);
+            if (free.isEmpty()) {
+                availabilities.remove(day);
+            }
+        }
+    }
+
+    private int countAppointments(String caregiver) {
+        TreeSet<Integer> ids = appointmentsByCaregiver.get(caregiver);
+        return ids == null ? 0 : ids.size();
+    }
+
+    private boolean isAvailable(int day, String caregiver) {
+        TreeSet<String> free = availabilities.get(day);
+        return free != null && free.contains(caregiver);
+    }
+
+    private static void writeUser(DataOutputStream out, String username, byte[] salt, byte[] hash)
+            throws IOException {
+        out.writeUTF(username);
+        out.writeShort(salt.length);
+        out.write(salt);
+        out.writeShort(hash.length);
+        out.write(hash);
+    }
+
+    private static void writeAppointment(DataOutputStream out, int id, int day, String vaccineName,
+                                         String patientUsername, String caregiverUsername) throws IOException {
+        out.writeInt(id);
+        out.writeInt(day);
+        out.writeUTF(vaccineName);
+        out.writeUTF(patientUsername);
+        out.writeUTF(caregiverUsername);
+    }
+
+    private static Appointment readAppointment(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        Date time = Date.valueOf(java.time.LocalDate.ofEpochDay(in.readInt()));
+        return new Appointment(id, time, in.readUTF(), in.readUTF(), in.readUTF());
+    }
+
+    private static void writeWaitlistEntry(DataOutputStream out, int id, String patientUsername, int fromDay,
+                                           int toDay, String vaccineName) throws IOException {
+        out.writeInt(id);
+        out.writeUTF(patientUsername);
+        out.writeInt(fromDay);
+        out.writeInt(toDay);
+        out.writeUTF(vaccineName);
+    }
+
+    private static WaitlistEntry readWaitlistEntry(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        String patientUsername = in.readUTF();
+        Date from = toDate(in.readInt());
+        Date to = toDate(in.readInt());
+        return new WaitlistEntry(id, patientUsername, from, to, in.readUTF());
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static Date toDate(int epochDay) {
+        return Date.valueOf(java.time.LocalDate.ofEpochDay(epochDay));
+    }
+
+    private static int toEpochDay(Date date) {
+        return (int) date.toLocalDate().toEpochDay();
+    }
+}
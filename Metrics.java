@@ -0,0 +1,206 @@
+package src.main.scheduler.util;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Where the time goes: a latency histogram per command, and counters for connections, statements,
+// rows and password hashing. Statement and hashing time is also charged to the command running on
+// the current thread, so each command shows how much of its latency was spent waiting on the
+// database and how much on PBKDF2. Published over JMX as scheduler:type=Metrics and printed by the
+// stats command.
+public class Metrics implements MetricsMBean {
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    static {
+        if (Util.getEnvBoolean("Jmx", true)) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE,
+                        new ObjectName("scheduler:type=Metrics"));
+            } catch (Exception e) {
+                System.out.println("Could not register metrics with JMX: " + e.getMessage());
+            }
+        }
+    }
+
+    // database and hashing nanoseconds of the command running on this thread
+    private static final ThreadLocal<long[]> CURRENT = ThreadLocal.withInitial(() -> new long[2]);
+
+    private final Map<String, CommandStats> commands = new ConcurrentHashMap<>();
+    private final LongAdder connectionsBorrowed = new LongAdder();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LatencyHistogram statements = new LatencyHistogram();
+    private final LongAdder rowsRead = new LongAdder();
+    private final LatencyHistogram hashes = new LatencyHistogram();
+    // from a reservation's log append to the commit of its row, see AppointmentWriteBehind
+    private final LatencyHistogram writeBehindLag = new LatencyHistogram();
+
+    private Metrics() {
+    }
+
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    // call before running a command, pass the result to endCommand
+    public long startCommand() {
+        long[] current = CURRENT.get();
+        current[0] = 0;
+        current[1] = 0;
+        return System.nanoTime();
+    }
+
+    public void endCommand(String command, long start) {
+        long elapsed = System.nanoTime() - start;
+        long[] current = CURRENT.get();
+        CommandStats stats = commands.computeIfAbsent(command, c -> new CommandStats());
+        stats.latency.record(elapsed);
+        stats.statementNanos.add(current[0]);
+        stats.hashNanos.add(current[1]);
+    }
+
+    // a connection handed to a caller, pooled or not
+    public void recordConnectionBorrowed() {
+        connectionsBorrowed.increment();
+    }
+
+    // a new physical connection to the database
+    public void recordConnectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    public void recordStatement(long nanos) {
+        statements.record(nanos);
+        CURRENT.get()[0] += nanos;
+    }
+
+    public void recordRows(long rows) {
+        rowsRead.add(rows);
+    }
+
+    public void recordHash(long nanos) {
+        hashes.record(nanos);
+        CURRENT.get()[1] += nanos;
+    }
+
+    public void recordWriteBehindLag(long nanos) {
+        writeBehindLag.record(nanos);
+    }
+
+    @Override
+    public long getCommandCount() {
+        long total = 0;
+        for (CommandStats stats : commands.values()) {
+            total += stats.latency.getCount();
+        }
+        return total;
+    }
+
+    @Override
+    public long getConnectionsBorrowed() {
+        return connectionsBorrowed.sum();
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return statements.getCount();
+    }
+
+    @Override
+    public long getRowsRead() {
+        return rowsRead.sum();
+    }
+
+    @Override
+    public double getStatementMillis() {
+        return statements.getTotalNanos() / 1e6;
+    }
+
+    @Override
+    public double getHashMillis() {
+        return hashes.getTotalNanos() / 1e6;
+    }
+
+    @Override
+    public String[] getCommandSummaries() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, CommandStats> entry : new TreeMap<>(commands).entrySet()) {
+            lines.add(entry.getValue().summary(entry.getKey()));
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public double getLatencyMillis(String command, double percentile) {
+        CommandStats stats = commands.get(command);
+        return stats == null ? 0 : stats.latency.getPercentileNanos(percentile) / 1e6;
+    }
+
+    @Override
+    public double getWriteBehindLagMillis(double percentile) {
+        return writeBehindLag.getPercentileNanos(percentile) / 1e6;
+    }
+
+    @Override
+    public void reset() {
+        commands.clear();
+        connectionsBorrowed.reset();
+        connectionsOpened.reset();
+        statements.reset();
+        rowsRead.reset();
+        hashes.reset();
+        writeBehindLag.reset();
+    }
+
+    // everything the stats command prints
+    public List<String> report() {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("%-26s %8s %9s %9s %9s %9s %6s %6s",
+                "command", "count", "p50 ms", "p90 ms", "p99 ms", "max ms", "db%", "hash%"));
+        for (String line : getCommandSummaries()) {
+            lines.add(line);
+        }
+        lines.add(String.format("connections: %d borrowed, %d opened", getConnectionsBorrowed(),
+                getConnectionsOpened()));
+        lines.add(String.format("statements: %d executed, %d rows read, p50 %.3f ms, p99 %.3f ms",
+                getStatementsExecuted(), getRowsRead(), statements.getPercentileNanos(50) / 1e6,
+                statements.getPercentileNanos(99) / 1e6));
+        lines.add(String.format("password hashes: %d, p50 %.3f ms, p99 %.3f ms", hashes.getCount(),
+                hashes.getPercentileNanos(50) / 1e6, hashes.getPercentileNanos(99) / 1e6));
+        if (writeBehindLag.getCount() > 0) {
+            lines.add(String.format("write-behind lag: %d appointments, p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+                    writeBehindLag.getCount(), writeBehindLag.getPercentileNanos(50) / 1e6,
+                    writeBehindLag.getPercentileNanos(99) / 1e6, writeBehindLag.getMaxNanos() / 1e6));
+        }
+        return lines;
+    }
+
+    private static class CommandStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder statementNanos = new LongAdder();
+        private final LongAdder hashNanos = new LongAdder();
+
+        private String summary(String command) {
+            long total = latency.getTotalNanos();
+            return String.format("%-26s %8d %9.3f %9.3f %9.3f %9.3f %6.1f %6.1f", command, latency.getCount(),
+                    latency.getPercentileNanos(50) / 1e6, latency.getPercentileNanos(90) / 1e6,
+                    latency.getPercentileNanos(99) / 1e6, latency.getMaxNanos() / 1e6,
+                    share(statementNanos.sum(), total), share(hashNanos.sum(), total));
+        }
+
+        private static double share(long part, long total) {
+            return total == 0 ? 0 : Math.min(100, 100.0 * part / total);
+        }
+    }
+}
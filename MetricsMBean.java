@@ -0,0 +1,29 @@
+package src.main.scheduler.util;
+
+// What Metrics exposes over JMX, under scheduler:type=Metrics
+public interface MetricsMBean {
+
+    long getCommandCount();
+
+    long getConnectionsBorrowed();
+
+    long getConnectionsOpened();
+
+    long getStatementsExecuted();
+
+    long getRowsRead();
+
+    double getStatementMillis();
+
+    double getHashMillis();
+
+    // one line per command, in the same format as the stats command
+    String[] getCommandSummaries();
+
+    double getLatencyMillis(String command, double percentile);
+
+    // time from a reserve returning to its appointment row being committed
+    double getWriteBehindLagMillis(double percentile);
+
+    void reset();
+}
@@ -0,0 +1,184 @@
+package scheduler.db;
+
+import src.main.scheduler.util.Util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Brings the SQL Server database up to the newest schema version. Versions are recorded in the
+// SchemaVersion table. An empty database gets create.sql, which is the whole schema at its newest
+// version. A database made with the original create.sql, which has no SchemaVersion table, counts
+// as version 1. After that every migrate_<version>_<name>.sql newer than the database runs in order,
+// each in its own transaction together with its SchemaVersion row.
+// usage: java scheduler.db.MigrationRunner [directory]   (or java Scheduler --migrate [directory])
+//
+// Statements are separated by ';' like SchedulerBenchmark splits create.sql. Afterwards the DateMonthly
+// partition function gets a boundary for every month up to PartitionMonthsAhead (default 12) from now,
+// so run this again from time to time to keep new dates out of the last partition.
+public class MigrationRunner {
+
+    private static final Pattern MIGRATION = Pattern.compile("migrate_(\\d+)_(\\w+)\\.sql");
+    private static final int MONTHS_AHEAD = Util.getEnvInt("PartitionMonthsAhead", 12);
+
+    private final Path directory;
+
+    public MigrationRunner(Path directory) {
+        this.directory = directory;
+    }
+
+    public static void main(String[] args) {
+        if (args.length > 1) {
+            System.out.println("usage: java scheduler.db.MigrationRunner [directory]");
+            return;
+        }
+        MigrationRunner runner = new MigrationRunner(Paths.get(args.length == 1 ? args[0] : "."));
+        try {
+            int version = runner.migrate();
+            System.out.println("Schema is at version " + version);
+        } catch (IOException | SQLException e) {
+            System.out.println("Migration failed: " + e.getMessage());
+        }
+    }
+
+    // returns the version the database is at afterwards
+    public int migrate() throws IOException, SQLException {
+        try (Connection con = ConnectionManager.openPhysicalConnection()) {
+            int version = currentVersion(con);
+            for (Map.Entry<Integer, Path> migration : migrations().entrySet()) {
+                if (migration.getKey() <= version) {
+                    continue;
+                }
+                System.out.println("Applying " + migration.getValue().getFileName());
+                apply(con, migration.getKey(), migration.getValue().getFileName().toString(),
+                        statements(migration.getValue()));
+                version = migration.getKey();
+                // before the next migration moves rows onto the partitions
+                addPartitions(con);
+            }
+            addPartitions(con);
+            return version;
+        }
+    }
+
+    private int currentVersion(Connection con) throws IOException, SQLException {
+        if (tableExists(con, "SchemaVersion")) {
+            try (Statement statement = con.createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT MAX(Version) FROM SchemaVersion")) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+        if (tableExists(con, "Caregivers")) {
+            // made by the original create.sql before versions were recorded
+            apply(con, 1, "baseline", List.of("CREATE TABLE SchemaVersion (Version int, Description varchar(255), "
+                    + "AppliedAt datetime DEFAULT CURRENT_TIMESTAMP, PRIMARY KEY (Version))"));
+            return 1;
+        }
+        System.out.println("Creating the schema from create.sql");
+        // create.sql records its own version
+        apply(con, 0, null, statements(directory.resolve("create.sql")));
+        return currentVersion(con);
+    }
+
+    // runs the statements and records the version in one transaction, description null records nothing
+    private static void apply(Connection con, int version, String description, List<String> statements)
+            throws SQLException {
+        con.setAutoCommit(false);
+        try {
+            try (Statement statement = con.createStatement()) {
+                for (String sql : statements) {
+                    statement.execute(sql);
+                }
+            }
+            if (description != null) {
+                try (PreparedStatement record = con.prepareStatement(
+                        "INSERT INTO SchemaVersion (Version, Description) VALUES (?, ?)")) {
+                    record.setInt(1, version);
+                    record.setString(2, description);
+                    record.executeUpdate();
+                }
+            }
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(true);
+        }
+    }
+
+    // splits a new month off the last partition until the boundaries reach MONTHS_AHEAD from now
+    private static void addPartitions(Connection con) throws SQLException {
+        LocalDate last;
+        String boundaries = "SELECT MAX(CAST(v.value AS date)) FROM sys.partition_range_values v "
+                + "JOIN sys.partition_functions f ON v.function_id = f.function_id WHERE f.name = 'DateMonthly'";
+        try (Statement statement = con.createStatement(); ResultSet rs = statement.executeQuery(boundaries)) {
+            if (!rs.next() || rs.getDate(1) == null) {
+                // not partitioned yet
+                return;
+            }
+            last = rs.getDate(1).toLocalDate();
+        }
+        LocalDate until = LocalDate.now().withDayOfMonth(1).plusMonths(MONTHS_AHEAD);
+        int added = 0;
+        try (Statement statement = con.createStatement()) {
+            for (LocalDate next = last.plusMonths(1); !next.isAfter(until); next = next.plusMonths(1)) {
+                statement.execute("ALTER PARTITION SCHEME DateMonthlyScheme NEXT USED [PRIMARY]");
+                statement.execute("ALTER PARTITION FUNCTION DateMonthly() SPLIT RANGE ('" + next + "')");
+                added++;
+            }
+        }
+        if (added > 0) {
+            System.out.println("Added " + added + " monthly partitions up to " + until);
+        }
+    }
+
+    private static boolean tableExists(Connection con, String table) throws SQLException {
+        try (ResultSet rs = con.getMetaData().getTables(null, null, table, new String[]{"TABLE"})) {
+            return rs.next();
+        }
+    }
+
+    private TreeMap<Integer, Path> migrations() throws IOException {
+        TreeMap<Integer, Path> migrations = new TreeMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher matcher = MIGRATION.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                Path previous = migrations.put(Integer.parseInt(matcher.group(1)), file);
+                if (previous != null) {
+                    throw new IOException("Two migrations with version " + matcher.group(1) + ": "
+                            + previous.getFileName() + " and " + file.getFileName());
+                }
+            }
+        }
+        return migrations;
+    }
+
+    static List<String> statements(Path file) throws IOException {
+        List<String> statements = new ArrayList<>();
+        for (String sql : new String(Files.readAllBytes(file)).split(";")) {
+            if (!sql.trim().isEmpty()) {
+                statements.add(sql);
+            }
+        }
+        return statements;
+    }
+}
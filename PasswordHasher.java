@@ -0,0 +1,171 @@
+package src.main.scheduler.util;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// PBKDF2 password hashing with reusable per-thread key factories and one shared RNG.
+//
+// Hashes are versioned so the iteration count can change without breaking existing accounts.
+// The Hash column is BINARY(16), so a version 2 hash is laid out as
+//   [0] version (2)   [1] cost, iterations = 2^cost   [2..15] 112-bit PBKDF2-HMAC-SHA1 key
+// Anything 2 bytes or shorter (after Util.trim) is an original hash: 10 iterations, 16-bit key.
+//
+// Interactive logins and account creation go through a small bounded executor so that a flood of
+// them queues (and is eventually rejected) instead of taking every core away from other commands.
+public class PasswordHasher {
+
+    public static final byte VERSION = 2;
+    private static final int LEGACY_ITERATIONS = 10;
+    private static final int LEGACY_KEY_BITS = 16;
+    private static final int HASH_BYTES = 16;
+    private static final int KEY_BITS = (HASH_BYTES - 2) * 8;
+    private static final int SALT_BYTES = 16;
+
+    private static final int DEFAULT_COST = Util.getEnvInt("HashCost", 12);
+    private static final int HASH_THREADS = Util.getEnvInt("HashThreads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int HASH_QUEUE = Util.getEnvInt("HashQueue", 256);
+
+    // SecureRandom is thread-safe, seeding one per salt is the expensive part
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ThreadLocal<SecretKeyFactory> FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final ThreadPoolExecutor EXECUTOR = newExecutor();
+    private static final AtomicInteger REJECTED = new AtomicInteger();
+
+    public static byte[] newSalt() {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    // a current-version hash at the configured cost
+    public static byte[] hash(String password, byte[] salt) {
+        return hash(password, salt, DEFAULT_COST);
+    }
+
+    public static byte[] hash(String password, byte[] salt, int cost) {
+        if (cost < 1 || cost > 30) {
+            throw new IllegalArgumentException("Hash cost must be between 1 and 30");
+        }
+        byte[] key = derive(password, salt, 1 << cost, KEY_BITS);
+        byte[] hash = new byte[HASH_BYTES];
+        hash[0] = VERSION;
+        hash[1] = (byte) cost;
+        System.arraycopy(key, 0, hash, 2, key.length);
+        return hash;
+    }
+
+    // the original format, still produced by Util.generateHash
+    public static byte[] legacyHash(String password, byte[] salt) {
+        return derive(password, salt, LEGACY_ITERATIONS, LEGACY_KEY_BITS);
+    }
+
+    // checks a password against a stored hash of any version, trailing zero padding is ignored
+    public static boolean verify(String password, byte[] salt, byte[] storedHash) {
+        byte[] stored = Util.trim(storedHash);
+        byte[] calculated;
+        if (stored.length > 2 && stored[0] == VERSION) {
+            calculated = hash(password, salt, stored[1]);
+        } else {
+            calculated = legacyHash(password, salt);
+        }
+        return MessageDigest.isEqual(stored, Util.trim(calculated));
+    }
+
+    public static byte[] hashBounded(String password, byte[] salt) {
+        return runBounded(() -> hash(password, salt));
+    }
+
+    public static boolean verifyBounded(String password, byte[] salt, byte[] storedHash) {
+        return runBounded(() -> verify(password, salt, storedHash));
+    }
+
+    public static int getDefaultCost() {
+        return DEFAULT_COST;
+    }
+
+    public static int getQueuedCount() {
+        return EXECUTOR.getQueue().size();
+    }
+
+    public static long getRejectedCount() {
+        return REJECTED.get();
+    }
+
+    static byte[] derive(String password, byte[] salt, int iterations, int keyBits) {
+        JfrEvents.HashEvent event = new JfrEvents.HashEvent();
+        event.begin();
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, keyBits);
+        try {
+            return FACTORY.get().generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException e) {
+            throw new IllegalStateException();
+        } finally {
+            spec.clearPassword();
+            event.end();
+            if (event.shouldCommit()) {
+                event.iterations = iterations;
+                event.keyBits = keyBits;
+                event.commit();
+            }
+        }
+    }
+
+    // runs on the hashing executor and waits, throwing IllegalStateException if it is saturated
+    private static <T> T runBounded(Callable<T> task) {
+        long start = System.nanoTime();
+        Future<T> future;
+        try {
+            future = EXECUTOR.submit(task);
+        } catch (RejectedExecutionException e) {
+            REJECTED.incrementAndGet();
+            throw new IllegalStateException("Too many password checks in progress, try again later");
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            // includes time queued behind other hashes, which is what the caller waits for
+            Metrics.getInstance().recordHash(System.nanoTime() - start);
+        }
+    }
+
+    private static ThreadPoolExecutor newExecutor() {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(HASH_THREADS, HASH_THREADS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(HASH_QUEUE), r -> {
+                    Thread t = new Thread(r, "password-hasher-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,65 @@
+package src.main.scheduler.util;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Hashes per second for each hashing configuration: the original lookup-per-call path, the cached
+// legacy path, and version 2 hashes at a few costs, on 1 thread and on every core.
+// usage: java src.main.scheduler.util.PasswordHasherBenchmark [seconds-per-run]
+public class PasswordHasherBenchmark {
+
+    private interface Hasher {
+        void hash(byte[] salt) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        Hasher uncached = salt -> SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1")
+                .generateSecret(new PBEKeySpec("password".toCharArray(), salt, 10, 16)).getEncoded();
+        Hasher legacy = salt -> PasswordHasher.legacyHash("password", salt);
+
+        for (int threads : new int[]{1, cores}) {
+            run("uncached legacy (original)", threads, seconds, uncached);
+            run("cached legacy", threads, seconds, legacy);
+            for (int cost : new int[]{10, 12, 14}) {
+                run("v2 cost " + cost, threads, seconds, salt -> PasswordHasher.hash("password", salt, cost));
+            }
+        }
+    }
+
+    private static void run(String label, int threads, double seconds, Hasher hasher) throws Exception {
+        // warm up so the JIT and the per-thread factories are in place
+        long warmupEnd = System.nanoTime() + 500_000_000L;
+        while (System.nanoTime() < warmupEnd) {
+            hasher.hash(PasswordHasher.newSalt());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long[] counts = new long[threads];
+        long end = System.nanoTime() + (long) (seconds * 1e9);
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            executor.submit(() -> {
+                byte[] salt = PasswordHasher.newSalt();
+                while (System.nanoTime() < end) {
+                    hasher.hash(salt);
+                    counts[id]++;
+                }
+                return null;
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        System.out.printf("%-28s threads=%-3d %12.1f hashes/s%n", label, threads, total / seconds);
+    }
+}
@@ -1,10 +1,10 @@
 package scheduler.model;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import scheduler.db.StorageManager;
+import src.main.scheduler.util.PasswordHasher;
+
 import java.sql.SQLException;
-import java.util.Arrays;
+import java.util.Collections;
 
 public class Patient {
     private final String username;
@@ -35,21 +35,7 @@ public class Patient {
     }
 
     public void saveToDB() throws SQLException {
-        scheduler.db.ConnectionManager cm = new scheduler.db.ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addPatient = "INSERT INTO Patients VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        StorageManager.getStorage().savePatients(Collections.singletonList(this));
     }
 
     // don't need uploadAvailability bc this is specific to caregivers
@@ -82,35 +68,17 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
-            scheduler.db.ConnectionManager cm = new scheduler.db.ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = src.main.scheduler.util.Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = src.main.scheduler.util.Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
-                    }
-                }
+            Patient stored = StorageManager.getStorage().getPatient(this.username);
+            if (stored == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            salt = stored.getSalt();
+            hash = stored.getHash();
+            // check if the password matches
+            if (!PasswordHasher.verifyBounded(password, salt, hash)) {
+                return null;
+            }
+            return new Patient(this);
         }
     }
 }
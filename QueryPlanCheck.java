@@ -0,0 +1,273 @@
+package scheduler.db;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.StringReader;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Query plan regression check for SQL Server. Migrates the database, fills it with synthetic
+// caregivers, patients, availability and appointment history, then asks the optimizer for the plan
+// of every statement the commands run (SET SHOWPLAN_XML, nothing is executed) and fails if any of
+// them scans a table or index instead of seeking. Run it against a scratch database, like
+// SchedulerBenchmark.
+// usage: java scheduler.db.QueryPlanCheck [--caregivers n] [--patients n] [--dates n] [--appointments n]
+//        [--schema directory]
+//
+// The statements below mirror the SQL in JdbcStorage and ReservationEngine, keep them in step.
+public class QueryPlanCheck {
+
+    private static final Set<String> SCANS = new HashSet<>(Arrays.asList("Table Scan", "Index Scan",
+            "Clustered Index Scan"));
+    private static final String VACCINE = "planvax";
+    // bookable dates start this month so they fall into the partitions MigrationRunner keeps
+    private static final LocalDate FIRST_DATE = LocalDate.now().withDayOfMonth(1);
+
+    private static int caregivers = 200;
+    private static int patients = 5000;
+    private static int dates = 90;
+    private static int appointments = 200_000;
+    private static String schema = ".";
+
+    private static final List<Check> CHECKS = new ArrayList<>();
+
+    // depends on the sizes given on the command line
+    private static void addChecks() {
+        String caregiver = "plan_cg_7";
+        String patient = "plan_pt_7";
+        Date date = Date.valueOf(FIRST_DATE.plusDays(5));
+        Date past = Date.valueOf(FIRST_DATE.minusDays(30));
+        add("create_patient", "SELECT * FROM Patients WHERE Username = ?", patient);
+        add("create_caregiver", "SELECT * FROM Caregivers WHERE Username = ?", caregiver);
+        add("login_patient", "SELECT Salt, Hash FROM Patients WHERE Username = ?", patient);
+        add("login_caregiver", "SELECT Salt, Hash FROM Caregivers WHERE Username = ?", caregiver);
+        add("search_caregiver_schedule", "SELECT * FROM Availabilities WHERE Time = ? ORDER BY Username", date);
+        add("search_caregiver_schedule", "SELECT Time, COUNT(*) FROM Availabilities WHERE Time >= ? AND Time <= ? "
+                + "GROUP BY Time ORDER BY Time", date, Date.valueOf(FIRST_DATE.plusDays(95)));
+        add("search_open_days", "SELECT Time FROM Availabilities WHERE Time >= ? AND Time <= ? "
+                + "GROUP BY Time HAVING COUNT(*) >= ? ORDER BY Time", date, Date.valueOf(FIRST_DATE.plusDays(95)), 2);
+        add("search_common_caregivers", "SELECT Username FROM Availabilities WHERE Time IN (?, ?) "
+                + "GROUP BY Username HAVING COUNT(*) = ? ORDER BY Username",
+                date, Date.valueOf(FIRST_DATE.plusDays(1)), 2);
+        add("reserve", "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username", date);
+        add("reserve", "DELETE FROM Availabilities WHERE Time = ? AND Username = ?", date, caregiver);
+        add("reserve_earliest", "SELECT TOP 1 Time FROM Availabilities WHERE Time >= ? ORDER BY Time", date);
+        add("reserve", "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ? AND Doses > 0", VACCINE);
+        add("waitlist", "SELECT TOP (?) ID, PatientUsername, FromDate, ToDate, Name FROM Waitlist "
+                + "WHERE ID > ? ORDER BY ID", 100, 0);
+        add("waitlist", "DELETE FROM Waitlist WHERE ID = ?", 1);
+        add("upload_availability", "INSERT INTO Availabilities (Time, Username) SELECT ?, ? WHERE NOT EXISTS "
+                + "(SELECT 1 FROM Availabilities WHERE Time = ? AND Username = ?)", date, caregiver, date, caregiver);
+        add("add_doses", "UPDATE vaccines SET Doses = Doses + ? WHERE name = ?", 10, VACCINE);
+        for (String owner : new String[]{"PatientUsername", "CaregiverUsername"}) {
+            String username = owner.equals("PatientUsername") ? patient : caregiver;
+            add("cancel", "SELECT Time, Name, CaregiverUsername FROM Appointments WHERE ID = ? AND " + owner + " = ?",
+                    appointments / 2, username);
+            add("cancel", "DELETE FROM Appointments WHERE ID = ? AND " + owner + " = ?", appointments / 2, username);
+            add("show_appointments", "SELECT TOP (?) ID, Time, Name, PatientUsername, CaregiverUsername "
+                    + "FROM Appointments WHERE " + owner + " = ? AND ID > ? AND Time >= ? AND Time <= ? ORDER BY ID",
+                    100, username, 0, Date.valueOf("0001-01-01"), Date.valueOf("9999-12-31"));
+            add("show_appointments", "SELECT TOP (?) ID, Time, Name, PatientUsername, CaregiverUsername "
+                    + "FROM Appointments WHERE " + owner + " = ? AND ID > ? AND Time >= ? AND Time <= ? ORDER BY ID",
+                    100, username, appointments / 2, past, date);
+        }
+        add("cancel", "INSERT INTO Availabilities (Time, Username) SELECT ?, ? WHERE NOT EXISTS "
+                + "(SELECT 1 FROM Availabilities WHERE Time = ? AND Username = ?)", past, caregiver, past, caregiver);
+        add("reserve", "UPDATE DailyCapacity SET Offered = Offered + ?, Free = Free + ? WHERE Time = ?", 0, -1, date);
+        add("reserve", "UPDATE DailyBookings SET Booked = Booked + ? WHERE Time = ? AND Name = ?", 1, date, VACCINE);
+        add("report", "SELECT Time, Offered, Free FROM DailyCapacity WHERE Time >= ? AND Time <= ?", past, date);
+        add("report", "SELECT Time, Name, Booked FROM DailyBookings WHERE Time >= ? AND Time <= ?", past, date);
+        // not checked: SELECT Name, Doses FROM Vaccines reads every vaccine on purpose, and so do the
+        // loads of AvailabilityIndex and DoseInventory at startup. Nor is the write-behind insert, whose
+        // explicit ID only compiles with IDENTITY_INSERT on for the session
+        add("write_behind", "SELECT Doses FROM Vaccines WITH (UPDLOCK) WHERE Name = ?", VACCINE);
+        add("write_behind", "UPDATE Vaccines SET Doses = Doses - ? WHERE Name = ? AND Doses >= ?", 1, VACCINE, 1);
+        add("dose_flush", "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?", 0L, VACCINE);
+        add("dose_flush", "UPDATE DoseFlush SET Seq = ? WHERE ID = 1", 0L);
+        add("replica_heartbeat", "UPDATE ReplicaHeartbeat SET Beat = ? WHERE ID = ?", 0L, 1);
+        add("replica_heartbeat", "SELECT Beat FROM ReplicaHeartbeat WHERE ID = ?", 1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        parseArgs(args);
+        addChecks();
+        System.out.println("Schema is at version " + new MigrationRunner(Paths.get(schema)).migrate());
+
+        int scans = 0;
+        try (Connection con = ConnectionManager.openPhysicalConnection()) {
+            seed(con);
+            try (Statement statement = con.createStatement()) {
+                statement.execute("SET SHOWPLAN_XML ON");
+            }
+            for (Check check : CHECKS) {
+                List<String> found = scans(plan(con, check));
+                System.out.printf("%-26s %-4s %s%n", check.command, found.isEmpty() ? "ok" : "SCAN", check.sql);
+                for (String scan : found) {
+                    System.out.println("    " + scan);
+                }
+                if (!found.isEmpty()) {
+                    scans++;
+                }
+            }
+            try (Statement statement = con.createStatement()) {
+                statement.execute("SET SHOWPLAN_XML OFF");
+            }
+        }
+        System.out.println(scans == 0 ? "All " + CHECKS.size() + " statements use index seeks"
+                : scans + " of " + CHECKS.size() + " statements scan");
+        System.exit(scans == 0 ? 0 : 1);
+    }
+
+    private static void add(String command, String sql, Object... parameters) {
+        CHECKS.add(new Check(command, sql, parameters));
+    }
+
+    private static String plan(Connection con, Check check) throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement(check.sql)) {
+            for (int i = 0; i < check.parameters.length; i++) {
+                statement.setObject(i + 1, check.parameters[i]);
+            }
+            // with SHOWPLAN_XML on, every statement returns its plan instead of running
+            statement.execute();
+            try (ResultSet rs = statement.getResultSet()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+
+    // the scan operators in the plan, as "operator on table.index"
+    private static List<String> scans(String plan) throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new InputSource(new StringReader(plan)));
+        List<String> found = new ArrayList<>();
+        NodeList operators = document.getElementsByTagName("RelOp");
+        for (int i = 0; i < operators.getLength(); i++) {
+            Element operator = (Element) operators.item(i);
+            String physical = operator.getAttribute("PhysicalOp");
+            if (!SCANS.contains(physical)) {
+                continue;
+            }
+            found.add(physical + " on " + scannedObject(operator));
+        }
+        return found;
+    }
+
+    private static String scannedObject(Element operator) {
+        for (Node child = operator.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (!(child instanceof Element)) {
+                continue;
+            }
+            NodeList objects = ((Element) child).getElementsByTagName("Object");
+            if (objects.getLength() > 0) {
+                Element object = (Element) objects.item(0);
+                String index = object.getAttribute("Index");
+                return object.getAttribute("Table") + (index.isEmpty() ? "" : "." + index);
+            }
+        }
+        return "?";
+    }
+
+    // set-based inserts, so a few hundred thousand rows take seconds; skipped when already seeded
+    private static void seed(Connection con) throws SQLException {
+        try (PreparedStatement exists = con.prepareStatement("SELECT 1 FROM Caregivers WHERE Username = 'plan_cg_0'");
+             ResultSet rs = exists.executeQuery()) {
+            if (rs.next()) {
+                System.out.println("Already seeded, checking plans");
+                return;
+            }
+        }
+        int rows = Math.max(Math.max(caregivers, patients), Math.max(dates, appointments));
+        String numbers = "WITH n AS (SELECT TOP (" + rows + ") ROW_NUMBER() OVER (ORDER BY (SELECT NULL)) - 1 AS i "
+                + "FROM sys.all_objects a CROSS JOIN sys.all_objects b CROSS JOIN sys.all_objects c) ";
+        long start = System.nanoTime();
+        con.setAutoCommit(false);
+        try (Statement statement = con.createStatement()) {
+            statement.executeUpdate(numbers + "INSERT INTO Caregivers (Username, Salt, Hash) "
+                    + "SELECT CONCAT('plan_cg_', i), 0x00, 0x00 FROM n WHERE i < " + caregivers);
+            statement.executeUpdate(numbers + "INSERT INTO Patients (Username, Salt, Hash) "
+                    + "SELECT CONCAT('plan_pt_', i), 0x00, 0x00 FROM n WHERE i < " + patients);
+            statement.executeUpdate("INSERT INTO Vaccines VALUES ('" + VACCINE + "', 1000000)");
+            statement.executeUpdate(numbers + "INSERT INTO Availabilities (Time, Username) "
+                    + "SELECT DATEADD(day, d.i, '" + FIRST_DATE + "'), CONCAT('plan_cg_', c.i) "
+                    + "FROM n d CROSS JOIN n c WHERE d.i < " + dates + " AND c.i < " + caregivers);
+            // two years of history before the bookable dates
+            statement.executeUpdate(numbers
+                    + "INSERT INTO Appointments (Time, Name, PatientUsername, CaregiverUsername) "
+                    + "SELECT DATEADD(day, -1 - i % 730, '" + FIRST_DATE + "'), '" + VACCINE + "', "
+                    + "CONCAT('plan_pt_', i % " + patients + "), CONCAT('plan_cg_', i % " + caregivers + ") "
+                    + "FROM n WHERE i < " + appointments + " ORDER BY i");
+            statement.executeUpdate("INSERT INTO DailyBookings (Time, Name, Booked) "
+                    + "SELECT Time, Name, COUNT(*) FROM Appointments GROUP BY Time, Name");
+            statement.executeUpdate("INSERT INTO DailyCapacity (Time, Offered, Free) "
+                    + "SELECT Time, COUNT(*), COUNT(*) FROM Availabilities GROUP BY Time");
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(true);
+        }
+        try (Statement statement = con.createStatement()) {
+            for (String table : new String[]{"Caregivers", "Patients", "Availabilities", "Appointments",
+                    "DailyCapacity", "DailyBookings"}) {
+                statement.execute("UPDATE STATISTICS " + table + " WITH FULLSCAN");
+            }
+        }
+        System.out.printf("Seeded %d caregivers, %d patients, %d dates and %d appointments in %.1f s%n",
+                caregivers, patients, dates, appointments, (System.nanoTime() - start) / 1e9);
+    }
+
+    private static void parseArgs(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--caregivers":
+                    caregivers = Integer.parseInt(value);
+                    break;
+                case "--patients":
+                    patients = Integer.parseInt(value);
+                    break;
+                case "--dates":
+                    dates = Integer.parseInt(value);
+                    break;
+                case "--appointments":
+                    appointments = Integer.parseInt(value);
+                    break;
+                case "--schema":
+                    schema = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+    }
+
+    private static class Check {
+        private final String command;
+        private final String sql;
+        private final Object[] parameters;
+
+        private Check(String command, String sql, Object[] parameters) {
+            this.command = command;
+            this.sql = sql;
+            this.parameters = parameters;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package scheduler.db;
+
+import src.main.scheduler.util.Metrics;
+import src.main.scheduler.util.Util;
+
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Read replicas for read-intent connections, see ConnectionManager.createReadConnection.
+// ReadReplicas lists them, comma separated: a full JDBC URL, or a server name that is expanded like
+// Server (on DBName, with ApplicationIntent=ReadOnly). Each replica has its own small pool.
+//
+// Every ReplicaCheckMs this process sets its own ReplicaHeartbeat row on the primary to the current time
+// and reads it back from every replica, so a replica is as fresh as the newest beat it shows. A replica
+// is used if its last check succeeded, its beat is at most ReplicaMaxLagMs old, and the beat is not
+// older than the reader's last write, which gives a session its own writes back. Otherwise the read
+// goes to the primary. Each process beats under its own random ID, so the beats it compares were all
+// taken on its own clock, and clock skew between scheduler hosts does not matter. A replica that keeps
+// up still shows a beat up to one check old, so ReplicaMaxLagMs has to be comfortably above
+// ReplicaCheckMs.
+public class ReplicaRouter {
+
+    private static final int CHECK_INTERVAL_MS = Util.getEnvInt("ReplicaCheckMs", 1000);
+    private static final long MAX_LAG_MS = Util.getEnvInt("ReplicaMaxLagMs", 5000);
+    private static final int POOL_SIZE = Util.getEnvInt("ReplicaPoolSize", 4);
+    private static final int CHECK_TIMEOUT_SECONDS = 2;
+    // rows of processes that stopped without deleting theirs are removed after a day
+    private static final long STALE_BEAT_MS = 24 * 60 * 60 * 1000L;
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger turn = new AtomicInteger();
+    private final LongAdder replicaReads = new LongAdder();
+    private final LongAdder primaryReads = new LongAdder();
+    private final ScheduledExecutorService checker;
+    // this process's ReplicaHeartbeat row
+    private final int beatId = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+
+    ReplicaRouter(List<String> urls, String userName, String userPass, int statementCacheSize) {
+        for (String url : urls) {
+            replicas.add(new Replica(url, new ConnectionPool(() -> {
+                Metrics.getInstance().recordConnectionOpened();
+                return DriverManager.getConnection(url, userName, userPass);
+            }, 0, POOL_SIZE, CHECK_TIMEOUT_SECONDS * 1000L, 5 * 60 * 1000, 30 * 60 * 1000, statementCacheSize)));
+        }
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replica-health");
+            t.setDaemon(true);
+            return t;
+        });
+        checker.execute(this::removeStaleBeats);
+        checker.scheduleWithFixedDelay(this::check, 0, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // the URLs in ReadReplicas, server names expanded like the primary's
+    static List<String> urlsFromEnv(String dbName) {
+        List<String> urls = new ArrayList<>();
+        String value = System.getenv("ReadReplicas");
+        if (value == null) {
+            return urls;
+        }
+        for (String entry : value.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            urls.add(entry.startsWith("jdbc:") ? entry : "jdbc:sqlserver://" + entry
+                    + ".database.windows.net:1433;database=" + dbName + ";applicationIntent=ReadOnly");
+        }
+        return urls;
+    }
+
+    // the pool of a replica fresh enough for a reader whose last write was at notBefore, or null to
+    // read from the primary
+    ConnectionPool choose(long notBefore) {
+        long now = System.currentTimeMillis();
+        int start = Math.floorMod(turn.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            long beat = replica.beat;
+            if (replica.healthy && now - beat <= MAX_LAG_MS && beat >= notBefore) {
+                replica.reads.increment();
+                replicaReads.increment();
+                return replica.pool;
+            }
+        }
+        primaryReads.increment();
+        return null;
+    }
+
+    // a borrow from the chosen pool failed, the read goes to the primary and the next check decides
+    // when the replica is used again
+    void markDown(ConnectionPool pool) {
+        for (Replica replica : replicas) {
+            if (replica.pool == pool) {
+                replica.healthy = false;
+                replica.reads.decrement();
+            }
+        }
+        replicaReads.decrement();
+        primaryReads.increment();
+    }
+
+    // beats the primary, then reads the beat back from every replica
+    private void check() {
+        long beat = System.currentTimeMillis();
+        try {
+            writeBeat(beat);
+        } catch (SQLException e) {
+            // no new beat, the replicas' beats age until the primary is back
+        }
+        for (Replica replica : replicas) {
+            try {
+                ConnectionPool.PooledConnection pooled = replica.pool.borrow();
+                try {
+                    String readBeat = "SELECT Beat FROM ReplicaHeartbeat WHERE ID = ?";
+                    PreparedStatement statement = pooled.getStatementCache()
+                            .prepare(readBeat, Statement.NO_GENERATED_KEYS);
+                    statement.setQueryTimeout(CHECK_TIMEOUT_SECONDS);
+                    statement.setInt(1, beatId);
+                    ResultSet rs = statement.executeQuery();
+                    if (rs.next()) {
+                        replica.beat = rs.getLong(1);
+                    }
+                    replica.healthy = true;
+                } finally {
+                    replica.pool.release(pooled);
+                }
+            } catch (SQLException e) {
+                replica.healthy = false;
+            }
+        }
+    }
+
+    private void writeBeat(long beat) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        if (cm.createConnection() == null) {
+            throw new SQLException("No connection");
+        }
+        try {
+            PreparedStatement update = cm.prepareStatement("UPDATE ReplicaHeartbeat SET Beat = ? WHERE ID = ?");
+            update.setLong(1, beat);
+            update.setInt(2, beatId);
+            if (update.executeUpdate() == 0) {
+                String insertBeat = "INSERT INTO ReplicaHeartbeat (ID, Beat) VALUES (?, ?)";
+                PreparedStatement insert = cm.prepareStatement(insertBeat);
+                insert.setInt(1, beatId);
+                insert.setLong(2, beat);
+                insert.executeUpdate();
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // the rows of processes gone for a day, their clocks may be off but not by that much
+    private void removeStaleBeats() {
+        runOnPrimary("DELETE FROM ReplicaHeartbeat WHERE Beat < ?", System.currentTimeMillis() - STALE_BEAT_MS);
+    }
+
+    private void runOnPrimary(String sql, long value) {
+        ConnectionManager cm = new ConnectionManager();
+        if (cm.createConnection() == null) {
+            return;
+        }
+        try {
+            PreparedStatement statement = cm.prepareStatement(sql);
+            statement.setLong(1, value);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            // the row is removed by the next process that starts
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    void close() {
+        checker.shutdownNow();
+        runOnPrimary("DELETE FROM ReplicaHeartbeat WHERE ID = ?", beatId);
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(String.format("Read replicas: %d reads on replicas, %d on the primary",
+                replicaReads.sum(), primaryReads.sum()));
+        long now = System.currentTimeMillis();
+        for (Replica replica : replicas) {
+            long beat = replica.beat;
+            // only up to the first property, the rest may hold credentials
+            String server = replica.url.split(";", 2)[0];
+            sb.append(String.format("%n  %s healthy=%b lag=%s reads=%d", server, replica.healthy,
+                    beat == 0 ? "unknown" : (now - beat) + "ms", replica.reads.sum()));
+        }
+        return sb.toString();
+    }
+
+    private static class Replica {
+        private final String url;
+        private final ConnectionPool pool;
+        private final LongAdder reads = new LongAdder();
+        // set by the checker only
+        private volatile boolean healthy = false;
+        private volatile long beat = 0;
+
+        private Replica(String url, ConnectionPool pool) {
+            this.url = url;
+            this.pool = pool;
+        }
+    }
+}
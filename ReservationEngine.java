@@ -0,0 +1,553 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+import src.main.scheduler.util.Util;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Books and cancels appointments in a single transaction each.
+// A slot is claimed with a conditional DELETE on Availabilities and a dose with a conditional
+// UPDATE on Vaccines, so two patients can never get the same caregiver slot and doses never go
+// negative. Losing a claim to another patient just moves on to the next caregiver.
+// With WriteBehind on, reservations are claimed in memory instead, see tryReserveInMemory.
+public class ReservationEngine {
+
+    // how many times a whole reservation is retried after losing every claim or a deadlock
+    private static final int MAX_ATTEMPTS = Util.getEnvInt("ReserveMaxAttempts", 5);
+    // SQLState for serialization failures, SQL Server reports deadlock victims as error 1205
+    private static final String SERIALIZATION_FAILURE = "40001";
+    private static final int SQLSERVER_DEADLOCK = 1205;
+
+    private static final ReservationEngine INSTANCE = new ReservationEngine();
+
+    private final LongAdder reserved = new LongAdder();
+    private final LongAdder noCaregiver = new LongAdder();
+    private final LongAdder noDoses = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+
+    public static ReservationEngine getInstance() {
+        return INSTANCE;
+    }
+
+    public Reservation reserve(String patientUsername, Date date, String vaccineName) throws SQLException {
+        return reserve(patientUsername, date, vaccineName, 0);
+    }
+
+    // Books the appointment for a waitlist entry and deletes the entry in the same transaction, see
+    // WaitlistMatcher. NOT_WAITING if the entry was served or removed in the meantime.
+    public Reservation reserve(WaitlistEntry entry, Date date) throws SQLException {
+        return reserve(entry.getPatientUsername(), date, entry.getVaccineName(), entry.getId());
+    }
+
+    private Reservation reserve(String patientUsername, Date date, String vaccineName, int waitlistId)
+            throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Reservation reservation = AppointmentWriteBehind.getInstance().isActive()
+                        ? tryReserveInMemory(patientUsername, date, vaccineName, waitlistId)
+                        : tryReserve(patientUsername, date, vaccineName, waitlistId);
+                // every candidate was taken by someone else while we looked, go around again
+                if (reservation.getStatus() == Status.CONFLICT && attempt < MAX_ATTEMPTS) {
+                    retries.increment();
+                    backoff(attempt);
+                    continue;
+                }
+                if (reservation.getStatus() == Status.CONFLICT) {
+                    reservation = new Reservation(Status.NO_CAREGIVER, -1, null);
+                }
+                record(reservation);
+                return reservation;
+            } catch (SQLException e) {
+                if (!isRetryable(e) || attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                retries.increment();
+                backoff(attempt);
+            }
+        }
+    }
+
+    private Reservation tryReserve(String patientUsername, Date date, String vaccineName, int waitlistId)
+            throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        boolean doseTaken = false;
+        try {
+            con.setAutoCommit(false);
+
+            // first, so the entry stays locked and a rollback below puts it back
+            if (waitlistId > 0) {
+                String takeEntry = "DELETE FROM Waitlist WHERE ID = ?";
+                PreparedStatement take = cm.prepareStatement(takeEntry);
+                take.setInt(1, waitlistId);
+                if (take.executeUpdate() == 0) {
+                    con.rollback();
+                    return new Reservation(Status.NOT_WAITING, -1, null);
+                }
+            }
+
+            List<String> candidates = findCandidates(cm, date);
+            if (candidates.isEmpty()) {
+                con.rollback();
+                return new Reservation(Status.NO_CAREGIVER, -1, null);
+            }
+
+            // claim the first slot nobody else has deleted yet, in the order CaregiverSelector picks
+            String claimSlot = "DELETE FROM Availabilities WHERE Time = ? AND Username = ?";
+            PreparedStatement claim = cm.prepareStatement(claimSlot);
+            String caregiver = null;
+            for (String candidate : CaregiverSelector.getInstance().order(candidates)) {
+                claim.setDate(1, date);
+                claim.setString(2, candidate);
+                if (claim.executeUpdate() == 1) {
+                    caregiver = candidate;
+                    break;
+                }
+                conflicts.increment();
+            }
+            if (caregiver == null) {
+                con.rollback();
+                return new Reservation(Status.CONFLICT, -1, null);
+            }
+
+            // the dose is taken last so the Vaccines row lock is held as briefly as possible
+            if (!takeDose(cm, vaccineName)) {
+                con.rollback();
+                return new Reservation(Status.NO_DOSES, -1, null);
+            }
+            doseTaken = true;
+
+            String createAppointment = "INSERT INTO Appointments(Time, Name, PatientUsername, CaregiverUsername) " +
+                    "VALUES (?, ?, ?, ?)";
+            PreparedStatement insert = cm.prepareStatement(createAppointment, Statement.RETURN_GENERATED_KEYS);
+            insert.setDate(1, date);
+            insert.setString(2, vaccineName);
+            insert.setString(3, patientUsername);
+            insert.setString(4, caregiver);
+            insert.executeUpdate();
+            ResultSet generatedKeys = insert.getGeneratedKeys();
+            if (!generatedKeys.next()) {
+                throw new SQLException("Appointment ID was not generated");
+            }
+            int appointmentId = generatedKeys.getInt(1);
+            DailyCounters.addCapacity(cm, date, 0, -1);
+            DailyCounters.addBooking(cm, date, vaccineName, 1);
+
+            con.commit();
+            AvailabilityIndex.getInstance().remove(date, caregiver);
+            AvailabilityCalendar.getInstance().remove(date, caregiver);
+            CaregiverSelector.getInstance().booked(caregiver);
+            return new Reservation(Status.RESERVED, appointmentId, caregiver);
+        } catch (SQLException e) {
+            rollbackQuietly(con);
+            // the rollback undoes the table's decrement, the inventory's journaled one is handed back
+            if (doseTaken && inInventory(vaccineName)) {
+                giveBackQuietly(vaccineName);
+            }
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // With write-behind the index and the inventory are the record of free slots and doses: the slot
+    // is claimed by taking it out of the index, the dose from the inventory, and the appointment is
+    // logged for AppointmentWriteBehind to write out. Nothing here touches the database.
+    private Reservation tryReserveInMemory(String patientUsername, Date date, String vaccineName, int waitlistId)
+            throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        List<String> candidates = index.getCaregivers(date);
+        if (candidates.isEmpty()) {
+            return new Reservation(Status.NO_CAREGIVER, -1, null);
+        }
+        String caregiver = null;
+        for (String candidate : CaregiverSelector.getInstance().order(candidates)) {
+            if (index.remove(date, candidate)) {
+                caregiver = candidate;
+                break;
+            }
+            conflicts.increment();
+        }
+        if (caregiver == null) {
+            return new Reservation(Status.CONFLICT, -1, null);
+        }
+        DoseInventory inventory = DoseInventory.getInstance();
+        // the decrement is in the log record and written with the appointment
+        if (!inventory.tryTake(vaccineName, 1)) {
+            index.add(date, caregiver);
+            return new Reservation(Status.NO_DOSES, -1, null);
+        }
+        int appointmentId;
+        try {
+            appointmentId = AppointmentWriteBehind.getInstance().append(date, vaccineName, patientUsername,
+                    caregiver, waitlistId);
+        } catch (IOException e) {
+            index.add(date, caregiver);
+            inventory.add(vaccineName, 1);
+            throw new SQLException("Write-behind log append failed: " + e.getMessage(), e);
+        } catch (SQLException e) {
+            index.add(date, caregiver);
+            inventory.add(vaccineName, 1);
+            throw e;
+        }
+        AvailabilityCalendar.getInstance().remove(date, caregiver);
+        CaregiverSelector.getInstance().booked(caregiver);
+        return new Reservation(Status.RESERVED, appointmentId, caregiver);
+    }
+
+    // caregivers free on the date, from the in-memory index when it is loaded
+    private static List<String> findCandidates(ConnectionManager cm, Date date) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        if (index.isLoaded()) {
+            return index.getCaregivers(date);
+        }
+        String selectCandidates = "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username";
+        PreparedStatement getCandidates = cm.prepareStatement(selectCandidates);
+        getCandidates.setDate(1, date);
+        List<String> candidates = new ArrayList<>();
+        ResultSet rs = getCandidates.executeQuery();
+        while (rs.next()) {
+            candidates.add(rs.getString(1));
+        }
+        return candidates;
+    }
+
+    // Takes one dose for the reservation. When the inventory holds the vaccine the dose comes from its
+    // counter and journal and the table is left to its flusher; otherwise it is taken from the table
+    // inside the transaction, so it commits with the appointment. Returns false if the vaccine is out
+    // of stock.
+    private static boolean takeDose(ConnectionManager cm, String vaccineName) throws SQLException {
+        if (inInventory(vaccineName)) {
+            return DoseInventory.getInstance().take(vaccineName);
+        }
+        String takeDose = "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ? AND Doses > 0";
+        PreparedStatement decreaseDose = cm.prepareStatement(takeDose);
+        decreaseDose.setString(1, vaccineName);
+        return decreaseDose.executeUpdate() > 0;
+    }
+
+    private static void giveBackQuietly(String vaccineName) {
+        try {
+            DoseInventory.getInstance().giveBack(vaccineName, 1);
+        } catch (SQLException e) {
+            // the dose is lost from the table, never sold twice
+            e.printStackTrace();
+        }
+    }
+
+    private static boolean inInventory(String vaccineName) {
+        DoseInventory inventory = DoseInventory.getInstance();
+        return inventory.isActive() && inventory.contains(vaccineName);
+    }
+
+    // Cancels an appointment owned by the given user, returning its dose and caregiver slot.
+    // Returns false if there is no such appointment for this user.
+    public boolean cancel(int appointmentId, String username, boolean isCaregiver) throws SQLException {
+        // the appointment may still be in the write-behind log
+        AppointmentWriteBehind.getInstance().awaitFlush();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        String owner = isCaregiver ? "CaregiverUsername" : "PatientUsername";
+        try {
+            con.setAutoCommit(false);
+
+            String getAppointment = "SELECT Time, Name, CaregiverUsername FROM Appointments WHERE ID = ? AND "
+                    + owner + " = ?";
+            PreparedStatement select = cm.prepareStatement(getAppointment);
+            select.setInt(1, appointmentId);
+            select.setString(2, username);
+            ResultSet rs = select.executeQuery();
+            if (!rs.next()) {
+                con.rollback();
+                return false;
+            }
+            Date date = rs.getDate(1);
+            String vaccineName = rs.getString(2);
+            String caregiver = rs.getString(3);
+
+            String deleteAppointment = "DELETE FROM Appointments WHERE ID = ? AND " + owner + " = ?";
+            PreparedStatement delete = cm.prepareStatement(deleteAppointment);
+            delete.setInt(1, appointmentId);
+            delete.setString(2, username);
+            // someone else cancelled it between our read and delete
+            if (delete.executeUpdate() == 0) {
+                con.rollback();
+                return false;
+            }
+
+            // the inventory journals the dose once this commits
+            boolean counted = inInventory(vaccineName);
+            if (!counted) {
+                String returnDose = "UPDATE Vaccines SET Doses = Doses + 1 WHERE Name = ?";
+                PreparedStatement increaseDose = cm.prepareStatement(returnDose);
+                increaseDose.setString(1, vaccineName);
+                increaseDose.executeUpdate();
+            }
+
+            String returnSlot = "INSERT INTO Availabilities (Time, Username) SELECT ?, ? WHERE NOT EXISTS " +
+                    "(SELECT 1 FROM Availabilities WHERE Time = ? AND Username = ?)";
+            PreparedStatement insertSlot = cm.prepareStatement(returnSlot);
+            insertSlot.setDate(1, date);
+            insertSlot.setString(2, caregiver);
+            insertSlot.setDate(3, date);
+            insertSlot.setString(4, caregiver);
+            // the caregiver may have uploaded the date again in the meantime
+            int returned = insertSlot.executeUpdate();
+            DailyCounters.addCapacity(cm, date, 0, returned);
+            DailyCounters.addBooking(cm, date, vaccineName, -1);
+
+            con.commit();
+            if (counted) {
+                giveBackQuietly(vaccineName);
+            }
+            AvailabilityIndex.getInstance().add(date, caregiver);
+            AvailabilityCalendar.getInstance().add(date, caregiver);
+            CaregiverSelector.getInstance().released(caregiver);
+            return true;
+        } catch (SQLException e) {
+            rollbackQuietly(con);
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Has every given patient reserve the same date and vaccine at once and reports how it went.
+    public ContentionReport simulate(List<String> patientUsernames, Date date, String vaccineName, int threads)
+            throws InterruptedException {
+        long conflictsBefore = conflicts.sum();
+        long retriesBefore = retries.sum();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Reservation>> results = new ArrayList<>();
+        for (String patient : patientUsernames) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return reserve(patient, date, vaccineName);
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        int booked = 0;
+        int rejected = 0;
+        int failed = 0;
+        for (Future<Reservation> result : results) {
+            try {
+                if (result.get().getStatus() == Status.RESERVED) {
+                    booked++;
+                } else {
+                    rejected++;
+                }
+            } catch (Exception e) {
+                failed++;
+            }
+        }
+        long elapsedNanos = System.nanoTime() - begin;
+        executor.shutdown();
+        return new ContentionReport(patientUsernames.size(), booked, rejected, failed,
+                conflicts.sum() - conflictsBefore, retries.sum() - retriesBefore, elapsedNanos,
+                countDoubleBookings(date));
+    }
+
+    // number of caregiver slots on the date that ended up with more than one appointment
+    public int countDoubleBookings(Date date) {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        String duplicates = "SELECT CaregiverUsername FROM Appointments WHERE Time = ? " +
+                "GROUP BY CaregiverUsername HAVING COUNT(*) > 1";
+        try {
+            AppointmentWriteBehind.getInstance().awaitFlush();
+            PreparedStatement statement = cm.prepareStatement(duplicates);
+            statement.setDate(1, date);
+            ResultSet rs = statement.executeQuery();
+            int count = 0;
+            while (rs.next()) {
+                count++;
+            }
+            return count;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return -1;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private void record(Reservation reservation) {
+        switch (reservation.getStatus()) {
+            case RESERVED:
+                reserved.increment();
+                break;
+            case NO_CAREGIVER:
+                noCaregiver.increment();
+                break;
+            case NO_DOSES:
+                noDoses.increment();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static boolean isRetryable(SQLException e) {
+        return SERIALIZATION_FAILURE.equals(e.getSQLState()) || e.getErrorCode() == SQLSERVER_DEADLOCK;
+    }
+
+    private static void backoff(int attempt) {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(1, 5 << attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void rollbackQuietly(Connection con) {
+        try {
+            if (con != null && !con.getAutoCommit()) {
+                con.rollback();
+            }
+        } catch (SQLException e) {
+            // the pool discards connections it cannot reset
+        }
+    }
+
+    // Getters for metrics
+    public long getReservedCount() {
+        return reserved.sum();
+    }
+
+    public long getNoCaregiverCount() {
+        return noCaregiver.sum();
+    }
+
+    public long getNoDosesCount() {
+        return noDoses.sum();
+    }
+
+    public long getConflictCount() {
+        return conflicts.sum();
+    }
+
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    public enum Status {
+        RESERVED,
+        NO_CAREGIVER,
+        NO_DOSES,
+        // internal: lost every claim for the date, the engine retries these
+        CONFLICT,
+        // the waitlist entry being served was already gone
+        NOT_WAITING
+    }
+
+    public static class Reservation {
+        private final Status status;
+        private final int appointmentId;
+        private final String caregiverUsername;
+
+        public Reservation(Status status, int appointmentId, String caregiverUsername) {
+            this.status = status;
+            this.appointmentId = appointmentId;
+            this.caregiverUsername = caregiverUsername;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public int getAppointmentId() {
+            return appointmentId;
+        }
+
+        public String getCaregiverUsername() {
+            return caregiverUsername;
+        }
+    }
+
+    public static class ContentionReport {
+        private final int patients;
+        private final int booked;
+        private final int rejected;
+        private final int failed;
+        private final long conflicts;
+        private final long retries;
+        private final long elapsedNanos;
+        private final int doubleBookings;
+
+        private ContentionReport(int patients, int booked, int rejected, int failed, long conflicts,
+                                 long retries, long elapsedNanos, int doubleBookings) {
+            this.patients = patients;
+            this.booked = booked;
+            this.rejected = rejected;
+            this.failed = failed;
+            this.conflicts = conflicts;
+            this.retries = retries;
+            this.elapsedNanos = elapsedNanos;
+            this.doubleBookings = doubleBookings;
+        }
+
+        public int getBooked() {
+            return booked;
+        }
+
+        public int getRejected() {
+            return rejected;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public int getDoubleBookings() {
+            return doubleBookings;
+        }
+
+        public long getConflicts() {
+            return conflicts;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        public double getElapsedSeconds() {
+            return elapsedNanos / 1e9;
+        }
+
+        public double getThroughput() {
+            return patients / (elapsedNanos / 1e9);
+        }
+
+        // lost claims per reservation attempted
+        public double getConflictRate() {
+            return patients == 0 ? 0 : (double) conflicts / patients;
+        }
+
+        @Override
+        public String toString() {
+            return "ContentionReport{" +
+                    "patients=" + patients +
+                    ", booked=" + booked +
+                    ", rejected=" + rejected +
+                    ", failed=" + failed +
+                    ", conflicts=" + conflicts +
+                    ", retries=" + retries +
+                    ", throughput=" + String.format("%.1f/s", getThroughput()) +
+                    ", conflictRate=" + String.format("%.3f", getConflictRate()) +
+                    ", doubleBookings=" + doubleBookings +
+                    '}';
+        }
+    }
+}
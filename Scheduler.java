@@ -1,196 +1,436 @@
+import scheduler.db.AppointmentArchive;
+import scheduler.db.AppointmentQuery;
 import scheduler.db.ConnectionManager;
+import scheduler.db.MigrationRunner;
+import scheduler.db.StatementCache;
+import scheduler.db.Storage;
+import scheduler.db.StorageManager;
+import scheduler.model.AppointmentWriteBehind;
+import scheduler.model.AvailabilityCalendar;
+import scheduler.model.AvailabilityImporter;
+import scheduler.model.AvailabilityIndex;
 import scheduler.model.Caregiver;
+import scheduler.model.CaregiverSelector;
+import scheduler.model.DayCounts;
+import scheduler.model.DoseInventory;
 import scheduler.model.Patient;
+import scheduler.model.ReservationEngine;
+import scheduler.model.UserImporter;
 import scheduler.model.Vaccine;
+import scheduler.model.WaitlistMatcher;
+import src.main.scheduler.util.JfrEvents;
+import src.main.scheduler.util.Metrics;
+import src.main.scheduler.util.PasswordHasher;
 import src.main.scheduler.util.Util;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    private static final Set<String> COMMANDS = new HashSet<>(Arrays.asList("create_patient", "create_caregiver",
+            "import_users", "login_patient", "login_caregiver", "search_caregiver_schedule", "search_open_days",
+            "search_common_caregivers", "reserve", "reserve_earliest", "waitlist", "upload_availability", "import_availability", "cancel", "add_doses", "show_appointments",
+            "export_appointments", "report", "logout", "stats", "quit"));
+    // commands that never write, their reads may go to a read replica, see ConnectionManager.beginReadOnly
+    private static final Set<String> READ_ONLY_COMMANDS = new HashSet<>(Arrays.asList("search_caregiver_schedule",
+            "show_appointments"));
+    // commands that change the database, a session's reads after one of them wait for replicas to catch up
+    private static final Set<String> WRITE_COMMANDS = new HashSet<>(Arrays.asList("create_patient",
+            "create_caregiver", "import_users", "reserve", "reserve_earliest", "waitlist", "upload_availability",
+            "import_availability", "cancel", "add_doses"));
+    private static final int APPOINTMENT_PAGE_SIZE = Util.getEnvInt("AppointmentPageSize", 100);
 
     public static void main(String[] args) {
-        // printing greetings text
-        System.out.println();
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
-        System.out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");  // TODO: implement show_appointments (Part 2)
-        System.out.println("> logout");  // TODO: implement logout (Part 2)
-        System.out.println("> quit");
-        System.out.println();
+        if (args.length > 0 && args[0].equals("--server")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : SchedulerServer.DEFAULT_PORT;
+            SchedulerServer.main(new String[]{String.valueOf(port)});
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--batch")) {
+            SchedulerBatch.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--archive")) {
+            AppointmentArchive.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--migrate")) {
+            MigrationRunner.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        loadIndexes();
+        Session session = new Session(System.out);
+        printGreeting(session);
 
         // read input from user
         BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
         while (true) {
-            System.out.print("> ");
+            session.print("> ");
             String response = "";
             try {
                 response = r.readLine();
             } catch (IOException e) {
-                System.out.println("Please try again!");
-            }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
-                continue;
-            }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-               reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
+                session.println("Please try again!");
+            }
+            if (response == null) {
+                // end of input, same as quit
+                response = "quit";
+            }
+            if (!handle(session, response)) {
+                shutdown();
+                return;
+            }
+        }
+    }
+
+    // warms the in-memory caches from the database, commands fall back to SQL if this fails
+    static void loadIndexes() {
+        if (!StorageManager.isJdbc()) {
+            // the in-process storage is already in memory
+            return;
+        }
+        // starts the health checks, so replicas are known to be fresh by the first read-only command
+        ConnectionManager.getRouter();
+        // before anything is cached, so the caches see the bookings an earlier run left in the log
+        boolean writeBehind = false;
+        if (AppointmentWriteBehind.isEnabled()) {
+            try {
+                AppointmentWriteBehind.getInstance().recover();
+                writeBehind = true;
+            } catch (IOException | SQLException e) {
+                System.out.println("Could not write out the write-behind log, reserving synchronously instead");
+            }
+        }
+        if (Util.getEnvBoolean("AvailabilityIndex", true)) {
+            try {
+                AvailabilityIndex.getInstance().load();
+            } catch (SQLException e) {
+                System.out.println("Could not load the availability index, searching the database instead");
+            }
+        }
+        if (Util.getEnvBoolean("AvailabilityCalendar", true)) {
+            try {
+                AvailabilityCalendar.getInstance().load();
+            } catch (SQLException e) {
+                System.out.println("Could not load the availability calendar, searching the database instead");
+            }
+        }
+        if (CaregiverSelector.getInstance().getPolicy() != CaregiverSelector.Policy.FIRST) {
+            try {
+                CaregiverSelector.getInstance().load();
+            } catch (SQLException e) {
+                System.out.println("Could not load the caregiver loads, counting from zero instead");
+            }
+        }
+        if (DoseInventory.isEnabled()) {
+            try {
+                DoseInventory.getInstance().load();
+            } catch (SQLException e) {
+                System.out.println("Could not load the dose inventory, updating the database directly instead");
+            }
+        }
+        if (writeBehind) {
+            startWriteBehind();
+        }
+    }
+
+    // reservations are claimed against the index and the inventory, both have to be in memory
+    private static void startWriteBehind() {
+        try {
+            DoseInventory inventory = DoseInventory.getInstance();
+            if (!inventory.isActive()) {
+                inventory.load();
+            }
+            if (AvailabilityIndex.getInstance().isLoaded()) {
+                AppointmentWriteBehind.getInstance().start();
                 return;
-            } else {
-                System.out.println("Invalid operation name!");
             }
+        } catch (SQLException e) {
+            System.out.println("Could not start write-behind, reserving synchronously: " + e.getMessage());
+            return;
         }
+        System.out.println("Write-behind needs the availability index and dose inventory, reserving synchronously");
     }
 
-    private static void createPatient(String[] tokens) {
+    // writes out anything still buffered in memory and closes the storage
+    static void shutdown() {
+        StorageManager.shutdown();
+    }
+
+    static void printGreeting(Session session) {
+        // printing greetings text
+        session.println("");
+        session.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        session.println("*** Please enter one of the following commands ***");
+        session.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
+        session.println("> create_caregiver <username> <password>");
+        session.println("> import_users <file>");
+        session.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
+        session.println("> login_caregiver <username> <password>");
+        session.println("> search_caregiver_schedule <date> | <from> <to> [vaccine]");  // TODO: implement search_caregiver_schedule (Part 2)
+        session.println("> search_open_days <from> <to> <min_caregivers>");
+        session.println("> search_common_caregivers <date>,<date>,... | <from>..<to> | @<file>");
+        session.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
+        session.println("> reserve_earliest <vaccine> [<not_before>]");
+        session.println("> waitlist <date> | <from>..<to> <vaccine>");
+        session.println("> upload_availability <date> | <from>..<to> | <date>,<date>,... | @<file>");
+        session.println("> import_availability <file>");
+        session.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
+        session.println("> add_doses <vaccine> <number>");
+        session.println("> show_appointments [from <date>] [to <date>] [after <id>] [limit <n>]");  // TODO: implement show_appointments (Part 2)
+        session.println("> export_appointments <file> [from <date>] [to <date>]");
+        session.println("> logout");  // TODO: implement logout (Part 2)
+        session.println("> report <from> <to>");
+        session.println("> stats");
+        session.println("> quit");
+        session.println("");
+    }
+
+    // runs a single command line for the given session, returns false once the session should end
+    static boolean handle(Session session, String response) {
+        // split the user input by spaces
+        String[] tokens = response.split(" ");
+        // check if input exists
+        if (tokens.length == 0) {
+            session.println("Please try again!");
+            return true;
+        }
+        Metrics metrics = Metrics.getInstance();
+        JfrEvents.CommandEvent event = new JfrEvents.CommandEvent();
+        event.begin();
+        long start = metrics.startCommand();
+        boolean readOnly = READ_ONLY_COMMANDS.contains(tokens[0]) && StorageManager.isJdbc();
+        if (readOnly) {
+            ConnectionManager.beginReadOnly(session.getLastWriteMillis());
+        }
+        try {
+            return dispatch(session, tokens);
+        } finally {
+            if (readOnly) {
+                ConnectionManager.endReadOnly();
+            } else if (WRITE_COMMANDS.contains(tokens[0])) {
+                // after the command's commit, so a beat at or after this time was written after it
+                session.setLastWriteMillis(System.currentTimeMillis());
+            }
+            // only known names are recorded so arbitrary input can't grow the metrics
+            String command = COMMANDS.contains(tokens[0]) ? tokens[0] : "invalid";
+            metrics.endCommand(command, start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.command = command;
+                event.username = currentUsername(session);
+                event.commit();
+            }
+        }
+    }
+
+    private static String currentUsername(Session session) {
+        if (session.getCurrentCaregiver() != null) {
+            return session.getCurrentCaregiver().getUsername();
+        }
+        return session.getCurrentPatient() != null ? session.getCurrentPatient().getUsername() : null;
+    }
+
+    private static boolean dispatch(Session session, String[] tokens) {
+        // determine which operation to perform
+        String operation = tokens[0];
+        if (operation.equals("create_patient")) {
+            createPatient(session, tokens);
+        } else if (operation.equals("create_caregiver")) {
+            createCaregiver(session, tokens);
+        } else if (operation.equals("import_users")) {
+            importUsers(session, tokens);
+        } else if (operation.equals("login_patient")) {
+            loginPatient(session, tokens);
+        } else if (operation.equals("login_caregiver")) {
+            loginCaregiver(session, tokens);
+        } else if (operation.equals("search_caregiver_schedule")) {
+            searchCaregiverSchedule(session, tokens);
+        } else if (operation.equals("search_open_days")) {
+            searchOpenDays(session, tokens);
+        } else if (operation.equals("search_common_caregivers")) {
+            searchCommonCaregivers(session, tokens);
+        } else if (operation.equals("reserve")) {
+            reserve(session, tokens);
+        } else if (operation.equals("reserve_earliest")) {
+            reserveEarliest(session, tokens);
+        } else if (operation.equals("waitlist")) {
+            waitlist(session, tokens);
+        } else if (operation.equals("upload_availability")) {
+            uploadAvailability(session, tokens);
+        } else if (operation.equals("import_availability")) {
+            importAvailability(session, tokens);
+        } else if (operation.equals("cancel")) {
+            cancel(session, tokens);
+        } else if (operation.equals("add_doses")) {
+            addDoses(session, tokens);
+        } else if (operation.equals("show_appointments")) {
+            showAppointments(session, tokens);
+        } else if (operation.equals("export_appointments")) {
+            exportAppointments(session, tokens);
+        } else if (operation.equals("logout")) {
+            logout(session, tokens);
+        } else if (operation.equals("report")) {
+            report(session, tokens);
+        } else if (operation.equals("stats")) {
+            stats(session, tokens);
+        } else if (operation.equals("quit")) {
+            session.println("Bye!");
+            return false;
+        } else {
+            session.println("Invalid operation name!");
+        }
+        return true;
+    }
+
+    private static void createPatient(Session session, String[] tokens) {
         // create_caregiver <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Create patient failed");
+            session.println("Create patient failed");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
-        if (usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again");
+        if (usernameExistsPatient(session, username)) {
+            session.println("Username taken, try again");
             return;
         }
-        byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        byte[] salt;
+        byte[] hash;
+        // batch mode hashes ahead of time
+        byte[][] prepared = session.takeCredentials(username, password);
+        if (prepared != null) {
+            salt = prepared[0];
+            hash = prepared[1];
+        } else {
+            salt = PasswordHasher.newSalt();
+            try {
+                hash = PasswordHasher.hashBounded(password, salt);
+            } catch (IllegalStateException e) {
+                session.println("Create patient failed");
+                return;
+            }
+        }
         // create the patient
         try {
             Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
             // save to caregiver information to our database
             patient.saveToDB();
-            System.out.println("Created user " + username);
+            session.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Create patient failed");
+            session.println("Create patient failed");
             e.printStackTrace();
         }
     }
 
-    private static void createCaregiver(String[] tokens) {
+    private static void createCaregiver(Session session, String[] tokens) {
         // create_caregiver <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
+            session.println("Failed to create user.");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
-        if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
+        if (usernameExistsCaregiver(session, username)) {
+            session.println("Username taken, try again!");
             return;
         }
-        byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        byte[] salt;
+        byte[] hash;
+        // batch mode hashes ahead of time
+        byte[][] prepared = session.takeCredentials(username, password);
+        if (prepared != null) {
+            salt = prepared[0];
+            hash = prepared[1];
+        } else {
+            salt = PasswordHasher.newSalt();
+            try {
+                hash = PasswordHasher.hashBounded(password, salt);
+            } catch (IllegalStateException e) {
+                session.println("Failed to create user.");
+                return;
+            }
+        }
         // create the caregiver
         try {
             Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build(); 
             // save to caregiver information to our database
             caregiver.saveToDB();
-            System.out.println("Created user " + username);
+            session.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
+            session.println("Failed to create user.");
             e.printStackTrace();
         }
     }
 
-    private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    private static void importUsers(Session session, String[] tokens) {
+        // import_users <file>, one "patient|caregiver,username,password" line per user
+        if (tokens.length != 2) {
+            session.println("Please try again!");
+            return;
+        }
+        try {
+            UserImporter.ImportResult result = UserImporter.importFile(Paths.get(tokens[1]));
+            session.println("Imported users: " + result);
+        } catch (IOException e) {
+            session.println("Could not read " + tokens[1]);
+        } catch (IllegalArgumentException e) {
+            session.println("Invalid line in " + tokens[1] + ": " + e.getMessage());
+        } catch (SQLException e) {
+            session.println("Failed to import users.");
+            e.printStackTrace();
+        }
+    }
 
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
+    private static boolean usernameExistsCaregiver(Session session, String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return StorageManager.getStorage().caregiverExists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            session.println("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
-    private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
+    private static boolean usernameExistsPatient(Session session, String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return StorageManager.getStorage().patientExists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            session.println("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
 
-    private static void loginPatient(String[] tokens) {
+    private static void loginPatient(Session session, String[] tokens) {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in, try again");
+        if (session.getCurrentCaregiver() != null || session.getCurrentPatient() != null) {
+            session.println("User already logged in, try again");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login patient failed");
+            session.println("Login patient failed");
             return;
         }
         String username = tokens[1];
@@ -199,29 +439,33 @@ public class Scheduler {
         Patient patient = null;
         try {
             patient = new Patient.PatientGetter(username, password).get();
+        } catch (IllegalStateException e) {
+            // the hashing executor is saturated, report it like any other failed login
+            session.println("Login patient failed");
+            return;
         } catch (SQLException e) {
-            System.out.println("Login patient failed");
+            session.println("Login patient failed");
             e.printStackTrace();
         }
         // check if the login was successful
         if (patient == null) {
-            System.out.println("Login patient failed");
+            session.println("Login patient failed");
         } else {
-            System.out.println("Logged in as " + username);
-            currentPatient = patient;
+            session.println("Logged in as " + username);
+            session.setCurrentPatient(patient);
         }
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private static void loginCaregiver(Session session, String[] tokens) {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+        if (session.getCurrentCaregiver() != null || session.getCurrentPatient() != null) {
+            session.println("User already logged in.");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
             return;
         }
         String username = tokens[1];
@@ -230,282 +474,451 @@ public class Scheduler {
         Caregiver caregiver = null;
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
+        } catch (IllegalStateException e) {
+            // the hashing executor is saturated, report it like any other failed login
+            session.println("Login failed.");
+            return;
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
             e.printStackTrace();
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentCaregiver = caregiver;
+            session.println("Logged in as: " + username);
+            session.setCurrentCaregiver(caregiver);
         }
     }
 
-    private static void searchCaregiverSchedule(String[] tokens) {
+    private static void searchCaregiverSchedule(Session session, String[] tokens) {
         // check if someone is logged in
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first");
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            session.println("Please login first");
+            return;
+        }
+        if (tokens.length == 3 || tokens.length == 4) {
+            searchCaregiverScheduleRange(session, tokens);
             return;
         }
         // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
         if (tokens.length != 2) {
-            System.out.println("Please try again");
+            session.println("Please try again");
             return;
         }
         String date = tokens[1];
 
         // for all rows, output the ones with the date matching the string
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String selectCaregiver = "SELECT * FROM Availabilities WHERE Time = ? ORDER BY Username";
-        String selectVaccine = "SELECT * FROM Vaccines";
-
         try {
-            PreparedStatement getCaregiver = con.prepareStatement(selectCaregiver);
-            PreparedStatement getVaccine = con.prepareStatement(selectVaccine);
+            Storage storage = StorageManager.getStorage();
+            Iterator<String> caregiver = storage.getAvailableCaregivers(Date.valueOf(date)).iterator();
+            Iterator<Map.Entry<String, Integer>> vaccine = storage.getVaccines().entrySet().iterator();
+            while (caregiver.hasNext() & vaccine.hasNext()) {
+                Map.Entry<String, Integer> doses = vaccine.next();
+                session.println(caregiver.next() + " " + doses.getKey() + " " + doses.getValue());
+            }
+        } catch (IllegalArgumentException e) {
+            session.println("Please try again");
+        } catch (SQLException e) {
+            session.println("Please try again");
+            e.printStackTrace();
+        }
+    }
 
-            getCaregiver.setString(1, date);
+    // search_caregiver_schedule <from> <to> [vaccine]: per date, the free caregivers and the doses in stock,
+    // from one range query and one read of Vaccines, printed as the dates come in
+    private static void searchCaregiverScheduleRange(Session session, String[] tokens) {
+        try {
+            Date from = Date.valueOf(tokens[1]);
+            Date to = Date.valueOf(tokens[2]);
+            if (to.before(from)) {
+                session.println("Please try again");
+                return;
+            }
+            Storage storage = StorageManager.getStorage();
+            String doses;
+            if (tokens.length == 4) {
+                Integer stock = storage.getDoses(tokens[3]);
+                doses = " " + tokens[3] + " " + (stock == null ? 0 : stock);
+            } else {
+                StringBuilder all = new StringBuilder();
+                for (Map.Entry<String, Integer> vaccine : storage.getVaccines().entrySet()) {
+                    all.append(" ").append(vaccine.getKey()).append(" ").append(vaccine.getValue());
+                }
+                doses = all.toString();
+            }
+            storage.forEachAvailableCount(from, to, (date, caregivers) ->
+                    session.println(date + " " + caregivers + doses));
+        } catch (IllegalArgumentException e) {
+            session.println("Please try again");
+        } catch (SQLException e) {
+            session.println("Please try again");
+            e.printStackTrace();
+        }
+    }
 
-            ResultSet resultSet = getCaregiver.executeQuery();
-            ResultSet resultSet1 = getVaccine.executeQuery();
+    // search_open_days <from> <to> <min_caregivers>: the dates with at least that many free caregivers
+    private static void searchOpenDays(Session session, String[] tokens) {
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            session.println("Please login first");
+            return;
+        }
+        if (tokens.length != 4) {
+            session.println("Please try again");
+            return;
+        }
+        try {
+            Date from = Date.valueOf(tokens[1]);
+            Date to = Date.valueOf(tokens[2]);
+            int minCaregivers = Integer.parseInt(tokens[3]);
+            if (to.before(from) || minCaregivers < 1) {
+                session.println("Please try again");
+                return;
+            }
+            for (Date date : StorageManager.getStorage().getDaysWithCaregivers(from, to, minCaregivers)) {
+                session.println(date.toString());
+            }
+        } catch (IllegalArgumentException e) {
+            session.println("Please try again");
+        } catch (SQLException e) {
+            session.println("Please try again");
+            e.printStackTrace();
+        }
+    }
 
-            while(resultSet.next() & resultSet1.next()) {
-                System.out.println(resultSet.getString(2) + " " + resultSet1.getString(1)
-                        + " " + resultSet1.getInt(2));
+    // search_common_caregivers <dates>: the caregivers free on every one of the dates, ordered by username
+    private static void searchCommonCaregivers(Session session, String[] tokens) {
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            session.println("Please login first");
+            return;
+        }
+        if (tokens.length != 2) {
+            session.println("Please try again");
+            return;
+        }
+        try {
+            List<String> caregivers = StorageManager.getStorage().getCaregiversFreeOnAll(parseDates(tokens[1]));
+            if (caregivers.isEmpty()) {
+                session.println("No caregiver is available");
+            }
+            for (String caregiver : caregivers) {
+                session.println(caregiver);
             }
+        } catch (IllegalArgumentException e) {
+            session.println("Please try again");
+        } catch (IOException e) {
+            session.println("Please try again");
         } catch (SQLException e) {
-            System.out.println("Please try again");
+            session.println("Please try again");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    private static void reserve(String[] tokens) {
-        if (currentPatient == null && currentCaregiver == null) {
-            System.out.println("Please login first");
+    private static void reserve(Session session, String[] tokens) {
+        if (session.getCurrentPatient() == null && session.getCurrentCaregiver() == null) {
+            session.println("Please login first");
             return;
         }
 
-        if (currentPatient == null) {
-            System.out.println("Please login as a patient");
+        if (session.getCurrentPatient() == null) {
+            session.println("Please login as a patient");
             return;
         }
 
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again");
+            session.println("Please try again");
             return;
         }
 
-        String date = tokens[1];
         String vaccine = tokens[2];
-
-        // for all rows, output the ones with the date matching the string
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
         try {
-            String caregiverAvailability = "SELECT * FROM Availabilities WHERE Time = ? ORDER BY USERNAME";
-            String vaccineAvailability = "SELECT * FROM Vaccines WHERE Name = ? AND Doses > 0";
-
-            PreparedStatement getCaregiver = con.prepareStatement(caregiverAvailability);
-            PreparedStatement getVaccine = con.prepareStatement(vaccineAvailability);
-
-            getCaregiver.setString(1, date);
-            getVaccine.setString(1, vaccine);
-
-            ResultSet caregiverSet = getCaregiver.executeQuery();
-            ResultSet vaccineSet = getVaccine.executeQuery();
-
-            String caregiver = null;
-            if (!caregiverSet.next()) {
-                System.out.println("No caregiver is available");
-                return;
-            } else {
-                caregiver = caregiverSet.getString("Username");
+            Date date = Date.valueOf(tokens[1]);
+            // claims the slot, takes the dose and books the appointment in one transaction
+            ReservationEngine.Reservation reservation = StorageManager.getStorage()
+                    .reserve(session.getCurrentPatient().getUsername(), date, vaccine);
+            switch (reservation.getStatus()) {
+                case RESERVED:
+                    session.println("Appointment ID " + reservation.getAppointmentId() +
+                            ", Caregiver username " + reservation.getCaregiverUsername());
+                    break;
+                case NO_DOSES:
+                    session.println("Not enough doses");
+                    break;
+                default:
+                    session.println("No caregiver is available");
+                    break;
             }
-            String updateAvailabilities = "DELETE FROM Availabilities WHERE Time = ? AND Username = ?";
-            PreparedStatement deleteDate = con.prepareStatement(updateAvailabilities);
+        } catch (IllegalArgumentException e) {
+            session.println("Please try again");
+        } catch (SQLException e) {
+            session.println("Please try again");
+            e.printStackTrace();
+        }
+    }
 
+    // reserve_earliest <vaccine> [<not_before>]: books the first date from not_before (default today) with a
+    // free caregiver. Each date comes from the ordered free days, then reserve claims it, and if another
+    // session took the last caregiver first the search goes on from the next day.
+    private static void reserveEarliest(Session session, String[] tokens) {
+        if (session.getCurrentPatient() == null && session.getCurrentCaregiver() == null) {
+            session.println("Please login first");
+            return;
+        }
+        if (session.getCurrentPatient() == null) {
+            session.println("Please login as a patient");
+            return;
+        }
+        if (tokens.length != 2 && tokens.length != 3) {
+            session.println("Please try again");
+            return;
+        }
 
-            Vaccine vaccine1 = new Vaccine.VaccineBuilder(vaccine, 0).build();
-            if(!vaccineSet.next()) {
-                System.out.println("Not enough doses");
+        String vaccine = tokens[1];
+        try {
+            Date date = tokens.length == 3 ? Date.valueOf(tokens[2]) : Date.valueOf(LocalDate.now());
+            Storage storage = StorageManager.getStorage();
+            // without stock no date will do, so skip the search
+            Integer doses = storage.getDoses(vaccine);
+            if (doses == null || doses <= 0) {
+                session.println("Not enough doses");
                 return;
             }
-            String updateVaccines = "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ?";
-            PreparedStatement decreaseDose = con.prepareStatement(updateVaccines);
-
-            String createAppointment = "INSERT INTO Appointments(Time, Name, PatientUsername, CaregiverUsername) " +
-                    "VALUES (?, ?, ?, ?)";
-
-            try {
-                PreparedStatement getAppointment = con.prepareStatement(createAppointment, Statement.RETURN_GENERATED_KEYS);
-
-                getAppointment.setString(1, date);
-                getAppointment.setString(2, vaccine);
-                getAppointment.setString(3, currentPatient.getUsername());
-
-                if (usernameExistsCaregiver(caregiver)) {
-                    getAppointment.setString(4, caregiver);
-
-                    int affectedRows = getAppointment.executeUpdate();
-
-                    if (affectedRows > 0) {
-                        ResultSet generatedKeys = getAppointment.getGeneratedKeys();
-
-                        deleteDate.setString(1, date);
-                        deleteDate.setString(2, caregiver);
-                        deleteDate.executeUpdate();
-
-                        decreaseDose.setString(1, vaccine);
-                        decreaseDose.executeUpdate();
-
-                        if (generatedKeys.next()) {
-                            int appointmentID = generatedKeys.getInt(1);
-                            System.out.println("Appointment ID " + appointmentID +
-                                    ", Caregiver username " + caregiver);
-                        } else {
-                            System.out.println("Please try again");
-                        }
-                    } else {
-                        System.out.println("Please try again");
-                    }
+            while ((date = storage.getEarliestAvailableDate(date)) != null) {
+                ReservationEngine.Reservation reservation = storage
+                        .reserve(session.getCurrentPatient().getUsername(), date, vaccine);
+                switch (reservation.getStatus()) {
+                    case RESERVED:
+                        session.println("Appointment ID " + reservation.getAppointmentId() +
+                                ", Caregiver username " + reservation.getCaregiverUsername() + ", Date " + date);
+                        return;
+                    case NO_DOSES:
+                        session.println("Not enough doses");
+                        return;
+                    default:
+                        date = Date.valueOf(date.toLocalDate().plusDays(1));
+                        break;
                 }
-            } catch (SQLException e) {
-                System.out.println("Please try again");
-                e.printStackTrace();
             }
+            session.println("No caregiver is available");
+        } catch (IllegalArgumentException e) {
+            session.println("Please try again");
+        } catch (SQLException e) {
+            session.println("Please try again");
+            e.printStackTrace();
+        }
+    }
 
+    // waitlist <date> | <from>..<to> <vaccine>: queues the patient for the first date in the range that
+    // gets a free caregiver, WaitlistMatcher books it and the appointment shows up in show_appointments
+    private static void waitlist(Session session, String[] tokens) {
+        if (session.getCurrentPatient() == null && session.getCurrentCaregiver() == null) {
+            session.println("Please login first");
+            return;
+        }
+        if (session.getCurrentPatient() == null) {
+            session.println("Please login as a patient");
+            return;
+        }
+        if (tokens.length != 3) {
+            session.println("Please try again");
+            return;
+        }
 
+        String vaccine = tokens[2];
+        try {
+            String[] range = tokens[1].split("\\.\\.");
+            if (range.length > 2) {
+                throw new IllegalArgumentException(tokens[1]);
+            }
+            Date from = Date.valueOf(range[0]);
+            Date to = Date.valueOf(range[range.length - 1]);
+            Storage storage = StorageManager.getStorage();
+            if (to.before(from) || storage.getDoses(vaccine) == null) {
+                session.println("Please try again");
+                return;
+            }
+            int id = storage.addToWaitlist(session.getCurrentPatient().getUsername(), from, to, vaccine);
+            // there may be room already
+            WaitlistMatcher.getInstance().signal();
+            session.println("Added to the waitlist with ID " + id);
+        } catch (IllegalArgumentException e) {
+            session.println("Please try again");
         } catch (SQLException e) {
-            System.out.println("Please try again");
+            session.println("Please try again");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    private static void uploadAvailability(String[] tokens) {
-        // upload_availability <date>
+    private static void uploadAvailability(Session session, String[] tokens) {
+        // upload_availability <date> | <from>..<to> | <date>,<date>,... | @<file>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.getCurrentCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
         if (tokens.length != 2) {
-            System.out.println("Please try again!");
+            session.println("Please try again!");
             return;
         }
         String date = tokens[1];
         try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
+            if (!isDateList(date)) {
+                Date d = Date.valueOf(date);
+                session.getCurrentCaregiver().uploadAvailability(d);
+                WaitlistMatcher.getInstance().signal();
+                session.println("Availability uploaded!");
+                return;
+            }
+            List<Date> dates = parseDates(date);
+            AvailabilityImporter.ImportResult result = session.getCurrentCaregiver().uploadAvailability(dates);
+            WaitlistMatcher.getInstance().signal();
+            session.println("Availability uploaded! (" + result + ")");
         } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            session.println("Please enter a valid date!");
+        } catch (IOException e) {
+            session.println("Could not read " + date.substring(1));
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
+            session.println("Error occurred when uploading availability");
             e.printStackTrace();
         }
     }
 
-    private static void cancel(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first");
+    private static void importAvailability(Session session, String[] tokens) {
+        // import_availability <file>, one "username,date" line per slot for any number of caregivers
+        if (session.getCurrentCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
             return;
         }
-
         if (tokens.length != 2) {
-            System.out.println("Please try again");
+            session.println("Please try again!");
             return;
         }
-
-        int id = Integer.parseInt(tokens[1]);
-
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        try {
-            String getDate = "";
-            String deleteAppointment = "";
-            if (currentCaregiver != null) {
-                getDate = "SELECT * FROM Appointments WHERE ID = ? AND CaregiverUsername = ?";
-                deleteAppointment = "DELETE FROM Appointments WHERE ID = ? AND CaregiverUsername = ?";
-            } else if (currentPatient != null) {
-                getDate = "SELECT * FROM Appointments WHERE ID = ? AND PatientUsername = ?";
-                deleteAppointment = "DELETE FROM Appointments WHERE ID = ? AND PatientUsername = ?";
-            }
-
-            PreparedStatement aptDate = con.prepareStatement(getDate);
-            aptDate.setInt(1, id);
-
-            if (currentCaregiver != null) {
-                aptDate.setString(2, currentCaregiver.getUsername());
-            } else if (currentPatient != null) {
-                aptDate.setString(2, currentPatient.getUsername());
+        List<AvailabilityImporter.Slot> slots = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(tokens[1]))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                try {
+                    slots.add(new AvailabilityImporter.Slot(fields[0].trim(), Date.valueOf(fields[1].trim())));
+                } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                    throw new IllegalArgumentException(line);
+                }
             }
+            AvailabilityImporter.ImportResult result = StorageManager.getStorage().addAvailabilities(slots);
+            WaitlistMatcher.getInstance().signal();
+            session.println("Availability imported! (" + result + ")");
+        } catch (IOException e) {
+            session.println("Could not read " + tokens[1]);
+        } catch (IllegalArgumentException e) {
+            session.println("Invalid line in " + tokens[1] + ": " + e.getMessage());
+        } catch (SQLException e) {
+            session.println("Error occurred when importing availability");
+            e.printStackTrace();
+        }
+    }
 
+    private static boolean isDateList(String spec) {
+        return spec.startsWith("@") || spec.contains("..") || spec.contains(",");
+    }
 
-            ResultSet rs = aptDate.executeQuery();
-
-            if (rs.next()) {
-                Date date = rs.getDate(2);
-                String vaccine = rs.getString(3);
-
-                PreparedStatement appointment = con.prepareStatement(deleteAppointment);
-                appointment.setInt(1, id);
-                if (currentCaregiver != null) {
-                    appointment.setString(2, currentCaregiver.getUsername());
-                } else if (currentPatient != null) {
-                    appointment.setString(2, currentPatient.getUsername());
+    // expands "<from>..<to>", "<date>,<date>,..." or "@<file>" (one date per line) into dates
+    private static List<Date> parseDates(String spec) throws IOException {
+        List<Date> dates = new ArrayList<>();
+        if (spec.startsWith("@")) {
+            for (String line : Files.readAllLines(Paths.get(spec.substring(1)))) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    dates.add(Date.valueOf(line));
                 }
+            }
+        } else if (spec.contains("..")) {
+            String[] range = spec.split("\\.\\.");
+            if (range.length != 2) {
+                throw new IllegalArgumentException(spec);
+            }
+            LocalDate from = Date.valueOf(range[0]).toLocalDate();
+            LocalDate to = Date.valueOf(range[1]).toLocalDate();
+            if (to.isBefore(from)) {
+                throw new IllegalArgumentException(spec);
+            }
+            for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+                dates.add(Date.valueOf(d));
+            }
+        } else {
+            for (String date : spec.split(",")) {
+                dates.add(Date.valueOf(date.trim()));
+            }
+        }
+        return dates;
+    }
 
-                String updateVaccines = "UPDATE Vaccines SET Doses = Doses + 1 WHERE Name = ?";
-                PreparedStatement decreaseDose = con.prepareStatement(updateVaccines);
-
-                decreaseDose.setString(1, vaccine);
-                decreaseDose.executeQuery();
-
-                int affectedRows = appointment.executeUpdate();
+    private static void cancel(Session session, String[] tokens) {
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            session.println("Please login first");
+            return;
+        }
 
-                if (affectedRows > 0) {
-                    System.out.println("Canceled appointment with ID " + id);
+        if (tokens.length != 2) {
+            session.println("Please try again");
+            return;
+        }
 
-                }
+        try {
+            int id = Integer.parseInt(tokens[1]);
+            boolean isCaregiver = session.getCurrentCaregiver() != null;
+            String username = isCaregiver ? session.getCurrentCaregiver().getUsername()
+                    : session.getCurrentPatient().getUsername();
+            // deletes the appointment and gives back its dose and caregiver slot in one transaction
+            if (StorageManager.getStorage().cancel(id, username, isCaregiver)) {
+                WaitlistMatcher.getInstance().signal();
+                session.println("Canceled appointment with ID " + id);
+            } else {
+                session.println("Please try again");
             }
+        } catch (NumberFormatException e) {
+            session.println("Please try again");
         } catch (SQLException e) {
-            System.out.println("Please try again");
+            session.println("Please try again");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
     }
 
 
-    private static void addDoses(String[] tokens) {
+    private static void addDoses(Session session, String[] tokens) {
         // add_doses <vaccine> <number>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.getCurrentCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            session.println("Please try again!");
             return;
         }
         String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
+        int doses;
+        try {
+            doses = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            session.println("Please try again!");
+            return;
+        }
+        if (doses <= 0) {
+            session.println("Please try again!");
+            return;
+        }
         Vaccine vaccine = null;
         try {
             vaccine = new Vaccine.VaccineGetter(vaccineName).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
+            session.println("Error occurred when adding doses");
             e.printStackTrace();
         }
         // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
@@ -515,7 +928,7 @@ public class Scheduler {
                 vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
                 vaccine.saveToDB();
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+                session.println("Error occurred when adding doses");
                 e.printStackTrace();
             }
         } else {
@@ -523,73 +936,207 @@ public class Scheduler {
             try {
                 vaccine.increaseAvailableDoses(doses);
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+                session.println("Error occurred when adding doses");
                 e.printStackTrace();
             }
         }
-        System.out.println("Doses updated!");
+        WaitlistMatcher.getInstance().signal();
+        session.println("Doses updated!");
     }
 
-    private static void showAppointments(String[] tokens) {
-        if (currentPatient == null && currentCaregiver == null) {
-            System.out.println("Please login first");
+    // show_appointments [from <date>] [to <date>] [after <id>] [limit <n>]
+    private static void showAppointments(Session session, String[] tokens) {
+        if (session.getCurrentPatient() == null && session.getCurrentCaregiver() == null) {
+            session.println("Please login first");
             return;
         }
 
-        if (tokens.length != 1) {
-            System.out.println("Please try again");
+        AppointmentQuery query = parseAppointmentQuery(session, tokens, 1, APPOINTMENT_PAGE_SIZE, false);
+        if (query == null) {
+            session.println("Please try again");
             return;
         }
 
-        // for all rows, output the ones with the date matching the string
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        try {
+            int[] shown = {0, 0};
+            AppointmentArchive.getInstance().forEachAppointment(query, a -> {
+                session.println(a.getId() + " " + a.getVaccineName() + " " + a.getTime() + " "
+                        + (query.isCaregiver() ? a.getPatientUsername() : a.getCaregiverUsername()));
+                shown[0]++;
+                shown[1] = a.getId();
+            });
+            if (query.getLimit() > 0 && shown[0] == query.getLimit()) {
+                // a full page, there may be more
+                session.println("More appointments: show_appointments " + pageArguments(query) + "after " + shown[1]
+                        + " limit " + query.getLimit());
+            }
+        } catch (SQLException e) {
+            session.println("Please try again");
+            e.printStackTrace();
+        }
+    }
+
+    // export_appointments <file> [from <date>] [to <date>], writes the whole history as CSV
+    private static void exportAppointments(Session session, String[] tokens) {
+        if (session.getCurrentPatient() == null && session.getCurrentCaregiver() == null) {
+            session.println("Please login first");
+            return;
+        }
+
+        AppointmentQuery query = tokens.length >= 2 ? parseAppointmentQuery(session, tokens, 2, 0, true) : null;
+        if (query == null || query.getAfterId() != 0 || query.getLimit() != 0) {
+            session.println("Please try again");
+            return;
+        }
+
+        long[] written = {0};
+        try (BufferedWriter out = Files.newBufferedWriter(Paths.get(tokens[1]))) {
+            out.write("id,vaccine,time,patient,caregiver");
+            out.newLine();
+            // live rows go straight from the result set to the file, so memory stays flat however long the history
+            AppointmentArchive.getInstance().forEachAppointment(query, a -> {
+                try {
+                    out.write(a.getId() + "," + a.getVaccineName() + "," + a.getTime() + ","
+                            + a.getPatientUsername() + "," + a.getCaregiverUsername());
+                    out.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                written[0]++;
+            });
+        } catch (IOException | UncheckedIOException e) {
+            session.println("Could not write " + tokens[1]);
+            return;
+        } catch (SQLException e) {
+            session.println("Please try again");
+            e.printStackTrace();
+            return;
+        }
+        session.println("Exported " + written[0] + " appointments to " + tokens[1]);
+    }
 
+    // reads the optional filter pairs starting at tokens[first], null if any of them is malformed;
+    // archived appointments are included for a date range or when history is set
+    private static AppointmentQuery parseAppointmentQuery(Session session, String[] tokens, int first,
+                                                          int defaultLimit, boolean history) {
+        boolean isCaregiver = session.getCurrentCaregiver() != null;
+        String username = isCaregiver ? session.getCurrentCaregiver().getUsername()
+                : session.getCurrentPatient().getUsername();
+        AppointmentQuery.AppointmentQueryBuilder builder = new AppointmentQuery.AppointmentQueryBuilder(username,
+                isCaregiver).limit(defaultLimit).archive(history);
+        if ((tokens.length - first) % 2 != 0) {
+            return null;
+        }
         try {
-            if(currentCaregiver != null) {
-                String appointment = "SELECT * FROM Appointments WHERE CaregiverUsername = ? ORDER BY ID";
-                PreparedStatement getAppointment = con.prepareStatement(appointment);
-                getAppointment.setString(1, currentCaregiver.getUsername());
-                ResultSet rs = getAppointment.executeQuery();
-
-                while (rs.next()) {
-                    System.out.println(rs.getInt(1) + " " + rs.getString(3) + " " +
-                            rs.getDate(2) + " " + rs.getString(4));
+            for (int i = first; i < tokens.length; i += 2) {
+                String value = tokens[i + 1];
+                switch (tokens[i]) {
+                    case "from":
+                        builder.from(Date.valueOf(value)).archive(true);
+                        break;
+                    case "to":
+                        builder.to(Date.valueOf(value)).archive(true);
+                        break;
+                    case "after":
+                        builder.after(Integer.parseInt(value));
+                        break;
+                    case "limit":
+                        int limit = Integer.parseInt(value);
+                        if (limit < 1) {
+                            return null;
+                        }
+                        builder.limit(limit);
+                        break;
+                    default:
+                        return null;
                 }
             }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return builder.build();
+    }
 
-            if(currentPatient != null) {
-                String appointment = "SELECT * FROM Appointments WHERE PatientUsername = ? ORDER BY ID";
-                PreparedStatement getAppointment = con.prepareStatement(appointment);
-                getAppointment.setString(1, currentPatient.getUsername());
-                ResultSet rs = getAppointment.executeQuery();
+    private static String pageArguments(AppointmentQuery query) {
+        String arguments = "";
+        if (query.getFrom() != null) {
+            arguments += "from " + query.getFrom() + " ";
+        }
+        if (query.getTo() != null) {
+            arguments += "to " + query.getTo() + " ";
+        }
+        return arguments;
+    }
 
-                while (rs.next()) {
-                    System.out.println(rs.getInt(1) + " " +  rs.getString(3) + " " +
-                            rs.getDate(2) + " " + rs.getString(5));
+    // booked doses per vaccine and caregiver slots per date, from the counters rather than the tables
+    private static void report(Session session, String[] tokens) {
+        if (session.getCurrentCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
+            return;
+        }
+        if (tokens.length != 3) {
+            session.println("Please try again");
+            return;
+        }
+        try {
+            Storage storage = StorageManager.getStorage();
+            for (DayCounts day : storage.getDayCounts(Date.valueOf(tokens[1]), Date.valueOf(tokens[2]))) {
+                int booked = 0;
+                StringBuilder vaccines = new StringBuilder();
+                for (Map.Entry<String, Integer> vaccine : day.getBooked().entrySet()) {
+                    booked += vaccine.getValue();
+                    vaccines.append(" ").append(vaccine.getKey()).append(" ").append(vaccine.getValue());
                 }
+                session.println(day.getDate() + " offered " + day.getOffered() + " free " + day.getFree()
+                        + " booked " + booked + vaccines);
             }
+            StringBuilder doses = new StringBuilder("Doses left:");
+            for (Map.Entry<String, Integer> vaccine : storage.getVaccines().entrySet()) {
+                doses.append(" ").append(vaccine.getKey()).append(" ").append(vaccine.getValue());
+            }
+            session.println(doses.toString());
+        } catch (IllegalArgumentException e) {
+            session.println("Please try again");
         } catch (SQLException e) {
-            System.out.println("Please try again");
+            session.println("Please try again");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    private static void logout(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first");
+    // latency percentiles per command and where the time went, database or password hashing
+    private static void stats(Session session, String[] tokens) {
+        if (tokens.length != 1) {
+            session.println("Please try again");
+            return;
+        }
+        for (String line : Metrics.getInstance().report()) {
+            session.println(line);
+        }
+        if (StorageManager.isJdbc() && ConnectionManager.isPoolingEnabled()) {
+            session.println(ConnectionManager.getPool().toString());
+            session.println(StatementCache.summary());
+        }
+        if (StorageManager.isJdbc() && ConnectionManager.getRouter() != null) {
+            session.println(ConnectionManager.getRouter().toString());
+        }
+        session.println(WaitlistMatcher.getInstance().toString());
+        if (AppointmentWriteBehind.getInstance().isActive()) {
+            session.println(AppointmentWriteBehind.getInstance().toString());
+        }
+    }
+
+    private static void logout(Session session, String[] tokens) {
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            session.println("Please login first");
         }
         if (tokens.length != 2) {
-            System.out.println("Please try again");
+            session.println("Please try again");
         } else {
             try {
-                currentPatient = null;
-                currentCaregiver = null;
-                System.out.println("Successfully logged out.");
+                session.logout();
+                session.println("Successfully logged out.");
             } catch (Exception e) {
-                System.out.println("Please try again");
+                session.println("Please try again");
                 e.printStackTrace();
             }
         }
@@ -0,0 +1,348 @@
+import scheduler.db.StorageManager;
+import scheduler.db.ThreadTransaction;
+import scheduler.model.AppointmentWriteBehind;
+import scheduler.model.AvailabilityCalendar;
+import scheduler.model.AvailabilityIndex;
+import scheduler.model.DoseInventory;
+import src.main.scheduler.util.PasswordHasher;
+import src.main.scheduler.util.Util;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Script mode for Scheduler: runs a command file (or stdin) without prompts and writes every
+// command's output to a file in the original order, followed by a throughput summary.
+// usage: java Scheduler --batch <script|-> [output]
+//
+// Lines are read ahead on a separate thread. Runs of consecutive add_doses, upload_availability and
+// create_* commands (up to BatchGroupSize) share one connection and one transaction, and the
+// passwords of the next group are hashed in the background while the current group runs. If any
+// statement in a group fails, the group is rolled back and its commands are replayed one at a time,
+// so the output is the same as running the script interactively.
+public class SchedulerBatch {
+
+    private static final int GROUP_SIZE = Util.getEnvInt("BatchGroupSize", 500);
+    private static final Set<String> GROUPABLE = new HashSet<>(Arrays.asList("create_patient", "create_caregiver",
+            "upload_availability", "add_doses"));
+    private static final String END = new String("end of script");
+
+    private final BlockingQueue<String> lines = new ArrayBlockingQueue<>(GROUP_SIZE * 4);
+    private final ExecutorService hashers = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "batch-hasher");
+                t.setDaemon(true);
+                return t;
+            });
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final Session session = new Session(new PrintStream(buffer, true));
+    private final OutputStream out;
+    private String lookahead = null;
+
+    private long commands = 0;
+    private long groups = 0;
+    private long replayedGroups = 0;
+
+    public SchedulerBatch(OutputStream out) {
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("usage: java Scheduler --batch <script|-> [output]");
+            return;
+        }
+        Scheduler.loadIndexes();
+        try (BufferedReader in = args[0].equals("-") ? new BufferedReader(new InputStreamReader(System.in))
+                : Files.newBufferedReader(Paths.get(args[0]));
+             OutputStream out = args.length == 2 ? new BufferedOutputStream(new FileOutputStream(args[1]))
+                     : new NonClosingStream(System.out)) {
+            SchedulerBatch batch = new SchedulerBatch(out);
+            batch.run(in);
+        } catch (IOException e) {
+            System.out.println("Batch failed: " + e.getMessage());
+        } finally {
+            Scheduler.shutdown();
+        }
+    }
+
+    public void run(BufferedReader in) throws IOException {
+        long start = System.nanoTime();
+        Thread reader = new Thread(() -> readAhead(in), "batch-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        List<String> group = nextGroup();
+        List<CompletableFuture<Credentials>> credentials = hashAhead(group);
+        while (group != null) {
+            List<String> next = nextGroup();
+            // overlap the next group's password hashing with this group's database work
+            List<CompletableFuture<Credentials>> nextCredentials = hashAhead(next);
+            if (!runGroup(group, credentials)) {
+                break;
+            }
+            group = next;
+            credentials = nextCredentials;
+        }
+        hashers.shutdownNow();
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        String summary = String.format("Batch finished: %d commands in %.3f s (%.1f commands/s), "
+                        + "%d grouped transactions, %d replayed one by one%n", commands, seconds,
+                seconds == 0 ? 0 : commands / seconds, groups, replayedGroups);
+        out.write(summary.getBytes());
+        out.flush();
+    }
+
+    // false once the script says quit
+    private boolean runGroup(List<String> group, List<CompletableFuture<Credentials>> credentials)
+            throws IOException {
+        try {
+            return execute(group, joinAll(credentials));
+        } finally {
+            session.clearCredentials();
+        }
+    }
+
+    private static List<Credentials> joinAll(List<CompletableFuture<Credentials>> credentials) {
+        List<Credentials> prepared = new ArrayList<>();
+        for (CompletableFuture<Credentials> future : credentials) {
+            Credentials entry = future.join();
+            if (entry != null) {
+                prepared.add(entry);
+            }
+        }
+        return prepared;
+    }
+
+    private boolean execute(List<String> group, List<Credentials> prepared) throws IOException {
+        // write-behind reservations never reach the group's transaction, so it could not roll them back
+        if (group.size() > 1 && StorageManager.isJdbc() && !AppointmentWriteBehind.getInstance().isActive()
+                && beginGroup()) {
+            groups++;
+            prepare(prepared);
+            for (String line : group) {
+                try {
+                    Scheduler.handle(session, line);
+                } catch (RuntimeException e) {
+                    // the command stopped halfway, roll the group back and replay it one by one
+                    ThreadTransaction.markFailed();
+                }
+            }
+            if (ThreadTransaction.end()) {
+                commands += group.size();
+                flush();
+                return true;
+            }
+            // something failed, throw away the group's output and run it again command by command
+            replayedGroups++;
+            buffer.reset();
+            reloadIndex();
+        }
+
+        prepare(prepared);
+        for (String line : group) {
+            commands++;
+            boolean keepGoing = handle(line);
+            flush();
+            if (!keepGoing) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // one command on its own, a RuntimeException from it is reported like bad input
+    private boolean handle(String line) {
+        try {
+            return Scheduler.handle(session, line);
+        } catch (RuntimeException e) {
+            session.println("Please try again!");
+            e.printStackTrace();
+            return true;
+        }
+    }
+
+    private boolean beginGroup() {
+        try {
+            ThreadTransaction.begin();
+            return true;
+        } catch (SQLException e) {
+            // run the commands on their own instead
+            return false;
+        }
+    }
+
+    private void prepare(List<Credentials> prepared) {
+        for (Credentials entry : prepared) {
+            session.prepareCredentials(entry.username, entry.password, entry.salt, entry.hash);
+        }
+    }
+
+    // the index and calendar were updated by commands whose inserts were just rolled back
+    private static void reloadIndex() {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        if (index.isLoaded()) {
+            try {
+                index.load();
+            } catch (SQLException e) {
+                System.out.println("Could not reload the availability index, searching the database instead");
+            }
+        }
+        AvailabilityCalendar calendar = AvailabilityCalendar.getInstance();
+        if (calendar.isLoaded()) {
+            try {
+                calendar.load();
+            } catch (SQLException e) {
+                System.out.println("Could not reload the availability calendar, searching the database instead");
+            }
+        }
+        // the counters may have followed changes the rollback undid, the table plus the journal has it right
+        DoseInventory inventory = DoseInventory.getInstance();
+        if (inventory.isActive()) {
+            try {
+                inventory.load();
+            } catch (SQLException e) {
+                System.out.println("Could not reload the dose inventory");
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.writeTo(out);
+        buffer.reset();
+    }
+
+    // a run of groupable commands, or a single other command, or null at the end of the script
+    private List<String> nextGroup() {
+        String first = lookahead != null ? lookahead : take();
+        lookahead = null;
+        if (first == END) {
+            return null;
+        }
+        List<String> group = new ArrayList<>();
+        group.add(first);
+        if (!isGroupable(first)) {
+            return group;
+        }
+        while (group.size() < GROUP_SIZE) {
+            String line = take();
+            if (line == END || !isGroupable(line)) {
+                lookahead = line;
+                break;
+            }
+            group.add(line);
+        }
+        return group;
+    }
+
+    private static boolean isGroupable(String line) {
+        String operation = line.split(" ", 2)[0];
+        if (operation.equals("add_doses") && DoseInventory.getInstance().isActive()) {
+            // the inventory follows the table once the command is done, a rollback could not take that back
+            return false;
+        }
+        return GROUPABLE.contains(operation);
+    }
+
+    // starts hashing the passwords of the group's create_* commands, a failed hash yields null
+    private List<CompletableFuture<Credentials>> hashAhead(List<String> group) {
+        List<CompletableFuture<Credentials>> futures = new ArrayList<>();
+        if (group == null || group.size() < 2) {
+            return futures;
+        }
+        for (String line : group) {
+            String[] tokens = line.split(" ");
+            if (tokens.length != 3 || !tokens[0].startsWith("create_")) {
+                continue;
+            }
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                byte[] salt = PasswordHasher.newSalt();
+                byte[] hash = PasswordHasher.hash(tokens[2], salt);
+                return new Credentials(tokens[1], tokens[2], salt, hash);
+            }, hashers).exceptionally(e -> null));
+        }
+        return futures;
+    }
+
+    private void readAhead(BufferedReader in) {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                lines.put(line);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read script: " + e.getMessage());
+        } catch (InterruptedException e) {
+            return;
+        }
+        try {
+            lines.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String take() {
+        try {
+            return lines.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return END;
+        }
+    }
+
+    private static class Credentials {
+        private final String username;
+        private final String password;
+        private final byte[] salt;
+        private final byte[] hash;
+
+        private Credentials(String username, String password, byte[] salt, byte[] hash) {
+            this.username = username;
+            this.password = password;
+            this.salt = salt;
+            this.hash = hash;
+        }
+    }
+
+    // lets try-with-resources flush System.out without closing it
+    private static class NonClosingStream extends FilterOutputStream {
+        private NonClosingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
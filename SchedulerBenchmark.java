@@ -0,0 +1,323 @@
+import scheduler.db.ConnectionManager;
+import scheduler.db.Storage;
+import scheduler.db.StorageManager;
+import scheduler.model.AvailabilityImporter;
+import scheduler.model.UserImporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs every Scheduler command path through Scheduler.handle against the configured storage,
+// Storage=memory or whatever database ConnectionManager points at, normally a local embedded one:
+//   JdbcUrl=jdbc:h2:mem:bench;MODE=MSSQLServer;DB_CLOSE_DELAY=-1 JdbcDriver=org.h2.Driver \
+//   java SchedulerBenchmark --caregivers 50 --dates 90 --appointments 10000 --threads 1,4,16
+// The schema is loaded from create.sql first and synthetic data is generated from the sizes given.
+// Each command reports ops/s and latency percentiles for every thread count.
+public class SchedulerBenchmark {
+
+    private static final String PASSWORD = "benchmark";
+    private static final String VACCINE = "benchvax";
+    private static final LocalDate FIRST_DATE = LocalDate.of(2030, 1, 1);
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    private static int caregivers = 20;
+    private static int patients = 50;
+    private static int dates = 30;
+    private static int appointments = 1000;
+    private static int[] threadCounts = {1, 4};
+    private static double warmupSeconds = 2;
+    private static double measureSeconds = 5;
+    private static String schema = "create.sql";
+    private static List<String> commands = new ArrayList<>(Arrays.asList("create_patient", "login_patient",
+            "search_caregiver_schedule", "reserve", "cancel", "add_doses", "show_appointments"));
+
+    private static final AtomicLong uniqueIds = new AtomicLong();
+
+    private interface Command {
+        // runs one operation and returns the nanoseconds that count towards the measurement
+        long run(BenchSession bench);
+    }
+
+    public static void main(String[] args) throws Exception {
+        parseArgs(args);
+        if (!schema.equals("none") && StorageManager.isJdbc()) {
+            loadSchema(Paths.get(schema));
+        }
+        seed();
+
+        Map<String, Command> paths = new LinkedHashMap<>();
+        paths.put("create_patient", bench -> timed(bench.anonymous,
+                "create_patient bench_new_" + uniqueIds.incrementAndGet() + " " + PASSWORD));
+        paths.put("login_patient", bench -> {
+            Session session = new Session(DISCARD);
+            return timed(session, "login_patient " + randomPatient() + " " + PASSWORD);
+        });
+        paths.put("search_caregiver_schedule", bench -> timed(bench.patient,
+                "search_caregiver_schedule " + randomDate()));
+        paths.put("reserve", bench -> timed(bench.patient, "reserve " + randomDate() + " " + VACCINE));
+        paths.put("cancel", bench -> {
+            // book something first, only the cancel is timed
+            Scheduler.handle(bench.patient, "reserve " + randomDate() + " " + VACCINE);
+            int id = bench.lastAppointmentId();
+            return id < 0 ? 0 : timed(bench.patient, "cancel " + id);
+        });
+        paths.put("add_doses", bench -> timed(bench.caregiver, "add_doses " + VACCINE + " 1"));
+        paths.put("show_appointments", bench -> timed(bench.patient, "show_appointments"));
+
+        System.out.printf("caregivers=%d patients=%d dates=%d appointments=%d%n",
+                caregivers, patients, dates, appointments);
+        System.out.printf("%-26s %7s %12s %10s %10s %10s %10s%n",
+                "command", "threads", "ops/s", "p50 us", "p90 us", "p99 us", "p99.9 us");
+        for (String name : commands) {
+            Command command = paths.get(name);
+            if (command == null) {
+                System.out.println("Unknown command " + name);
+                continue;
+            }
+            for (int threads : threadCounts) {
+                run(name, command, threads, warmupSeconds);
+                long[][] latencies = run(name, command, threads, measureSeconds);
+                report(name, threads, latencies);
+            }
+        }
+        Scheduler.shutdown();
+    }
+
+    private static long[][] run(String name, Command command, int threads, double seconds)
+            throws InterruptedException {
+        long[][] latencies = new long[threads][];
+        CountDownLatch done = new CountDownLatch(threads);
+        long end = System.nanoTime() + (long) (seconds * 1e9);
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Thread worker = new Thread(() -> {
+                BenchSession bench = new BenchSession();
+                long[] samples = new long[1024];
+                int count = 0;
+                while (System.nanoTime() < end) {
+                    long nanos = command.run(bench);
+                    if (count == samples.length) {
+                        samples = Arrays.copyOf(samples, count * 2);
+                    }
+                    samples[count++] = nanos;
+                }
+                latencies[id] = Arrays.copyOf(samples, count);
+                done.countDown();
+            }, "bench-" + name + "-" + t);
+            worker.start();
+        }
+        done.await();
+        return latencies;
+    }
+
+    private static void report(String name, int threads, long[][] latencies) {
+        int total = 0;
+        for (long[] samples : latencies) {
+            total += samples.length;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (long[] samples : latencies) {
+            System.arraycopy(samples, 0, all, offset, samples.length);
+            offset += samples.length;
+        }
+        Arrays.sort(all);
+        System.out.printf("%-26s %7d %12.1f %10.1f %10.1f %10.1f %10.1f%n", name, threads,
+                total / measureSeconds, percentile(all, 0.5), percentile(all, 0.9),
+                percentile(all, 0.99), percentile(all, 0.999));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e3;
+    }
+
+    private static long timed(Session session, String line) {
+        long start = System.nanoTime();
+        Scheduler.handle(session, line);
+        return System.nanoTime() - start;
+    }
+
+    private static String randomPatient() {
+        return "bench_pt_" + ThreadLocalRandom.current().nextInt(patients);
+    }
+
+    private static String randomDate() {
+        return FIRST_DATE.plusDays(ThreadLocalRandom.current().nextInt(dates)).toString();
+    }
+
+    // executes each ';'-separated statement of the schema file, tables that already exist are reported and skipped
+    private static void loadSchema(Path file) throws IOException {
+        String sql = new String(Files.readAllBytes(file));
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            for (String ddl : sql.split(";")) {
+                if (ddl.trim().isEmpty()) {
+                    continue;
+                }
+                try (Statement statement = con.createStatement()) {
+                    statement.execute(ddl);
+                } catch (SQLException e) {
+                    System.out.println("Skipped schema statement: " + e.getMessage());
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static void seed() throws IOException, SQLException {
+        Path users = Files.createTempFile("bench-users", ".csv");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < caregivers; i++) {
+            lines.add("caregiver,bench_cg_" + i + "," + PASSWORD);
+        }
+        for (int i = 0; i < patients; i++) {
+            lines.add("patient,bench_pt_" + i + "," + PASSWORD);
+        }
+        Files.write(users, lines);
+        System.out.println("seeded users: " + UserImporter.importFile(users));
+        Files.delete(users);
+
+        List<AvailabilityImporter.Slot> slots = new ArrayList<>();
+        for (int d = 0; d < dates; d++) {
+            for (int c = 0; c < caregivers; c++) {
+                slots.add(new AvailabilityImporter.Slot("bench_cg_" + c, Date.valueOf(FIRST_DATE.plusDays(d))));
+            }
+        }
+        Storage storage = StorageManager.getStorage();
+        System.out.println("seeded availability: " + storage.addAvailabilities(slots));
+        if (storage.getDoses(VACCINE) == null) {
+            storage.addVaccine(VACCINE, 1_000_000);
+        }
+        if (!StorageManager.isJdbc()) {
+            // the in-process storage has no way to insert past appointments, it starts without history
+            return;
+        }
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement appointment = con.prepareStatement(
+                    "INSERT INTO Appointments(Time, Name, PatientUsername, CaregiverUsername) VALUES (?, ?, ?, ?)");
+            for (int i = 0; i < appointments; i++) {
+                // history lies before the bookable dates so it doesn't use up their slots
+                appointment.setDate(1, Date.valueOf(FIRST_DATE.minusDays(1 + i % 365)));
+                appointment.setString(2, VACCINE);
+                appointment.setString(3, "bench_pt_" + i % patients);
+                appointment.setString(4, "bench_cg_" + i % caregivers);
+                appointment.addBatch();
+                if ((i + 1) % 1000 == 0) {
+                    appointment.executeBatch();
+                }
+            }
+            appointment.executeBatch();
+            con.commit();
+        } finally {
+            cm.closeConnection();
+        }
+        Scheduler.loadIndexes();
+    }
+
+    private static void parseArgs(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--caregivers":
+                    caregivers = Integer.parseInt(value);
+                    break;
+                case "--patients":
+                    patients = Integer.parseInt(value);
+                    break;
+                case "--dates":
+                    dates = Integer.parseInt(value);
+                    break;
+                case "--appointments":
+                    appointments = Integer.parseInt(value);
+                    break;
+                case "--threads":
+                    threadCounts = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "--warmup":
+                    warmupSeconds = Double.parseDouble(value);
+                    break;
+                case "--seconds":
+                    measureSeconds = Double.parseDouble(value);
+                    break;
+                case "--schema":
+                    schema = value;
+                    break;
+                case "--commands":
+                    commands = Arrays.asList(value.split(","));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+    }
+
+    // one logged-in patient and caregiver per benchmark thread, plus a session for create_*
+    private static class BenchSession {
+        private final CapturingStream patientOut = new CapturingStream();
+        private final Session patient = new Session(new PrintStream(patientOut, true));
+        private final Session caregiver = new Session(DISCARD);
+        private final Session anonymous = new Session(DISCARD);
+
+        private BenchSession() {
+            Scheduler.handle(patient, "login_patient " + randomPatient() + " " + PASSWORD);
+            Scheduler.handle(caregiver, "login_caregiver bench_cg_"
+                    + ThreadLocalRandom.current().nextInt(caregivers) + " " + PASSWORD);
+        }
+
+        // appointment ID printed by the most recent successful reserve, or -1
+        private int lastAppointmentId() {
+            String line = patientOut.lastLine();
+            if (line == null || !line.startsWith("Appointment ID ")) {
+                return -1;
+            }
+            return Integer.parseInt(line.substring("Appointment ID ".length(), line.indexOf(',')));
+        }
+    }
+
+    // keeps only the last complete line written, so reserve output can be parsed without buffering everything
+    private static class CapturingStream extends OutputStream {
+        private final StringBuilder current = new StringBuilder();
+        private String last = null;
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                last = current.toString().trim();
+                current.setLength(0);
+            } else {
+                current.append((char) b);
+            }
+        }
+
+        private String lastLine() {
+            return last;
+        }
+    }
+}
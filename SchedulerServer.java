@@ -0,0 +1,120 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Network mode for Scheduler: every TCP client gets its own Session and speaks the same
+// command grammar as the interactive prompt. All sessions share the connection pool.
+// usage: java Scheduler --server [port]
+public class SchedulerServer {
+
+    public static final int DEFAULT_PORT = 5050;
+
+    private final int port;
+    private final ExecutorService sessions = newSessionExecutor();
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private volatile ServerSocket serverSocket;
+
+    public SchedulerServer(int port) {
+        this.port = port;
+    }
+
+    public static void main(String[] args) {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        SchedulerServer server = new SchedulerServer(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        try {
+            server.serve();
+        } catch (IOException e) {
+            System.out.println("Server stopped: " + e.getMessage());
+        } finally {
+            Scheduler.shutdown();
+        }
+    }
+
+    public void serve() throws IOException {
+        Scheduler.loadIndexes();
+        serverSocket = new ServerSocket(port);
+        System.out.println("Scheduler server listening on port " + port);
+        while (!serverSocket.isClosed()) {
+            Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            sessions.execute(() -> runSession(client));
+        }
+    }
+
+    public void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        sessions.shutdownNow();
+    }
+
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    private void runSession(Socket client) {
+        activeSessions.incrementAndGet();
+        try (Socket socket = client;
+             BufferedReader r = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(socket.getOutputStream(), true, StandardCharsets.UTF_8)) {
+            Session session = new Session(out);
+            Scheduler.printGreeting(session);
+            while (true) {
+                session.print("> ");
+                out.flush();
+                String line = r.readLine();
+                // a closed connection ends the session just like quit
+                if (line == null) {
+                    return;
+                }
+                try {
+                    if (!Scheduler.handle(session, line)) {
+                        return;
+                    }
+                } catch (RuntimeException e) {
+                    // a bug in one command must not end the client's session
+                    session.println("Please try again!");
+                    e.printStackTrace();
+                }
+            }
+        } catch (IOException e) {
+            // the client went away, nothing to clean up beyond the socket
+        } finally {
+            activeSessions.decrementAndGet();
+        }
+    }
+
+    // One virtual thread per session when the runtime supports it (JDK 21+), otherwise a
+    // cached pool of platform threads so the server still runs on older JDKs.
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "scheduler-session");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
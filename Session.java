@@ -0,0 +1,101 @@
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+// Per-client state for a Scheduler session: the logged-in user and where command output goes.
+// Every command handler in Scheduler works against a Session so that many clients can share one JVM.
+public class Session {
+    private final PrintStream out;
+
+    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
+    //       since only one user can be logged-in per session
+    private Caregiver currentCaregiver = null;
+    private Patient currentPatient = null;
+    // when a command of this session last finished that may have written, for read replica routing
+    private long lastWriteMillis = 0;
+
+    // salt and hash computed ahead of a create_* command, keyed by username
+    private final Map<String, Credentials> preparedCredentials = new HashMap<>();
+
+    public Session(PrintStream out) {
+        this.out = out;
+    }
+
+    public PrintStream getOut() {
+        return out;
+    }
+
+    public void println(String line) {
+        out.println(line);
+    }
+
+    public void print(String text) {
+        out.print(text);
+    }
+
+    public Caregiver getCurrentCaregiver() {
+        return currentCaregiver;
+    }
+
+    public void setCurrentCaregiver(Caregiver caregiver) {
+        this.currentCaregiver = caregiver;
+    }
+
+    public Patient getCurrentPatient() {
+        return currentPatient;
+    }
+
+    public void setCurrentPatient(Patient patient) {
+        this.currentPatient = patient;
+    }
+
+    public long getLastWriteMillis() {
+        return lastWriteMillis;
+    }
+
+    public void setLastWriteMillis(long lastWriteMillis) {
+        this.lastWriteMillis = lastWriteMillis;
+    }
+
+    public boolean isLoggedIn() {
+        return currentCaregiver != null || currentPatient != null;
+    }
+
+    public void logout() {
+        currentCaregiver = null;
+        currentPatient = null;
+    }
+
+    public void prepareCredentials(String username, String password, byte[] salt, byte[] hash) {
+        preparedCredentials.put(username, new Credentials(password, salt, hash));
+    }
+
+    // {salt, hash} prepared for exactly this username and password, or null
+    public byte[][] takeCredentials(String username, String password) {
+        Credentials credentials = preparedCredentials.remove(username);
+        if (credentials == null || !credentials.password.equals(password)) {
+            return null;
+        }
+        return new byte[][]{credentials.salt, credentials.hash};
+    }
+
+    // drops whatever was prepared but not used, e.g. for a username that turned out to be taken
+    public void clearCredentials() {
+        preparedCredentials.clear();
+    }
+
+    private static class Credentials {
+        private final String password;
+        private final byte[] salt;
+        private final byte[] hash;
+
+        private Credentials(String password, byte[] salt, byte[] hash) {
+            this.password = password;
+            this.salt = salt;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Prepared statements of one pooled connection, keyed by SQL text and evicted least recently used
+// first. The driver and server parse and plan each statement once per connection instead of once
+// per command. Statements handed out here belong to the cache and must not be closed by callers;
+// they are closed on eviction or together with their connection.
+public class StatementCache {
+
+    // shared by every connection's cache
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements;
+
+    public StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= maxSize) {
+                    return false;
+                }
+                evictions.increment();
+                try {
+                    eldest.getValue().close();
+                } catch (SQLException e) {
+                    // it is no longer reachable either way
+                }
+                return true;
+            }
+        };
+    }
+
+    // a connection is only used by one borrower at a time, so no locking is needed
+    public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : sql;
+        PreparedStatement statement = statements.get(key);
+        if (statement != null && !statement.isClosed()) {
+            hits.increment();
+            // parameters and batches are left over from the previous borrower
+            statement.clearParameters();
+            statement.clearBatch();
+            return statement;
+        }
+        misses.increment();
+        statement = InstrumentedStatement.wrap(connection.prepareStatement(sql, autoGeneratedKeys), sql);
+        statements.put(key, statement);
+        return statement;
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    // Getters for metrics
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    public static long getEvictions() {
+        return evictions.sum();
+    }
+
+    public static double getHitRate() {
+        long total = hits.sum() + misses.sum();
+        return total == 0 ? 0 : (double) hits.sum() / total;
+    }
+
+    public static String summary() {
+        return "StatementCache{" +
+                "hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                ", hitRate=" + String.format("%.3f", getHitRate()) +
+                '}';
+    }
+}
@@ -0,0 +1,112 @@
+package scheduler.db;
+
+import scheduler.model.Appointment;
+import scheduler.model.AvailabilityImporter;
+import scheduler.model.Caregiver;
+import scheduler.model.DayCounts;
+import scheduler.model.Patient;
+import scheduler.model.ReservationEngine;
+import scheduler.model.WaitlistEntry;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// Everything the application reads and writes, covering the tables in create.sql.
+// JdbcStorage talks to the SQL database; MemoryStorage keeps the tables in process.
+// Pick one with StorageManager.
+public interface Storage {
+
+    // users, salt and hash as stored (trailing padding removed), or null if there is no such user
+    Patient getPatient(String username) throws SQLException;
+
+    Caregiver getCaregiver(String username) throws SQLException;
+
+    boolean patientExists(String username) throws SQLException;
+
+    boolean caregiverExists(String username) throws SQLException;
+
+    // the subset of usernames that are already taken
+    Set<String> findExistingPatients(Collection<String> usernames) throws SQLException;
+
+    Set<String> findExistingCaregivers(Collection<String> usernames) throws SQLException;
+
+    void savePatients(List<Patient> patients) throws SQLException;
+
+    void saveCaregivers(List<Caregiver> caregivers) throws SQLException;
+
+    // availabilities, adding a slot that already exists fails
+    void addAvailability(Date date, String caregiverUsername) throws SQLException;
+
+    // many slots at once, slots that already exist are skipped
+    AvailabilityImporter.ImportResult addAvailabilities(List<AvailabilityImporter.Slot> slots) throws SQLException;
+
+    // caregivers free on the date, ordered by username
+    List<String> getAvailableCaregivers(Date date) throws SQLException;
+
+    // the number of caregivers free on every date from..to that has any, in date order
+    void forEachAvailableCount(Date from, Date to, BiConsumer<Date, Integer> action) throws SQLException;
+
+    // the first date on or after notBefore with a free caregiver, null if there is none
+    Date getEarliestAvailableDate(Date notBefore) throws SQLException;
+
+    // the dates from..to with at least minCaregivers free caregivers, in date order
+    List<Date> getDaysWithCaregivers(Date from, Date to, int minCaregivers) throws SQLException;
+
+    // the caregivers free on every one of the dates, ordered by username
+    List<String> getCaregiversFreeOnAll(Collection<Date> dates) throws SQLException;
+
+    // vaccines, getDoses returns null for an unknown vaccine
+    Integer getDoses(String vaccineName) throws SQLException;
+
+    // doses per vaccine ordered by name
+    Map<String, Integer> getVaccines() throws SQLException;
+
+    void addVaccine(String vaccineName, int doses) throws SQLException;
+
+    void addDoses(String vaccineName, int doses) throws SQLException;
+
+    // false if fewer than the requested doses are available
+    boolean removeDoses(String vaccineName, int doses) throws SQLException;
+
+    // appointments
+    ReservationEngine.Reservation reserve(String patientUsername, Date date, String vaccineName)
+            throws SQLException;
+
+    boolean cancel(int appointmentId, String username, boolean isCaregiver) throws SQLException;
+
+    // the waitlist, served first come, first served by WaitlistMatcher; returns the new entry's ID
+    int addToWaitlist(String patientUsername, Date from, Date to, String vaccineName) throws SQLException;
+
+    // entries with an ID greater than afterId in ID order, at most limit of them
+    List<WaitlistEntry> getWaitlist(int afterId, int limit) throws SQLException;
+
+    // false if the entry was already gone
+    boolean removeFromWaitlist(int id) throws SQLException;
+
+    // reserve for the entry on the date and take it off the waitlist in one step, NOT_WAITING if it is gone
+    ReservationEngine.Reservation reserveWaitlisted(WaitlistEntry entry, Date date) throws SQLException;
+
+    // a caregiver's or patient's appointments in ID order, streamed to the action as they are read
+    void forEachAppointment(AppointmentQuery query, Consumer<Appointment> action) throws SQLException;
+
+    // the per-date slot and booking counters from..to, see DailyCounters
+    List<DayCounts> getDayCounts(Date from, Date to) throws SQLException;
+
+    // the earliest appointment date, null without appointments
+    Date getFirstAppointmentDate() throws SQLException;
+
+    // every appointment with from <= Time < to, in no particular order, for AppointmentArchive
+    void forEachAppointmentBetween(Date from, Date to, Consumer<Appointment> action) throws SQLException;
+
+    // deletes at most limit appointments with from <= Time < to without giving back their slot or dose,
+    // returns how many went
+    int deleteAppointments(Date from, Date to, int limit) throws SQLException;
+
+    void close();
+}
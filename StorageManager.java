@@ -0,0 +1,59 @@
+package scheduler.db;
+
+import src.main.scheduler.util.Util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
+// Chooses the storage backend once per JVM. Storage=jdbc (the default) uses the SQL database
+// from ConnectionManager; Storage=memory keeps the tables in process, journaled under StorageDir.
+public class StorageManager {
+
+    private static final String BACKEND = System.getenv("Storage") != null ? System.getenv("Storage") : "jdbc";
+    private static final String DIRECTORY = System.getenv("StorageDir") != null ? System.getenv("StorageDir")
+            : "scheduler-data";
+
+    private static volatile Storage storage = null;
+
+    public static Storage getStorage() {
+        Storage s = storage;
+        if (s == null) {
+            synchronized (StorageManager.class) {
+                s = storage;
+                if (s == null) {
+                    s = create();
+                    storage = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    public static boolean isJdbc() {
+        return !BACKEND.equalsIgnoreCase("memory");
+    }
+
+    // flushes and closes the backend, called when the application quits
+    public static void shutdown() {
+        synchronized (StorageManager.class) {
+            if (storage != null) {
+                storage.close();
+                storage = null;
+            } else if (isJdbc()) {
+                ConnectionManager.shutdown();
+            }
+        }
+    }
+
+    private static Storage create() {
+        if (isJdbc()) {
+            return new JdbcStorage();
+        }
+        try {
+            return new MemoryStorage(Paths.get(DIRECTORY), Util.getEnvBoolean("JournalSync", true));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open storage in " + DIRECTORY, e);
+        }
+    }
+}
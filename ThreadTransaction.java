@@ -0,0 +1,138 @@
+package scheduler.db;
+
+import src.main.scheduler.util.Util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+// Groups everything the current thread does through ConnectionManager into one connection and one
+// transaction, so a run of small commands pays for a single borrow and commit. While a transaction
+// is pinned, createConnection hands out the same connection, and the commit, setAutoCommit and close
+// calls made by the code that uses it are ignored. A rollback or a failed statement marks the whole
+// group as failed instead, and end() then rolls everything back so the caller can replay the
+// commands one at a time.
+public class ThreadTransaction {
+
+    private static final int STATEMENT_CACHE_SIZE = Util.getEnvInt("StatementCacheSize", 64);
+    private static final ThreadLocal<ThreadTransaction> CURRENT = new ThreadLocal<>();
+
+    private final ConnectionPool.PooledConnection pooled;
+    private final Connection connection;
+    private final Connection shared;
+    private final StatementCache statements;
+    private boolean failed = false;
+
+    private ThreadTransaction(ConnectionPool.PooledConnection pooled, Connection connection) {
+        this.pooled = pooled;
+        this.connection = connection;
+        this.statements = pooled != null ? pooled.getStatementCache()
+                : new StatementCache(connection, STATEMENT_CACHE_SIZE);
+        this.shared = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "setAutoCommit":
+                        case "commit":
+                        case "close":
+                            // the group decides when to commit and release
+                            return null;
+                        case "rollback":
+                            if (args == null) {
+                                failed = true;
+                                return null;
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    public static void begin() throws SQLException {
+        if (CURRENT.get() != null) {
+            throw new IllegalStateException("A transaction is already pinned to this thread");
+        }
+        ConnectionPool.PooledConnection pooled = null;
+        Connection connection;
+        if (ConnectionManager.isPoolingEnabled()) {
+            pooled = ConnectionManager.getPool().borrow();
+            connection = pooled.getConnection();
+        } else {
+            connection = ConnectionManager.openPhysicalConnection();
+        }
+        try {
+            connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            release(pooled, connection);
+            throw e;
+        }
+        CURRENT.set(new ThreadTransaction(pooled, connection));
+    }
+
+    // commits unless something in the group failed, returns whether it committed
+    public static boolean end() {
+        ThreadTransaction tx = CURRENT.get();
+        if (tx == null) {
+            throw new IllegalStateException("No transaction is pinned to this thread");
+        }
+        CURRENT.remove();
+        InstrumentedStatement.commitPendingEvents();
+        boolean committed = false;
+        try {
+            if (!tx.failed) {
+                tx.connection.commit();
+                committed = true;
+            } else {
+                tx.connection.rollback();
+            }
+        } catch (SQLException e) {
+            try {
+                tx.connection.rollback();
+            } catch (SQLException ignored) {
+                // the pool discards connections it cannot reset
+            }
+        } finally {
+            release(tx.pooled, tx.connection);
+        }
+        return committed;
+    }
+
+    static ThreadTransaction current() {
+        return CURRENT.get();
+    }
+
+    // called when a statement fails on this thread, or a command on it stops with an exception
+    public static void markFailed() {
+        ThreadTransaction tx = CURRENT.get();
+        if (tx != null) {
+            tx.failed = true;
+        }
+    }
+
+    Connection getConnection() {
+        return shared;
+    }
+
+    PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        return statements.prepare(sql, autoGeneratedKeys);
+    }
+
+    private static void release(ConnectionPool.PooledConnection pooled, Connection connection) {
+        if (pooled != null) {
+            ConnectionManager.getPool().release(pooled);
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package scheduler.model;
+
+import scheduler.db.Storage;
+import scheduler.db.StorageManager;
+import src.main.scheduler.util.PasswordHasher;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Creates many patients and caregivers at once from a CSV of "patient|caregiver,username,password".
+// Existing usernames are looked up in one call per table instead of one query per user, passwords
+// are hashed in parallel on a fork/join pool sized to the machine, and the users are saved in bulk
+// (JDBC batches in one transaction with the SQL backend).
+public class UserImporter {
+
+    // below this many users a hashing task runs on its own thread instead of splitting further
+    private static final int HASH_GRAIN = 16;
+
+    private static final ForkJoinPool HASH_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    public static ImportResult importFile(Path file) throws IOException, SQLException {
+        List<NewUser> patients = new ArrayList<>();
+        List<NewUser> caregivers = new ArrayList<>();
+        Set<String> seenPatients = new HashSet<>();
+        Set<String> seenCaregivers = new HashSet<>();
+        int duplicates = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",", 3);
+                if (fields.length != 3 || fields[1].trim().isEmpty() || fields[2].isEmpty()) {
+                    throw new IllegalArgumentException(line);
+                }
+                String type = fields[0].trim();
+                NewUser user = new NewUser(fields[1].trim(), fields[2]);
+                if (type.equals("patient")) {
+                    if (seenPatients.add(user.username)) {
+                        patients.add(user);
+                    } else {
+                        duplicates++;
+                    }
+                } else if (type.equals("caregiver")) {
+                    if (seenCaregivers.add(user.username)) {
+                        caregivers.add(user);
+                    } else {
+                        duplicates++;
+                    }
+                } else {
+                    throw new IllegalArgumentException(line);
+                }
+            }
+        }
+        return importUsers(patients, caregivers, duplicates);
+    }
+
+    private static ImportResult importUsers(List<NewUser> patients, List<NewUser> caregivers, int duplicates)
+            throws SQLException {
+        long start = System.nanoTime();
+        int requested = patients.size() + caregivers.size() + duplicates;
+
+        Storage storage = StorageManager.getStorage();
+        Set<String> takenPatients = storage.findExistingPatients(usernames(patients));
+        Set<String> takenCaregivers = storage.findExistingCaregivers(usernames(caregivers));
+        patients.removeIf(user -> takenPatients.contains(user.username));
+        caregivers.removeIf(user -> takenCaregivers.contains(user.username));
+
+        long hashStart = System.nanoTime();
+        List<NewUser> all = new ArrayList<>(patients);
+        all.addAll(caregivers);
+        HASH_POOL.invoke(new HashTask(all, 0, all.size()));
+        long hashNanos = System.nanoTime() - hashStart;
+
+        List<Patient> newPatients = new ArrayList<>();
+        for (NewUser user : patients) {
+            newPatients.add(new Patient.PatientBuilder(user.username, user.salt, user.hash).build());
+        }
+        List<Caregiver> newCaregivers = new ArrayList<>();
+        for (NewUser user : caregivers) {
+            newCaregivers.add(new Caregiver.CaregiverBuilder(user.username, user.salt, user.hash).build());
+        }
+        storage.savePatients(newPatients);
+        storage.saveCaregivers(newCaregivers);
+
+        return new ImportResult(requested, patients.size(), caregivers.size(),
+                takenPatients.size() + takenCaregivers.size(), duplicates, hashNanos, System.nanoTime() - start);
+    }
+
+    private static List<String> usernames(List<NewUser> users) {
+        List<String> usernames = new ArrayList<>();
+        for (NewUser user : users) {
+            usernames.add(user.username);
+        }
+        return usernames;
+    }
+
+    private static class HashTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<NewUser> users;
+        private final int from;
+        private final int to;
+
+        private HashTask(List<NewUser> users, int from, int to) {
+            this.users = users;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= HASH_GRAIN) {
+                for (int i = from; i < to; i++) {
+                    NewUser user = users.get(i);
+                    user.salt = PasswordHasher.newSalt();
+                    // already bounded by the fork/join pool, so not routed through the login executor
+                    user.hash = PasswordHasher.hash(user.password, user.salt);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new HashTask(users, from, mid), new HashTask(users, mid, to));
+        }
+    }
+
+    private static class NewUser {
+        private final String username;
+        private final String password;
+        private byte[] salt;
+        private byte[] hash;
+
+        private NewUser(String username, String password) {
+            this.username = username;
+            this.password = password;
+        }
+    }
+
+    public static class ImportResult {
+        private final int requested;
+        private final int patientsCreated;
+        private final int caregiversCreated;
+        private final int usernamesTaken;
+        private final int duplicates;
+        private final long hashNanos;
+        private final long elapsedNanos;
+
+        private ImportResult(int requested, int patientsCreated, int caregiversCreated, int usernamesTaken,
+                             int duplicates, long hashNanos, long elapsedNanos) {
+            this.requested = requested;
+            this.patientsCreated = patientsCreated;
+            this.caregiversCreated = caregiversCreated;
+            this.usernamesTaken = usernamesTaken;
+            this.duplicates = duplicates;
+            this.hashNanos = hashNanos;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getCreated() {
+            return patientsCreated + caregiversCreated;
+        }
+
+        public int getRequested() {
+            return requested;
+        }
+
+        public double getUsersPerSecond() {
+            return elapsedNanos == 0 ? 0 : getCreated() / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return patientsCreated + " patients and " + caregiversCreated + " caregivers created, " +
+                    usernamesTaken + " usernames taken, " + duplicates + " duplicates in file, " +
+                    String.format("%.1f users/s (hashing %.0f ms of %.0f ms)",
+                            getUsersPerSecond(), hashNanos / 1e6, elapsedNanos / 1e6);
+        }
+    }
+}
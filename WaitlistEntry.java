@@ -0,0 +1,42 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+// A patient waiting for any date from..to with a caregiver and a dose of the vaccine.
+// IDs grow in the order patients joined, so ID order is first come, first served.
+public class WaitlistEntry {
+    private final int id;
+    private final String patientUsername;
+    private final Date from;
+    private final Date to;
+    private final String vaccineName;
+
+    public WaitlistEntry(int id, String patientUsername, Date from, Date to, String vaccineName) {
+        this.id = id;
+        this.patientUsername = patientUsername;
+        this.from = from;
+        this.to = to;
+        this.vaccineName = vaccineName;
+    }
+
+    // Getters
+    public int getId() {
+        return id;
+    }
+
+    public String getPatientUsername() {
+        return patientUsername;
+    }
+
+    public Date getFrom() {
+        return from;
+    }
+
+    public Date getTo() {
+        return to;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+}
@@ -0,0 +1,124 @@
+package scheduler.model;
+
+import scheduler.db.Storage;
+import scheduler.db.StorageManager;
+import src.main.scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Books waitlisted patients into capacity as it appears. Commands that add capacity (uploaded
+// availability, new doses, cancellations) and new waitlist entries call signal(), which queues one
+// pass on a background thread; signals that arrive while a pass is queued fold into it, so a burst of
+// uploads costs one pass. A pass reads the waitlist in ID order, WaitlistBatch entries per query, and
+// gives each entry the earliest date in its range that still has a caregiver. Reserving and taking the
+// entry off happen in one transaction, see Storage.reserveWaitlisted. Entries whose range has passed
+// are dropped.
+public class WaitlistMatcher {
+
+    private static final boolean ENABLED = Util.getEnvBoolean("WaitlistMatcher", true);
+    private static final int BATCH = Util.getEnvInt("WaitlistBatch", 100);
+
+    private static final WaitlistMatcher INSTANCE = new WaitlistMatcher();
+
+    private final AtomicBoolean queued = new AtomicBoolean(false);
+    private final LongAdder passes = new LongAdder();
+    private final LongAdder matched = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private ExecutorService worker = null;
+
+    public static WaitlistMatcher getInstance() {
+        return INSTANCE;
+    }
+
+    // capacity or a waiting patient was added, match in the background unless a pass is already queued
+    public void signal() {
+        if (ENABLED && queued.compareAndSet(false, true)) {
+            worker().execute(this::run);
+        }
+    }
+
+    // one pass over the whole waitlist, returns how many entries got an appointment
+    public int match() throws SQLException {
+        Storage storage = StorageManager.getStorage();
+        Date today = Date.valueOf(LocalDate.now());
+        // out of stock for this pass, later entries for them are not tried
+        Set<String> noDoses = new HashSet<>();
+        int booked = 0;
+        int afterId = 0;
+        List<WaitlistEntry> batch;
+        do {
+            batch = storage.getWaitlist(afterId, BATCH);
+            for (WaitlistEntry entry : batch) {
+                afterId = entry.getId();
+                if (entry.getTo().before(today)) {
+                    if (storage.removeFromWaitlist(entry.getId())) {
+                        expired.increment();
+                    }
+                } else if (!noDoses.contains(entry.getVaccineName())) {
+                    ReservationEngine.Status status = book(storage, entry, today);
+                    if (status == ReservationEngine.Status.RESERVED) {
+                        booked++;
+                    } else if (status == ReservationEngine.Status.NO_DOSES) {
+                        noDoses.add(entry.getVaccineName());
+                    }
+                }
+            }
+        } while (batch.size() == BATCH);
+        passes.increment();
+        matched.add(booked);
+        return booked;
+    }
+
+    // the earliest date in the entry's range (not before today) that can still be booked
+    private static ReservationEngine.Status book(Storage storage, WaitlistEntry entry, Date today)
+            throws SQLException {
+        Date date = entry.getFrom().before(today) ? today : entry.getFrom();
+        while ((date = storage.getEarliestAvailableDate(date)) != null && !date.after(entry.getTo())) {
+            ReservationEngine.Reservation reservation = storage.reserveWaitlisted(entry, date);
+            if (reservation.getStatus() != ReservationEngine.Status.NO_CAREGIVER) {
+                return reservation.getStatus();
+            }
+            // the last caregiver went to someone else, try the next day
+            date = Date.valueOf(date.toLocalDate().plusDays(1));
+        }
+        return ReservationEngine.Status.NO_CAREGIVER;
+    }
+
+    private void run() {
+        // cleared first, so a signal during the pass queues another one
+        queued.set(false);
+        try {
+            match();
+        } catch (SQLException e) {
+            failures.increment();
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized ExecutorService worker() {
+        if (worker == null) {
+            worker = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "waitlist-matcher");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return worker;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Waitlist matcher: passes=%d matched=%d expired=%d failures=%d",
+                passes.sum(), matched.sum(), expired.sum(), failures.sum());
+    }
+}
@@ -15,7 +15,7 @@ CREATE TABLE Patients (
 CREATE TABLE Availabilities (
     Time date,
     Username varchar(255) REFERENCES Caregivers,
-    PRIMARY KEY (Time, Username)
+    CONSTRAINT PK_Availabilities PRIMARY KEY (Time, Username)
 );
 
 CREATE TABLE Vaccines (
@@ -24,11 +24,91 @@ CREATE TABLE Vaccines (
     PRIMARY KEY (Name)
 );
 
+-- clustered on (Time, ID) so the table can be partitioned by date. The key only makes (Time, ID) unique,
+-- UX_Appointments_ID below keeps ID unique on its own
 CREATE TABLE Appointments (
     ID int IDENTITY(1, 1),
+    Time date NOT NULL,
+    Name varchar(255) REFERENCES Vaccines,
+    PatientUsername varchar(255) REFERENCES Patients(Username),
+    CaregiverUsername varchar(255) REFERENCES Caregivers(Username),
+    CONSTRAINT PK_Appointments PRIMARY KEY (Time, ID)
+);
+
+-- per-date counters kept by DailyCounters in the same transactions as the rows they count
+CREATE TABLE DailyCapacity (
+    Time date,
+    Offered int NOT NULL,
+    Free int NOT NULL,
+    PRIMARY KEY (Time)
+);
+
+CREATE TABLE DailyBookings (
     Time date,
     Name varchar(255) REFERENCES Vaccines,
+    Booked int NOT NULL,
+    PRIMARY KEY (Time, Name)
+);
+
+-- patients waiting for a slot, served in ID order by WaitlistMatcher
+CREATE TABLE Waitlist (
+    ID int IDENTITY(1, 1),
     PatientUsername varchar(255) REFERENCES Patients(Username),
-    CaregiverUsername varchar(255) REFERENCES Caregivers(Username)
+    FromDate date NOT NULL,
+    ToDate date NOT NULL,
+    Name varchar(255) REFERENCES Vaccines,
+    CreatedAt datetime DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (ID)
+);
+
+-- each scheduler process's last heartbeat on the primary, read on each read replica to measure how far
+-- behind it is
+CREATE TABLE ReplicaHeartbeat (
+    ID int,
+    Beat bigint NOT NULL,
     PRIMARY KEY (ID)
 );
+
+-- the last dose journal record DoseInventory has written to Vaccines, see DoseInventory.recover
+CREATE TABLE DoseFlush (
+    ID int,
+    Seq bigint NOT NULL,
+    PRIMARY KEY (ID)
+);
+
+-- which migrations this database has, see MigrationRunner. create.sql is the schema as of version 8
+CREATE TABLE SchemaVersion (
+    Version int,
+    Description varchar(255),
+    AppliedAt datetime DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (Version)
+);
+
+INSERT INTO SchemaVersion (Version, Description) VALUES (8, 'create.sql');
+
+-- monthly partitions by date, SQL Server only: other databases skip the partitioning statements and
+-- keep unpartitioned tables. MigrationRunner adds a boundary for every month up to PartitionMonthsAhead.
+CREATE PARTITION FUNCTION DateMonthly (date) AS RANGE RIGHT FOR VALUES ('2021-01-01');
+
+CREATE PARTITION SCHEME DateMonthlyScheme AS PARTITION DateMonthly ALL TO ([PRIMARY]);
+
+CREATE UNIQUE CLUSTERED INDEX PK_Availabilities ON Availabilities (Time, Username)
+    WITH (DROP_EXISTING = ON) ON DateMonthlyScheme (Time);
+
+CREATE UNIQUE CLUSTERED INDEX PK_Appointments ON Appointments (Time, ID)
+    WITH (DROP_EXISTING = ON) ON DateMonthlyScheme (Time);
+
+-- created after partitioning so they are aligned with it
+-- show_appointments and cancel: seek on the owner, then ID, the clustered key supplies Time
+CREATE INDEX IX_Appointments_Caregiver ON Appointments (CaregiverUsername, ID) INCLUDE (Name, PatientUsername);
+
+CREATE INDEX IX_Appointments_Patient ON Appointments (PatientUsername, ID) INCLUDE (Name, CaregiverUsername);
+
+-- ID on its own is unique. A unique index aligned with the partitions would have to include Time and
+-- then only enforce (Time, ID) again, so this one is kept on PRIMARY. A non-aligned index rules out
+-- partition switching, AppointmentArchive deletes old rows in batches and does not switch.
+-- It also serves cancel's seek on ID.
+CREATE UNIQUE NONCLUSTERED INDEX UX_Appointments_ID ON Appointments (ID) ON [PRIMARY];
+
+-- a caregiver's own availability, and the foreign key check when a caregiver is removed
+CREATE INDEX IX_Availabilities_Username ON Availabilities (Username, Time);
@@ -0,0 +1,6 @@
+-- covering indexes for the appointment lookups of show_appointments and cancel, which scanned the table
+CREATE INDEX IX_Appointments_Caregiver ON Appointments (CaregiverUsername, ID) INCLUDE (Time, Name, PatientUsername);
+
+CREATE INDEX IX_Appointments_Patient ON Appointments (PatientUsername, ID) INCLUDE (Time, Name, CaregiverUsername);
+
+CREATE INDEX IX_Availabilities_Username ON Availabilities (Username, Time);
@@ -0,0 +1,5 @@
+-- monthly partitions by date. MigrationRunner splits in the months up to PartitionMonthsAhead right after
+-- this, while the tables are still unpartitioned and no rows have to move
+CREATE PARTITION FUNCTION DateMonthly (date) AS RANGE RIGHT FOR VALUES ('2021-01-01');
+
+CREATE PARTITION SCHEME DateMonthlyScheme AS PARTITION DateMonthly ALL TO ([PRIMARY]);
@@ -0,0 +1,36 @@
+-- moves Availabilities and Appointments onto the monthly partitions. The primary keys created by the
+-- original create.sql have generated names, so they are looked up. Appointments is clustered on
+-- (Time, ID) from now on, the partitioning column has to be part of the clustered key.
+DROP INDEX IX_Availabilities_Username ON Availabilities;
+
+DROP INDEX IX_Appointments_Caregiver ON Appointments;
+
+DROP INDEX IX_Appointments_Patient ON Appointments;
+
+DECLARE @pk sysname = (SELECT name FROM sys.key_constraints
+                       WHERE parent_object_id = OBJECT_ID('Availabilities') AND type = 'PK')
+EXEC ('ALTER TABLE Availabilities DROP CONSTRAINT ' + @pk);
+
+ALTER TABLE Availabilities ADD CONSTRAINT PK_Availabilities PRIMARY KEY CLUSTERED (Time, Username)
+    ON DateMonthlyScheme (Time);
+
+DECLARE @pk sysname = (SELECT name FROM sys.key_constraints
+                       WHERE parent_object_id = OBJECT_ID('Appointments') AND type = 'PK')
+EXEC ('ALTER TABLE Appointments DROP CONSTRAINT ' + @pk);
+
+ALTER TABLE Appointments ALTER COLUMN Time date NOT NULL;
+
+ALTER TABLE Appointments ADD CONSTRAINT PK_Appointments PRIMARY KEY CLUSTERED (Time, ID)
+    ON DateMonthlyScheme (Time);
+
+-- recreated aligned with the partitions, the clustered key now supplies Time
+CREATE INDEX IX_Appointments_Caregiver ON Appointments (CaregiverUsername, ID) INCLUDE (Name, PatientUsername);
+
+CREATE INDEX IX_Appointments_Patient ON Appointments (PatientUsername, ID) INCLUDE (Name, CaregiverUsername);
+
+-- the new key only makes (Time, ID) unique. An aligned unique index would have to include Time as well,
+-- so the one on ID stays on PRIMARY, not aligned. AppointmentArchive deletes rather than switches
+-- partitions, so nothing needs every index aligned.
+CREATE UNIQUE NONCLUSTERED INDEX UX_Appointments_ID ON Appointments (ID) ON [PRIMARY];
+
+CREATE INDEX IX_Availabilities_Username ON Availabilities (Username, Time);
@@ -0,0 +1,25 @@
+-- per-date counters for the report command, filled from the current tables once and kept up to date
+-- by DailyCounters from then on. Slots already booked count as offered but not free.
+CREATE TABLE DailyCapacity (
+    Time date,
+    Offered int NOT NULL,
+    Free int NOT NULL,
+    PRIMARY KEY (Time)
+);
+
+CREATE TABLE DailyBookings (
+    Time date,
+    Name varchar(255) REFERENCES Vaccines,
+    Booked int NOT NULL,
+    PRIMARY KEY (Time, Name)
+);
+
+INSERT INTO DailyBookings (Time, Name, Booked)
+SELECT Time, Name, COUNT(*) FROM Appointments GROUP BY Time, Name;
+
+INSERT INTO DailyCapacity (Time, Offered, Free)
+SELECT Time, SUM(Offered), SUM(Free) FROM (
+    SELECT Time, COUNT(*) AS Offered, COUNT(*) AS Free FROM Availabilities GROUP BY Time
+    UNION ALL
+    SELECT Time, COUNT(*), 0 FROM Appointments GROUP BY Time
+) slots GROUP BY Time;
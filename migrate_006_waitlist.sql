@@ -0,0 +1,10 @@
+-- patients waiting for a slot, served in ID order by WaitlistMatcher
+CREATE TABLE Waitlist (
+    ID int IDENTITY(1, 1),
+    PatientUsername varchar(255) REFERENCES Patients(Username),
+    FromDate date NOT NULL,
+    ToDate date NOT NULL,
+    Name varchar(255) REFERENCES Vaccines,
+    CreatedAt datetime DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (ID)
+);
@@ -0,0 +1,7 @@
+-- each scheduler process's last heartbeat on the primary, read on each read replica to measure how far
+-- behind it is
+CREATE TABLE ReplicaHeartbeat (
+    ID int,
+    Beat bigint NOT NULL,
+    PRIMARY KEY (ID)
+);
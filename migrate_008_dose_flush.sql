@@ -0,0 +1,6 @@
+-- the last dose journal record DoseInventory has written to Vaccines, see DoseInventory.recover
+CREATE TABLE DoseFlush (
+    ID int,
+    Seq bigint NOT NULL,
+    PRIMARY KEY (ID)
+);